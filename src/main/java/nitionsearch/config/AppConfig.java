@@ -2,6 +2,7 @@ package nitionsearch.config;
 
 import nitionsearch.persistence.dao.PageDAO;
 import nitionsearch.persistence.dao.PageDAOImpl;
+import nitionsearch.search.Analyzer;
 import nitionsearch.search.SearchEngine;
 import nitionsearch.crawler.WebCrawler;
 import nitionsearch.crawler.CrawlerConfig;
@@ -10,15 +11,22 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 
 @Configuration
-@EnableConfigurationProperties(CrawlerProperties.class)
+@EnableConfigurationProperties({CrawlerProperties.class, SearchProperties.class})
 public class AppConfig {
 
     @Bean
-    public SearchEngine searchEngine() {
-        return new SearchEngine();
+    public SearchEngine searchEngine(SearchProperties properties) throws IOException {
+        if (properties.getIndexDirectory().isBlank()) {
+            return new SearchEngine();
+        }
+        // reopens the index left by the last run
+        return SearchEngine.open(Paths.get(properties.getIndexDirectory()), new Analyzer.Builder().build(),
+                properties.getWalSyncPolicy());
     }
 
     @Bean
@@ -0,0 +1,17 @@
+package nitionsearch.config;
+
+import nitionsearch.search.WriteAheadLog;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "search")
+public class SearchProperties {
+    // empty keeps the index in memory only
+    private String indexDirectory = "";
+    private WriteAheadLog.SyncPolicy walSyncPolicy = WriteAheadLog.SyncPolicy.PER_WRITE;
+
+    public String getIndexDirectory() { return indexDirectory; }
+    public void setIndexDirectory(String indexDirectory) { this.indexDirectory = indexDirectory; }
+
+    public WriteAheadLog.SyncPolicy getWalSyncPolicy() { return walSyncPolicy; }
+    public void setWalSyncPolicy(WriteAheadLog.SyncPolicy walSyncPolicy) { this.walSyncPolicy = walSyncPolicy; }
+}
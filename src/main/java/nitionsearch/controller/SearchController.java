@@ -19,6 +19,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.time.Duration;
 
@@ -38,13 +39,26 @@ public class SearchController {
             @RequestParam String query,
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "10") int pageSize,
-            @RequestParam(defaultValue = "RELEVANCE") String sortOrder) {
+            @RequestParam(defaultValue = "RELEVANCE") String sortOrder,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) List<String> site) {
 
-        SearchOptions options = new SearchOptions.Builder()
-                .page(page)
-                .pageSize(pageSize)
-                .sortOrder(SortOrder.valueOf(sortOrder))
-                .build();
+        SearchOptions options;
+        try {
+            SearchOptions.Builder builder = new SearchOptions.Builder()
+                    .page(page)
+                    .pageSize(pageSize)
+                    .sortOrder(SortOrder.valueOf(sortOrder))
+                    .after(cursor);
+            if (site != null) {
+                site.forEach(builder::addFilter);
+            }
+            options = builder.build();
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
 
         SearchResult results = searchService.search(query, options);
 
@@ -53,10 +67,23 @@ public class SearchController {
         response.put("items", results.getItems());
         response.put("totalResults", results.getTotalResults());
         response.put("totalPages", results.getTotalPages());
+        response.put("totalResultsExact", results.isTotalResultsExact());
+        response.put("didYouMean", results.getDidYouMean());
+        response.put("nextCursor", results.getNextCursor());
 
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping(value = "/suggest", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ApiResponse<List<String>>> suggest(
+            @RequestParam String prefix,
+            @RequestParam(defaultValue = "8") int limit) {
+        if (limit < 0) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("limit must not be negative"));
+        }
+        return ResponseEntity.ok(ApiResponse.success(searchService.suggest(prefix, limit)));
+    }
+
     @PostMapping("/crawl")
     public ResponseEntity<ApiResponse<Void>> startCrawling(@Valid @RequestBody CrawlRequest request) {
         try {
@@ -83,6 +83,8 @@ public class WebCrawler {
                     // Check if there are no more URLs and all threads are idle
                     if (frontier.getQueueSize() == 0) {
                         System.out.println(threadName + ": No URLs in queue, waiting...");
+                        // make what was crawled so far searchable while idle
+                        searchEngine.refresh();
                         Thread.sleep(QUEUE_CHECK_INTERVAL);
                         continue;
                     }
@@ -223,6 +225,7 @@ public class WebCrawler {
                 Thread.currentThread().interrupt();
             }
         }
+        searchEngine.refresh();
     }
 
     public CrawlMetrics getMetrics() {
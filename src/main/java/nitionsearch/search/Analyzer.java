@@ -0,0 +1,160 @@
+package nitionsearch.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Turns text into index terms: a tokenizer splitting at whitespace followed
+ * by a chain of {@link TokenFilter}s. Pages are indexed and queries parsed
+ * with the same analyzer, so both produce the same terms.
+ * <p>
+ * The tokenizer copies each run of non-whitespace characters straight into
+ * a {@link TokenBuffer} and the filters rewrite it there, so analyzing a
+ * text allocates neither strings nor regular expressions. Runs without any
+ * letter or digit are not words and take no position. A word removed by a
+ * filter, such as a stop word, still takes its position, which keeps the
+ * distances phrases and proximity are scored on.
+ */
+public final class Analyzer {
+    private final TokenFilter[] filters;
+
+    private Analyzer(List<TokenFilter> filters) {
+        this.filters = filters.toArray(new TokenFilter[0]);
+    }
+
+    public static class Builder {
+        private boolean lowerCase = true;
+        private boolean punctuation = true;
+        private Collection<String> stopWords = TokenFilters.ENGLISH_STOP_WORDS;
+        private boolean stemming;
+        private final List<TokenFilter> filters = new ArrayList<>();
+
+        public Builder lowerCase(boolean lowerCase) {
+            this.lowerCase = lowerCase;
+            return this;
+        }
+
+        public Builder punctuation(boolean punctuation) {
+            this.punctuation = punctuation;
+            return this;
+        }
+
+        /**
+         * @param stopWords Lower case words to leave out of the index, empty to keep all.
+         */
+        public Builder stopWords(Collection<String> stopWords) {
+            this.stopWords = stopWords;
+            return this;
+        }
+
+        public Builder stemming(boolean stemming) {
+            this.stemming = stemming;
+            return this;
+        }
+
+        /**
+         * Appends a filter after the built-in ones.
+         */
+        public Builder addFilter(TokenFilter filter) {
+            filters.add(filter);
+            return this;
+        }
+
+        public Analyzer build() {
+            List<TokenFilter> chain = new ArrayList<>();
+            if (lowerCase) {
+                chain.add(TokenFilters.lowerCase());
+            }
+            if (punctuation) {
+                chain.add(TokenFilters.punctuation());
+            }
+            if (!stopWords.isEmpty()) {
+                chain.add(TokenFilters.stopWords(stopWords));
+            }
+            if (stemming) {
+                chain.add(TokenFilters.minimalEnglishStem());
+            }
+            chain.addAll(filters);
+            return new Analyzer(chain);
+        }
+    }
+
+    /**
+     * Analyzes a text into a buffer, replacing what it held.
+     * @param text Text to analyze.
+     * @param tokens Buffer receiving the terms with their positions.
+     */
+    public void analyze(CharSequence text, TokenBuffer tokens) {
+        tokens.clear();
+        char[] chars = tokens.text(text);
+        int length = text.length();
+        int position = 0;
+        int i = 0;
+        while (i < length) {
+            while (i < length && isWhitespace(chars[i])) {
+                i++;
+            }
+            int start = i;
+            boolean word = false;
+            while (i < length && !isWhitespace(chars[i])) {
+                word = word || TokenFilters.isLetterOrDigit(chars[i]);
+                i++;
+            }
+            if (!word) {
+                continue;
+            }
+            int offset = tokens.reserve(i - start);
+            char[] buffer = tokens.chars();
+            System.arraycopy(chars, start, buffer, offset, i - start);
+            int tokenLength = filter(buffer, offset, i - start, false);
+            if (tokenLength > 0) {
+                tokens.commit(tokenLength, position);
+            }
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        // ASCII text never needs the full Unicode check
+        return c <= ' ' ? c == ' ' || (c >= '\t' && c <= '\r') || (c >= '\u001c' && c <= '\u001f')
+                : c >= '\u0080' && Character.isWhitespace(c);
+    }
+
+    /**
+     * Analyzes a text into a list of terms, dropping positions.
+     */
+    public List<String> terms(CharSequence text) {
+        TokenBuffer tokens = new TokenBuffer();
+        analyze(text, tokens);
+        List<String> terms = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            terms.add(tokens.term(i));
+        }
+        return terms;
+    }
+
+    /**
+     * Runs only the normalizing filters over a single word, as needed for
+     * the part of a wildcard or fuzzy term before its operator.
+     * @return The normalized word, empty if nothing is left of it.
+     */
+    public String normalize(String word) {
+        char[] buffer = word.toCharArray();
+        int length = filter(buffer, 0, buffer.length, true);
+        return new String(buffer, 0, length);
+    }
+
+    private int filter(char[] buffer, int offset, int length, boolean normalizersOnly) {
+        for (TokenFilter filter : filters) {
+            if (normalizersOnly && !filter.isNormalizer()) {
+                continue;
+            }
+            length = filter.filter(buffer, offset, length);
+            if (length == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,48 @@
+package nitionsearch.search;
+
+/**
+ * Okapi BM25 term weighting.
+ * <p>
+ * All inputs are index-time statistics (document frequency, document count,
+ * token counts), so scoring a document is plain arithmetic.
+ */
+public class BM25Scorer {
+    public static final float DEFAULT_K1 = 1.2f;
+    public static final float DEFAULT_B = 0.75f;
+
+    private final float k1;
+    private final float b;
+
+    public BM25Scorer() {
+        this(DEFAULT_K1, DEFAULT_B);
+    }
+
+    public BM25Scorer(float k1, float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * @param docFrequency Number of documents containing the term.
+     * @param docCount Number of indexed documents.
+     * @return Inverse document frequency, never negative.
+     */
+    public float idf(int docFrequency, int docCount) {
+        return (float) Math.log(1 + (docCount - docFrequency + 0.5) / (docFrequency + 0.5));
+    }
+
+    /**
+     * @param idf Inverse document frequency of the term.
+     * @param frequency Occurrences of the term in the document.
+     * @param docLength Number of tokens in the document.
+     * @param averageDocLength Average number of tokens per document.
+     * @return BM25 weight of the term for the document.
+     */
+    public float score(float idf, int frequency, int docLength, float averageDocLength) {
+        if (frequency <= 0) {
+            return 0f;
+        }
+        float norm = k1 * (1 - b + b * docLength / averageDocLength);
+        return idf * frequency * (k1 + 1) / (frequency + norm);
+    }
+}
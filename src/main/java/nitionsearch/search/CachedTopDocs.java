@@ -0,0 +1,79 @@
+package nitionsearch.search;
+
+/**
+ * Top docs of a query as kept in the result cache, tagged with the index
+ * they were computed against: the ordinals they cover, how many of those
+ * pages were live and the statistics the pages were scored with.
+ * <p>
+ * New pages only ever get ordinals after all others, and merges keep the
+ * ordinals, so top docs stay exact for the ordinals they cover until one
+ * of those pages is deleted. Pages added since then are evaluated on their
+ * own and merged into the top docs by {@link QueryEvaluator#update}, scored
+ * with the cached statistics so old and new pages rank consistently. Those
+ * statistics drift from the ones of the growing index, so once it holds
+ * {@link #MAX_GROWTH} more live pages than when they were taken, the query
+ * is evaluated from scratch. So is a query whose wildcard or fuzzy terms
+ * were expanded, since new pages bring new terms to expand to.
+ */
+final class CachedTopDocs {
+    static final double MAX_GROWTH = 0.1;
+
+    private final TopDocs topDocs;
+    private final int maxDoc;
+    private final int liveDocCount;
+    private final QueryEvaluator.Statistics statistics;
+
+    /**
+     * @param topDocs Top docs of the query over the whole snapshot.
+     * @param statistics Statistics the top docs were scored with.
+     */
+    CachedTopDocs(TopDocs topDocs, IndexSnapshot snapshot, QueryEvaluator.Statistics statistics) {
+        this.topDocs = topDocs;
+        this.maxDoc = snapshot.getMaxDoc();
+        this.liveDocCount = snapshot.size();
+        this.statistics = statistics;
+    }
+
+    TopDocs getTopDocs() {
+        return topDocs;
+    }
+
+    /**
+     * @return First ordinal the top docs do not cover.
+     */
+    int getMaxDoc() {
+        return maxDoc;
+    }
+
+    QueryEvaluator.Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return Whether the snapshot holds exactly the pages the top docs
+     * were computed over.
+     */
+    boolean isCurrent(IndexSnapshot snapshot) {
+        // deletes lower the live count, additions raise the maximum ordinal
+        return snapshot.getMaxDoc() == maxDoc && snapshot.size() == liveDocCount;
+    }
+
+    /**
+     * @return Whether the top docs can be brought up to date with the
+     * snapshot by evaluating the pages added since.
+     */
+    boolean canUpdate(IndexSnapshot snapshot) {
+        int docCount = statistics.getDocCount();
+        return !statistics.isExpanded()
+                && snapshot.getMaxDoc() > maxDoc
+                && snapshot.size(maxDoc) == liveDocCount
+                && snapshot.size() - docCount <= docCount * MAX_GROWTH;
+    }
+
+    /**
+     * @return Approximate heap size in bytes.
+     */
+    long estimateBytes() {
+        return 32 + topDocs.estimateBytes() + statistics.estimateBytes();
+    }
+}
@@ -0,0 +1,78 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.util.*;
+
+/**
+ * Assigns dense int ordinals to indexed pages.
+ * <p>
+ * Postings refer to documents by ordinal only. The search engine collects
+ * buffered pages here until they are sealed into a {@link Segment}.
+ */
+public class DocumentDictionary {
+    private final List<Page> pages;
+    private int[] lengths;
+    private long totalLength;
+    private int minLength = Integer.MAX_VALUE;
+
+    public DocumentDictionary() {
+        pages = new ArrayList<>();
+        lengths = new int[16];
+    }
+
+    /**
+     * Registers a page and returns its ordinal. Ordinals are handed out in
+     * insertion order, so postings built from them stay sorted. Every call
+     * gets a new ordinal, also for a page added before: a replaced or
+     * re-added page must not share the ordinal its tombstoned version has.
+     * @param page Page to register.
+     * @param length Number of tokens indexed for the page.
+     * @return Ordinal of the page.
+     */
+    public int add(Page page, int length) {
+        int ordinal = pages.size();
+        pages.add(page);
+        if (ordinal == lengths.length) {
+            lengths = Arrays.copyOf(lengths, ordinal * 2);
+        }
+        lengths[ordinal] = length;
+        totalLength += length;
+        minLength = Math.min(minLength, length);
+        return ordinal;
+    }
+
+    public Page getPage(int ordinal) {
+        return pages.get(ordinal);
+    }
+
+    public UUID getId(int ordinal) {
+        return pages.get(ordinal).getId();
+    }
+
+    /**
+     * @return Number of tokens indexed for the page.
+     */
+    public int getLength(int ordinal) {
+        return lengths[ordinal];
+    }
+
+    public float getAverageLength() {
+        return pages.isEmpty() ? 0f : (float) totalLength / pages.size();
+    }
+
+    /**
+     * @return Token count of the shortest page, which bounds BM25 scores.
+     */
+    public int getMinLength() {
+        return pages.isEmpty() ? 0 : minLength;
+    }
+
+    public List<Page> getPages() {
+        return Collections.unmodifiableList(pages);
+    }
+
+    public int size() {
+        return pages.size();
+    }
+}
@@ -0,0 +1,91 @@
+package nitionsearch.search;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often keys were seen,
+ * for the admission decisions of {@link SearchCache}.
+ * <p>
+ * Each key increments one counter in each of four rows, and its estimate
+ * is the smallest of them, so collisions can only overestimate. Once ten
+ * times as many increments as the table is sized for have been counted,
+ * every counter is halved: old popularity fades and the counters, which
+ * saturate at 15, keep telling hot keys from warm ones. Not thread-safe.
+ */
+final class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = {
+            0x97CB_3127_F90E_8F4BL, 0xB492_B66F_BE98_F273L, 0x9AE1_6A3B_2F90_404FL, 0xCBF2_9CE4_8422_2325L};
+
+    // sixteen 4-bit counters per long
+    private long[] table = new long[16];
+    private int sampleSize = 10 * 16;
+    private int additions;
+
+    /**
+     * Grows the table to count about as many distinct keys as the cache holds.
+     */
+    void ensureCapacity(int entries) {
+        int needed = Integer.highestOneBit(Math.max(16, entries - 1) << 1);
+        if (needed > table.length && needed <= (1 << 24)) {
+            table = new long[needed];
+            sampleSize = 10 * needed;
+            additions = 0;
+        }
+    }
+
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            added |= incrementAt(index(hash, row), counterOffset(hash, row));
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @return Estimated number of increments for the key, at most 15.
+     */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < 4; row++) {
+            long word = table[index(hash, row)];
+            frequency = Math.min(frequency, (int) ((word >>> counterOffset(hash, row)) & 0xF));
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    private static int counterOffset(int hash, int row) {
+        // a different counter of the word in each row
+        return (((hash >>> (row << 3)) & 3) << 2) + (row << 4);
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private static int spread(int hashCode) {
+        int hash = hashCode * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,197 @@
+package nitionsearch.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directory holding a persistent index: one immutable {@link SegmentFile}
+ * per segment and a manifest naming the segments of the last committed
+ * snapshot with their tombstones.
+ * <p>
+ * Segment files are never changed once written. Committing a snapshot
+ * rewrites the small manifest under a temporary name and renames it over
+ * the old one, so after a crash the directory holds either the old or the
+ * new snapshot. Renames only survive a power loss once the directory itself
+ * is forced, so every rename is followed by {@link #sync(Path)}, and a
+ * commit returns only when the new manifest is durable. Files the manifest
+ * no longer names are deleted after that, and on open if a crash left them
+ * behind.
+ */
+public final class IndexDirectory {
+    static final String MANIFEST = "segments";
+    private static final int MAGIC = 0x4E53_4D46;
+    private static final int VERSION = 1;
+
+    private final Path path;
+    private final AtomicLong nextFileId;
+    // guarded by this, files named by the last committed manifest
+    private Set<String> committedFiles = Collections.emptySet();
+
+    private IndexDirectory(Path path, long nextFileId) {
+        this.path = path;
+        this.nextFileId = new AtomicLong(nextFileId);
+    }
+
+    /**
+     * Opens a directory, creating it if it does not exist.
+     */
+    public static IndexDirectory open(Path path) throws IOException {
+        Files.createDirectories(path);
+        long maxId = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*" + SegmentFile.EXTENSION)) {
+            for (Path file : files) {
+                maxId = Math.max(maxId, fileId(file.getFileName().toString()));
+            }
+        }
+        return new IndexDirectory(path, maxId + 1);
+    }
+
+    private static long fileId(String name) {
+        try {
+            return Long.parseLong(name.substring(1, name.length() - SegmentFile.EXTENSION.length()), 36);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Opens the last committed snapshot and deletes every file it does not
+     * use.
+     * @return The snapshot, empty if nothing was committed yet.
+     */
+    public synchronized IndexSnapshot load() throws IOException {
+        Path manifest = path.resolve(MANIFEST);
+        List<Segment> segments = new ArrayList<>();
+        long generation = 0;
+        Set<String> files = new HashSet<>();
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not an index manifest: " + manifest);
+                }
+                if (in.readInt() != VERSION) {
+                    throw new IOException("Unsupported index version: " + manifest);
+                }
+                generation = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    long[] words = new long[in.readInt()];
+                    for (int j = 0; j < words.length; j++) {
+                        words[j] = in.readLong();
+                    }
+                    files.add(name);
+                    segments.add(Segment.open(SegmentFile.open(path.resolve(name)), RoaringBitmap.valueOf(words)));
+                }
+            }
+        }
+        committedFiles = files;
+        deleteUnreferenced(files);
+        return IndexSnapshot.of(segments, generation);
+    }
+
+    /**
+     * Writes a segment to a new file.
+     * @return The segment, now read from the mapped file.
+     */
+    public Segment write(Segment segment) throws IOException {
+        Path file = path.resolve("_" + Long.toString(nextFileId.getAndIncrement(), 36) + SegmentFile.EXTENSION);
+        SegmentFile.write(segment, file);
+        return segment.withFile(SegmentFile.open(file));
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so the files created in it
+     * and renamed within it survive a power loss.
+     */
+    static void sync(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Makes a snapshot the one the directory opens with, durably, then
+     * deletes the files of segments it no longer contains. Searches still running on an
+     * older snapshot keep reading them: the mappings stay valid after the
+     * files are deleted.
+     * @param snapshot Snapshot whose segments were all written to this directory.
+     */
+    public synchronized void commit(IndexSnapshot snapshot) throws IOException {
+        Set<String> files = new HashSet<>();
+        Path temporary = path.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshot.getGeneration());
+            out.writeInt(snapshot.getSegments().size());
+            for (Segment segment : snapshot.getSegments()) {
+                if (segment.getFile() == null) {
+                    throw new IllegalArgumentException("Segment at " + segment.getDocBase() + " was not written");
+                }
+                String name = segment.getFile().getPath().getFileName().toString();
+                files.add(name);
+                out.writeUTF(name);
+                long[] words = segment.getDeletedDocs().toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        // until then the old manifest, and the files it names, may come back
+        sync(path);
+        for (String name : committedFiles) {
+            if (!files.contains(name)) {
+                try {
+                    Files.deleteIfExists(path.resolve(name));
+                } catch (IOException e) {
+                    // platforms that lock mapped files refuse, the next open removes it
+                }
+            }
+        }
+        committedFiles = files;
+    }
+
+    private void deleteUnreferenced(Set<String> files) throws IOException {
+        List<Path> obsolete = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                boolean segment = name.endsWith(SegmentFile.EXTENSION) && !files.contains(name);
+                if (segment || name.endsWith(".tmp")) {
+                    obsolete.add(entry);
+                }
+            }
+        }
+        for (Path file : obsolete) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
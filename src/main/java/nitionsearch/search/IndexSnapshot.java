@@ -0,0 +1,194 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable point-in-time view of the index that searches run against.
+ * <p>
+ * A snapshot is an ordered list of {@link Segment}s covering consecutive
+ * ordinal ranges. Sealing a buffer, applying a delete or committing a merge
+ * builds a new snapshot and leaves this one untouched, so a search keeps
+ * the snapshot it started with, never sees a half-indexed page and never
+ * waits for the writer.
+ */
+public final class IndexSnapshot {
+    public static final IndexSnapshot EMPTY = new IndexSnapshot(Collections.emptyList(), 0);
+
+    private final List<Segment> segments;
+    private final long generation;
+    private final int liveDocCount;
+    private final long liveLength;
+    private final int minLength;
+
+    private IndexSnapshot(List<Segment> segments, long generation) {
+        this.segments = segments;
+        this.generation = generation;
+        int docs = 0;
+        long length = 0;
+        int min = Integer.MAX_VALUE;
+        for (Segment segment : segments) {
+            docs += segment.getLiveDocCount();
+            length += segment.getLiveLength();
+            if (segment.getLiveDocCount() > 0) {
+                min = Math.min(min, segment.getMinLength());
+            }
+        }
+        this.liveDocCount = docs;
+        this.liveLength = length;
+        this.minLength = min == Integer.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Rebuilds a snapshot from segments opened from disk.
+     * @param segments Segments in ordinal order, each starting where the
+     *                 previous one ends.
+     */
+    static IndexSnapshot of(List<Segment> segments, long generation) {
+        int maxDoc = 0;
+        for (Segment segment : segments) {
+            if (segment.getDocBase() != maxDoc) {
+                throw new IllegalArgumentException("Segment must start at ordinal " + maxDoc);
+            }
+            maxDoc = segment.getMaxDoc();
+        }
+        return new IndexSnapshot(Collections.unmodifiableList(new ArrayList<>(segments)), generation);
+    }
+
+    /**
+     * @return A snapshot with the segment appended after all others.
+     */
+    public IndexSnapshot withSegment(Segment segment) {
+        if (segment.getDocBase() != getMaxDoc()) {
+            throw new IllegalArgumentException("Segment must start at ordinal " + getMaxDoc());
+        }
+        List<Segment> newSegments = new ArrayList<>(segments);
+        newSegments.add(segment);
+        return new IndexSnapshot(Collections.unmodifiableList(newSegments), generation + 1);
+    }
+
+    /**
+     * @param sources Adjacent segments that were merged.
+     * @param merged Result of merging them.
+     * @return A snapshot with the sources replaced by the merged segment,
+     * keeping deletes applied to the sources in the meantime. A merge does
+     * not change what can be found, so the generation stays the same.
+     */
+    public IndexSnapshot withMerge(List<Segment> sources, Segment merged) {
+        int from = indexOf(sources.get(0).getDocBase());
+        List<Segment> current = segments.subList(from, from + sources.size());
+        List<Segment> newSegments = new ArrayList<>(segments.size() - sources.size() + 1);
+        newSegments.addAll(segments.subList(0, from));
+        newSegments.add(merged.withDeletionsOf(current));
+        newSegments.addAll(segments.subList(from + sources.size(), segments.size()));
+        return new IndexSnapshot(Collections.unmodifiableList(newSegments), generation);
+    }
+
+    /**
+     * @return A snapshot with the page tombstoned, or this one if the page
+     * is unknown or already deleted.
+     */
+    public IndexSnapshot withDeletion(int docId) {
+        int index = segmentIndex(docId);
+        if (index < 0 || segments.get(index).isDeleted(docId)) {
+            return this;
+        }
+        List<Segment> newSegments = new ArrayList<>(segments);
+        newSegments.set(index, segments.get(index).delete(docId));
+        return new IndexSnapshot(Collections.unmodifiableList(newSegments), generation + 1);
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return The segment holding the ordinal, or null.
+     */
+    public Segment getSegment(int docId) {
+        int index = segmentIndex(docId);
+        return index < 0 ? null : segments.get(index);
+    }
+
+    private int segmentIndex(int docId) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = segments.get(mid);
+            if (docId < segment.getDocBase()) {
+                high = mid - 1;
+            } else if (docId >= segment.getMaxDoc()) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(int docBase) {
+        int index = segmentIndex(docBase);
+        if (index < 0 || segments.get(index).getDocBase() != docBase) {
+            throw new IllegalStateException("No segment starts at ordinal " + docBase);
+        }
+        return index;
+    }
+
+    /**
+     * @return The page, or null if it was deleted.
+     */
+    public Page getPage(int docId) {
+        return getSegment(docId).getPage(docId);
+    }
+
+    /**
+     * @return Number of searchable pages.
+     */
+    public int size() {
+        return liveDocCount;
+    }
+
+    /**
+     * @return Number of searchable pages with an ordinal below the given one.
+     */
+    public int size(int maxDoc) {
+        int docs = 0;
+        for (Segment segment : segments) {
+            if (segment.getDocBase() >= maxDoc) {
+                break;
+            }
+            docs += segment.getLiveDocCount(maxDoc);
+        }
+        return docs;
+    }
+
+    /**
+     * @return First ordinal after the last segment.
+     */
+    public int getMaxDoc() {
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getMaxDoc();
+    }
+
+    public float getAverageLength() {
+        return liveDocCount == 0 ? 0f : (float) liveLength / liveDocCount;
+    }
+
+    /**
+     * @return Lower bound on the token count of the live pages, which bounds
+     * BM25 scores.
+     */
+    public int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return Number of additions and deletions that led to this snapshot.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+}
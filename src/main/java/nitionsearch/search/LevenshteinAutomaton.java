@@ -0,0 +1,97 @@
+package nitionsearch.search;
+
+/**
+ * Accepts the words within a maximum edit distance of a term, counting
+ * insertions, deletions and substitutions.
+ * <p>
+ * A state is the row of edit distances between the input read so far and
+ * every prefix of the term, with distances above the maximum clamped to one
+ * more than it. The states are computed while the input is read instead of
+ * being compiled up front, which costs O(|term|) per character and lets a
+ * trie walk feed the automaton one label character at a time: as soon as
+ * {@link #canMatch(int[])} is false, no term below the current node can be
+ * accepted and the walk leaves the subtree.
+ */
+public final class LevenshteinAutomaton {
+    /**
+     * Largest supported edit distance. Two edits already reach most of a
+     * short vocabulary; beyond that the walk visits too much of the trie.
+     */
+    public static final int MAX_EDITS = 2;
+
+    private final char[] term;
+    private final int maxEdits;
+
+    /**
+     * @param term Term to match.
+     * @param maxEdits Maximum edit distance, at most {@link #MAX_EDITS}.
+     */
+    public LevenshteinAutomaton(String term, int maxEdits) {
+        if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+            throw new IllegalArgumentException("Edit distance must be between 0 and " + MAX_EDITS);
+        }
+        this.term = term.toCharArray();
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * @return The edit distance allowed for a misspelled term of the given
+     * length: none up to two characters, one up to five and two beyond.
+     */
+    public static int autoEdits(int length) {
+        if (length < 3) {
+            return 0;
+        }
+        return length < 6 ? 1 : 2;
+    }
+
+    public int[] start() {
+        int[] state = new int[term.length + 1];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = Math.min(i, maxEdits + 1);
+        }
+        return state;
+    }
+
+    /**
+     * @param state Current state, left unchanged.
+     * @param c Next input character.
+     * @return The state after reading the character.
+     */
+    public int[] step(int[] state, char c) {
+        int[] next = new int[state.length];
+        next[0] = Math.min(state[0] + 1, maxEdits + 1);
+        for (int i = 1; i < state.length; i++) {
+            int cost = term[i - 1] == c ? 0 : 1;
+            int distance = Math.min(state[i - 1] + cost, Math.min(state[i], next[i - 1]) + 1);
+            next[i] = Math.min(distance, maxEdits + 1);
+        }
+        return next;
+    }
+
+    /**
+     * @return True if the input read so far is within the maximum distance.
+     */
+    public boolean isAccepting(int[] state) {
+        return state[term.length] <= maxEdits;
+    }
+
+    /**
+     * @return True if some continuation of the input can still be accepted.
+     */
+    public boolean canMatch(int[] state) {
+        for (int distance : state) {
+            if (distance <= maxEdits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Edit distance between the input and the term, valid if the state is accepting.
+     */
+    public int distance(int[] state) {
+        return state[term.length];
+    }
+}
@@ -0,0 +1,430 @@
+package nitionsearch.search;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed positional postings of a single term.
+ * <p>
+ * Postings are kept in two variable-byte streams. The document stream holds
+ * the delta to the previous document ordinal and the term frequency of every
+ * document; the position stream holds the positions of each document, delta
+ * encoded against the previous position in the same document. Every
+ * {@link #SKIP_INTERVAL} documents a skip entry records where the next block
+ * starts in both streams, so {@link PostingsCursor#advance(int)} can jump
+ * over whole blocks. The highest frequency within each block is kept as
+ * well, which bounds the score any document of the block can reach.
+ * <p>
+ * The frequency of a document is only known once the next document starts,
+ * so the last document stays pending until then; cursors read it from the
+ * pending fields.
+ */
+public class PostingList {
+    static final int SKIP_INTERVAL = 64;
+
+    private static final int NO_DOC = -1;
+    private static final int[] NO_POSITIONS = new int[0];
+    static final int HEADER_BYTES = 44;
+
+    /**
+     * Shared empty list, for lookups of terms that do not occur.
+     */
+    static final PostingList EMPTY = map(ByteBuffer.allocate(HEADER_BYTES).putInt(20, NO_DOC).putInt(24, NO_DOC), 0);
+
+    byte[] docData;
+    int docLength;
+    byte[] positionData;
+    int positionLength;
+
+    // last doc of every full block and where the following block starts
+    int[] skipDocIds;
+    int[] skipDocOffsets;
+    int[] skipPositionOffsets;
+    int skipCount;
+    int[] blockMaxFrequencies;
+
+    int flushedDocs;
+    int lastFlushedDoc = NO_DOC;
+    int pendingDoc = NO_DOC;
+    int pendingFrequency;
+    private int pendingPositionStart;
+    private int lastPosition;
+    private int maxFrequency;
+
+    // a read-only list decoded in place from a buffer instead of the arrays
+    final ByteBuffer mapped;
+    final int mappedOffset;
+    int blocks;
+
+    public PostingList() {
+        docData = new byte[8];
+        positionData = new byte[8];
+        skipDocIds = new int[0];
+        skipDocOffsets = new int[0];
+        skipPositionOffsets = new int[0];
+        blockMaxFrequencies = new int[1];
+        mapped = null;
+        mappedOffset = 0;
+    }
+
+    private PostingList(ByteBuffer buffer, int offset) {
+        mapped = buffer;
+        mappedOffset = offset;
+        docLength = buffer.getInt(offset);
+        positionLength = buffer.getInt(offset + 4);
+        skipCount = buffer.getInt(offset + 8);
+        blocks = buffer.getInt(offset + 12);
+        flushedDocs = buffer.getInt(offset + 16);
+        lastFlushedDoc = buffer.getInt(offset + 20);
+        pendingDoc = buffer.getInt(offset + 24);
+        pendingFrequency = buffer.getInt(offset + 28);
+        pendingPositionStart = buffer.getInt(offset + 32);
+        lastPosition = buffer.getInt(offset + 36);
+        maxFrequency = buffer.getInt(offset + 40);
+    }
+
+    /**
+     * Appends an occurrence. Documents must be added in ascending ordinal
+     * order, positions of a document in ascending order.
+     * @param docId Ordinal of the document.
+     * @param position Position of the term within the document.
+     * @return True if this is the first occurrence in the document.
+     */
+    public boolean add(int docId, int position) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException("Mapped postings are read-only, copy them first");
+        }
+        boolean first = docId != pendingDoc;
+        if (first) {
+            if (docId < pendingDoc) {
+                throw new IllegalArgumentException("Postings must be added in document order");
+            }
+            flushPending();
+            pendingDoc = docId;
+            pendingFrequency = 0;
+            pendingPositionStart = positionLength;
+            lastPosition = 0;
+        } else if (position < lastPosition) {
+            throw new IllegalArgumentException("Positions must be added in ascending order");
+        }
+        writePositionVInt(position - lastPosition);
+        lastPosition = position;
+        pendingFrequency++;
+        maxFrequency = Math.max(maxFrequency, pendingFrequency);
+        return first;
+    }
+
+    /**
+     * Appends all postings of another list, whose documents must all come
+     * after the documents of this list.
+     * @param other Postings to append.
+     */
+    public void addAll(PostingList other) {
+        PostingsCursor cursor = other.cursor();
+        while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+            for (int position : cursor.positions()) {
+                add(cursor.docId(), position);
+            }
+        }
+    }
+
+    /**
+     * Builds the postings of documents containing any of the given terms.
+     * The frequency of a document is the sum over all lists, and its
+     * positions are merged.
+     * @param lists Postings of the terms.
+     * @return A new list.
+     */
+    public static PostingList union(List<PostingList> lists) {
+        PostingList union = new PostingList();
+        PostingsCursor[] cursors = new PostingsCursor[lists.size()];
+        int docId = PostingsCursor.NO_MORE_DOCS;
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = lists.get(i).cursor();
+            docId = Math.min(docId, cursors[i].nextDoc());
+        }
+        int[] positions = new int[16];
+        while (docId != PostingsCursor.NO_MORE_DOCS) {
+            int count = 0;
+            int next = PostingsCursor.NO_MORE_DOCS;
+            for (PostingsCursor cursor : cursors) {
+                if (cursor.docId() == docId) {
+                    int[] termPositions = cursor.positions();
+                    if (count + termPositions.length > positions.length) {
+                        positions = Arrays.copyOf(positions, Math.max(positions.length * 2, count + termPositions.length));
+                    }
+                    System.arraycopy(termPositions, 0, positions, count, termPositions.length);
+                    count += termPositions.length;
+                    cursor.nextDoc();
+                }
+                next = Math.min(next, cursor.docId());
+            }
+            Arrays.sort(positions, 0, count);
+            for (int i = 0; i < count; i++) {
+                union.add(docId, positions[i]);
+            }
+            docId = next;
+        }
+        return union;
+    }
+
+    /**
+     * @return An independent copy that can be appended to without changing
+     * this list.
+     */
+    public PostingList copy() {
+        if (mapped != null) {
+            return read(mapped, mappedOffset);
+        }
+        PostingList copy = new PostingList();
+        copy.docData = Arrays.copyOf(docData, Math.max(8, docLength));
+        copy.docLength = docLength;
+        copy.positionData = Arrays.copyOf(positionData, Math.max(8, positionLength));
+        copy.positionLength = positionLength;
+        copy.skipDocIds = Arrays.copyOf(skipDocIds, skipCount);
+        copy.skipDocOffsets = Arrays.copyOf(skipDocOffsets, skipCount);
+        copy.skipPositionOffsets = Arrays.copyOf(skipPositionOffsets, skipCount);
+        copy.skipCount = skipCount;
+        copy.blockMaxFrequencies = blockMaxFrequencies.clone();
+        copy.flushedDocs = flushedDocs;
+        copy.lastFlushedDoc = lastFlushedDoc;
+        copy.pendingDoc = pendingDoc;
+        copy.pendingFrequency = pendingFrequency;
+        copy.pendingPositionStart = pendingPositionStart;
+        copy.lastPosition = lastPosition;
+        copy.maxFrequency = maxFrequency;
+        return copy;
+    }
+
+    /**
+     * Writes the list in the layout {@link #read(ByteBuffer, int)} expects.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        if (mapped != null) {
+            // already in this layout
+            byte[] bytes = new byte[docDataOffset() + docLength + positionLength - mappedOffset];
+            mapped.get(mappedOffset, bytes);
+            out.write(bytes);
+            return;
+        }
+        out.writeInt(docLength);
+        out.writeInt(positionLength);
+        out.writeInt(skipCount);
+        out.writeInt(blockMaxFrequencies.length);
+        out.writeInt(flushedDocs);
+        out.writeInt(lastFlushedDoc);
+        out.writeInt(pendingDoc);
+        out.writeInt(pendingFrequency);
+        out.writeInt(pendingPositionStart);
+        out.writeInt(lastPosition);
+        out.writeInt(maxFrequency);
+        for (int i = 0; i < skipCount; i++) {
+            out.writeInt(skipDocIds[i]);
+            out.writeInt(skipDocOffsets[i]);
+            out.writeInt(skipPositionOffsets[i]);
+        }
+        for (int frequency : blockMaxFrequencies) {
+            out.writeInt(frequency);
+        }
+        out.write(docData, 0, docLength);
+        out.write(positionData, 0, positionLength);
+    }
+
+    /**
+     * Reads a list written by {@link #writeTo(DataOutput)}. The list is
+     * copied out of the buffer, so it stays valid and can be appended to.
+     * @param buffer Buffer holding the list, read with absolute offsets only.
+     * @param offset Where the list starts.
+     */
+    static PostingList read(ByteBuffer buffer, int offset) {
+        PostingList view = map(buffer, offset);
+        PostingList list = new PostingList();
+        list.docLength = view.docLength;
+        list.positionLength = view.positionLength;
+        list.skipCount = view.skipCount;
+        list.flushedDocs = view.flushedDocs;
+        list.lastFlushedDoc = view.lastFlushedDoc;
+        list.pendingDoc = view.pendingDoc;
+        list.pendingFrequency = view.pendingFrequency;
+        list.pendingPositionStart = view.pendingPositionStart;
+        list.lastPosition = view.lastPosition;
+        list.maxFrequency = view.maxFrequency;
+        list.skipDocIds = new int[list.skipCount];
+        list.skipDocOffsets = new int[list.skipCount];
+        list.skipPositionOffsets = new int[list.skipCount];
+        for (int i = 0; i < list.skipCount; i++) {
+            list.skipDocIds[i] = view.skipDocId(i);
+            list.skipDocOffsets[i] = view.skipDocOffset(i);
+            list.skipPositionOffsets[i] = view.skipPositionOffset(i);
+        }
+        list.blockMaxFrequencies = new int[Math.max(1, view.blocks)];
+        for (int i = 0; i < view.blocks; i++) {
+            list.blockMaxFrequencies[i] = view.blockMaxFrequency(i);
+        }
+        // keep room for appending, as a fresh list does
+        list.docData = new byte[Math.max(8, list.docLength)];
+        buffer.get(view.docDataOffset(), list.docData, 0, list.docLength);
+        list.positionData = new byte[Math.max(8, list.positionLength)];
+        buffer.get(view.docDataOffset() + list.docLength, list.positionData, 0, list.positionLength);
+        return list;
+    }
+
+    /**
+     * Wraps a list written by {@link #writeTo(DataOutput)} without copying
+     * it: cursors decode straight from the buffer, so a lookup costs the
+     * header only. The list is read-only and valid as long as the buffer.
+     * @param buffer Buffer holding the list, read with absolute offsets only.
+     * @param offset Where the list starts.
+     */
+    static PostingList map(ByteBuffer buffer, int offset) {
+        return new PostingList(buffer, offset);
+    }
+
+    // the tables of a mapped list, in the order writeTo lays them out
+
+    int skipDocId(int skip) {
+        return mapped.getInt(mappedOffset + HEADER_BYTES + skip * 12);
+    }
+
+    int skipDocOffset(int skip) {
+        return mapped.getInt(mappedOffset + HEADER_BYTES + skip * 12 + 4);
+    }
+
+    int skipPositionOffset(int skip) {
+        return mapped.getInt(mappedOffset + HEADER_BYTES + skip * 12 + 8);
+    }
+
+    int blockMaxFrequency(int block) {
+        return mapped.getInt(mappedOffset + HEADER_BYTES + skipCount * 12 + block * 4);
+    }
+
+    int docDataOffset() {
+        return mappedOffset + HEADER_BYTES + skipCount * 12 + blocks * 4;
+    }
+
+    private void flushPending() {
+        if (pendingDoc == NO_DOC) {
+            return;
+        }
+        if (flushedDocs > 0 && flushedDocs % SKIP_INTERVAL == 0) {
+            addSkipEntry();
+        }
+        writeDocVInt(lastFlushedDoc == NO_DOC ? pendingDoc : pendingDoc - lastFlushedDoc);
+        writeDocVInt(pendingFrequency);
+        int block = flushedDocs / SKIP_INTERVAL;
+        if (block == blockMaxFrequencies.length) {
+            blockMaxFrequencies = Arrays.copyOf(blockMaxFrequencies, block * 2);
+        }
+        blockMaxFrequencies[block] = Math.max(blockMaxFrequencies[block], pendingFrequency);
+        lastFlushedDoc = pendingDoc;
+        flushedDocs++;
+    }
+
+    private void addSkipEntry() {
+        if (skipCount == skipDocIds.length) {
+            int capacity = Math.max(4, skipCount * 2);
+            skipDocIds = Arrays.copyOf(skipDocIds, capacity);
+            skipDocOffsets = Arrays.copyOf(skipDocOffsets, capacity);
+            skipPositionOffsets = Arrays.copyOf(skipPositionOffsets, capacity);
+        }
+        skipDocIds[skipCount] = lastFlushedDoc;
+        skipDocOffsets[skipCount] = docLength;
+        // positions of the pending doc are already written, the block starts with them
+        skipPositionOffsets[skipCount] = pendingPositionStart;
+        skipCount++;
+    }
+
+    private void writeDocVInt(int value) {
+        if (docLength + 5 > docData.length) {
+            docData = Arrays.copyOf(docData, docData.length * 2);
+        }
+        docLength = writeVInt(docData, docLength, value);
+    }
+
+    private void writePositionVInt(int value) {
+        if (positionLength + 5 > positionData.length) {
+            positionData = Arrays.copyOf(positionData, positionData.length * 2);
+        }
+        positionLength = writeVInt(positionData, positionLength, value);
+    }
+
+    static int writeVInt(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * @return A cursor over the documents and positions of this list.
+     */
+    public PostingsCursor cursor() {
+        return new PostingsCursor(this);
+    }
+
+    /**
+     * @return Number of documents containing the term.
+     */
+    public int size() {
+        return pendingDoc == NO_DOC ? flushedDocs : flushedDocs + 1;
+    }
+
+    public boolean isEmpty() {
+        return pendingDoc == NO_DOC;
+    }
+
+    /**
+     * @return Highest frequency of the term in any single document.
+     */
+    public int getMaxFrequency() {
+        return maxFrequency;
+    }
+
+    /**
+     * @return Ascending ordinals of the documents containing the term.
+     */
+    public int[] getDocIds() {
+        int[] docIds = new int[size()];
+        PostingsCursor cursor = cursor();
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = cursor.nextDoc();
+        }
+        return docIds;
+    }
+
+    public boolean contains(int docId) {
+        return cursor().advance(docId) == docId;
+    }
+
+    public int getFrequency(int docId) {
+        PostingsCursor cursor = cursor();
+        return cursor.advance(docId) == docId ? cursor.frequency() : 0;
+    }
+
+    /**
+     * @param docId Ordinal of the document.
+     * @return Positions of the term in the document, empty if it does not occur.
+     */
+    public int[] getPositions(int docId) {
+        PostingsCursor cursor = cursor();
+        return cursor.advance(docId) == docId ? cursor.positions() : NO_POSITIONS;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        PostingsCursor cursor = cursor();
+        while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(cursor.docId()).append('=').append(Arrays.toString(cursor.positions()));
+        }
+        return builder.append('}').toString();
+    }
+}
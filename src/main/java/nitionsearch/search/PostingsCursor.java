@@ -0,0 +1,248 @@
+package nitionsearch.search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Forward-only cursor over a {@link PostingList}.
+ * <p>
+ * The cursor reads the lists kept on the heap and the lists mapped from a
+ * segment file alike, with absolute reads only; a mapped list is never
+ * copied.
+ * <p>
+ * Positions are decoded lazily: documents whose positions are never asked
+ * for are stepped over without decoding them.
+ */
+public class PostingsCursor {
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final ByteBuffer docData;
+    private final ByteBuffer positionData;
+    private final int docStart;
+    private final int positionStart;
+    // skip entries and block maxima come from the list itself when it is mapped
+    private final PostingList mapped;
+    private final int[] skipDocIds;
+    private final int[] skipDocOffsets;
+    private final int[] skipPositionOffsets;
+    private final int skipCount;
+    private final int[] blockMaxFrequencies;
+    private final int blocks;
+    private final int flushedDocs;
+    private final int lastFlushedDoc;
+    private final int pendingDoc;
+    private final int pendingFrequency;
+
+    private int docOffset;
+    private int positionOffset;
+    private int docIndex = -1;
+    private int docId = -1;
+    private int frequency;
+    private int[] positions;
+    // positions of earlier documents that were stepped over without decoding
+    private int unreadPositions;
+    private int nextSkip;
+
+    PostingsCursor(PostingList postings) {
+        if (postings.mapped == null) {
+            this.docData = ByteBuffer.wrap(postings.docData);
+            this.positionData = ByteBuffer.wrap(postings.positionData);
+            this.docStart = 0;
+            this.mapped = null;
+            this.skipDocIds = postings.skipDocIds;
+            this.skipDocOffsets = postings.skipDocOffsets;
+            this.skipPositionOffsets = postings.skipPositionOffsets;
+            this.blockMaxFrequencies = postings.blockMaxFrequencies;
+            this.blocks = postings.blockMaxFrequencies.length;
+            this.positionStart = 0;
+        } else {
+            this.docData = postings.mapped;
+            this.positionData = postings.mapped;
+            this.docStart = postings.docDataOffset();
+            this.mapped = postings;
+            this.skipDocIds = null;
+            this.skipDocOffsets = null;
+            this.skipPositionOffsets = null;
+            this.blockMaxFrequencies = null;
+            this.blocks = postings.blocks;
+            this.positionStart = docStart + postings.docLength;
+        }
+        this.docOffset = docStart;
+        this.positionOffset = positionStart;
+        this.skipCount = postings.skipCount;
+        this.flushedDocs = postings.flushedDocs;
+        this.lastFlushedDoc = postings.lastFlushedDoc;
+        this.pendingDoc = postings.pendingDoc;
+        this.pendingFrequency = postings.pendingFrequency;
+    }
+
+    /**
+     * @return Current document ordinal, -1 before the first call to
+     * {@link #nextDoc()} and {@link #NO_MORE_DOCS} once exhausted.
+     */
+    public int docId() {
+        return docId;
+    }
+
+    /**
+     * @return Number of occurrences of the term in the current document.
+     */
+    public int frequency() {
+        return frequency;
+    }
+
+    public int nextDoc() {
+        if (docId == NO_MORE_DOCS) {
+            return NO_MORE_DOCS;
+        }
+        if (positions == null) {
+            unreadPositions += frequency;
+        }
+        positions = null;
+        docIndex++;
+        if (docIndex < flushedDocs) {
+            int delta = readDocVInt();
+            docId = docIndex == 0 ? delta : docId + delta;
+            frequency = readDocVInt();
+        } else if (docIndex == flushedDocs && pendingDoc >= 0) {
+            docId = pendingDoc;
+            frequency = pendingFrequency;
+        } else {
+            docId = NO_MORE_DOCS;
+            frequency = 0;
+        }
+        return docId;
+    }
+
+    /**
+     * Moves to the first document at or after the target, using the skip
+     * entries to jump over blocks that end before it. The skip entries are
+     * searched by galloping: doubling steps past the current block, then a
+     * binary search, so a far target costs a logarithmic number of entries.
+     * @param target Document ordinal to advance to.
+     * @return The document the cursor is now on.
+     */
+    public int advance(int target) {
+        if (docId >= target) {
+            return docId;
+        }
+        int skip = -1;
+        if (nextSkip < skipCount && skipDocId(nextSkip) < target) {
+            // last skip entry before the target, between low and high
+            int low = nextSkip;
+            int step = 1;
+            int high = low + step;
+            while (high < skipCount && skipDocId(high) < target) {
+                low = high;
+                step <<= 1;
+                high = low + step;
+            }
+            high = Math.min(high, skipCount);
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (skipDocId(mid) < target) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            skip = low;
+            nextSkip = low + 1;
+        }
+        int blockStart = (skip + 1) * PostingList.SKIP_INTERVAL;
+        if (skip >= 0 && blockStart > docIndex + 1) {
+            docOffset = docStart + skipDocOffset(skip);
+            positionOffset = positionStart + skipPositionOffset(skip);
+            docIndex = blockStart - 1;
+            docId = skipDocId(skip);
+            frequency = 0;
+            unreadPositions = 0;
+        }
+        while (nextDoc() < target) {
+            // linear scan within the block
+        }
+        return docId;
+    }
+
+    /**
+     * @return Highest frequency of any document in the block of the current
+     * document.
+     */
+    public int blockMaxFrequency() {
+        int block = docIndex / PostingList.SKIP_INTERVAL;
+        int frequency = block < blocks ? blockMaxFrequency(block) : 0;
+        if (pendingDoc >= 0 && block == flushedDocs / PostingList.SKIP_INTERVAL) {
+            frequency = Math.max(frequency, pendingFrequency);
+        }
+        return frequency;
+    }
+
+    /**
+     * @return Last document ordinal in the block of the current document.
+     */
+    public int blockLastDoc() {
+        int block = docIndex / PostingList.SKIP_INTERVAL;
+        if (block < skipCount) {
+            return skipDocId(block);
+        }
+        return pendingDoc >= 0 ? pendingDoc : lastFlushedDoc;
+    }
+
+    /**
+     * Decodes the positions of the current document. The returned array is
+     * shared with the cursor and must not be modified.
+     * @return Ascending positions of the term in the current document.
+     */
+    public int[] positions() {
+        if (positions != null) {
+            return positions;
+        }
+        for (; unreadPositions > 0; unreadPositions--) {
+            while ((positionData.get(positionOffset++) & 0x80) != 0) {
+                // continuation byte of a skipped position
+            }
+        }
+        positions = new int[frequency];
+        int position = 0;
+        for (int i = 0; i < frequency; i++) {
+            position += readPositionVInt();
+            positions[i] = position;
+        }
+        return positions;
+    }
+
+    private int readDocVInt() {
+        byte b = docData.get(docOffset++);
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = docData.get(docOffset++);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private int readPositionVInt() {
+        byte b = positionData.get(positionOffset++);
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = positionData.get(positionOffset++);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private int skipDocId(int skip) {
+        return mapped == null ? skipDocIds[skip] : mapped.skipDocId(skip);
+    }
+
+    private int skipDocOffset(int skip) {
+        return mapped == null ? skipDocOffsets[skip] : mapped.skipDocOffset(skip);
+    }
+
+    private int skipPositionOffset(int skip) {
+        return mapped == null ? skipPositionOffsets[skip] : mapped.skipPositionOffset(skip);
+    }
+
+    private int blockMaxFrequency(int block) {
+        return mapped == null ? blockMaxFrequencies[block] : mapped.blockMaxFrequency(block);
+    }
+}
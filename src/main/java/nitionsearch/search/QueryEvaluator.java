@@ -0,0 +1,818 @@
+package nitionsearch.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Evaluates a parsed query document-at-a-time over the postings and keeps
+ * the best {@code k} pages in a {@link TopKCollector}.
+ * <p>
+ * The segments of the snapshot are searched one after the other in ordinal
+ * order and share the collector, so the results come out merged. Term
+ * weights use document frequencies summed over all segments, which keeps
+ * scores independent of how the index happens to be segmented.
+ * <p>
+ * A term ending in {@code *} matches every term starting with the rest of
+ * it. It is expanded once per query to the first {@link #MAX_EXPANSIONS}
+ * matching terms of the whole index and then scored like one term whose
+ * postings are the union of the expansions. A term wrapped in wildcards,
+ * like {@code *search*}, is expanded the same way to the terms containing
+ * it, and a fuzzy term like {@code serch~1} to the closest terms within its
+ * edit distance, found by walking each trie with a
+ * {@link LevenshteinAutomaton}. With the fuzzy fallback on, a plain AND or OR
+ * term that no page contains is searched as a fuzzy term instead.
+ * <p>
+ * Required terms are intersected rarest first: the shortest posting list
+ * proposes candidates and the longer ones gallop over their skip entries to
+ * catch up (see {@link PostingsCursor#advance(int)}). A required term that
+ * no page contains ends the search before any segment is looked at.
+ * <p>
+ * Every clause knows the highest score it can contribute. Once the
+ * collector is full, a page whose bound cannot beat the weakest collected
+ * page is dropped before its phrases and proximity are looked at (MaxScore).
+ * After {@link #TOTAL_HITS_THRESHOLD} hits have been counted, posting blocks
+ * whose block maximum cannot compete are skipped for AND queries, and
+ * clauses that cannot lift a page into the top {@code k} on their own stop
+ * producing candidates for OR queries. The hit count is then a lower bound.
+ * <p>
+ * A search restricted to some sites gets, per segment, the set of live
+ * pages on them once, as a {@link RoaringBitmap} with the tombstones
+ * already taken out. Candidates outside it are skipped to the next page in
+ * it, so the clauses never score or count them.
+ * <p>
+ * The page count, average length and idfs a search scored with are kept in
+ * its {@link Statistics}. An evaluator created with the statistics of an
+ * earlier search can {@link #update} that search's top docs with the pages
+ * added since, scoring them exactly as the earlier search would have.
+ */
+public class QueryEvaluator {
+    static final int TOTAL_HITS_THRESHOLD = 1000;
+    static final int MAX_EXPANSIONS = 64;
+    private static final int MAX_TERM_DISTANCE = 30;
+    private static final float PROXIMITY_WEIGHT = 1.0f;
+
+    private final IndexSnapshot snapshot;
+    private final BM25Scorer scorer;
+    private final boolean proximityBoost;
+    private final boolean fuzzyFallback;
+    private final Statistics statistics;
+    private final float averageLength;
+    private final Map<String, List<String>> expansions = new HashMap<>();
+    private final Map<String, String> corrections = new HashMap<>();
+    private final Map<Segment, Map<String, PostingList>> unions = new IdentityHashMap<>();
+    private Collection<String> domains = Collections.emptyList();
+
+    private Segment segment;
+    private int minLength;
+    private TermClause[] required;
+    // the required clauses in intersection order, rarest first
+    private TermClause[] conjunction;
+    private TermClause[] optional;
+    private PhraseClause[] phrases;
+    private PostingsCursor[] prohibited;
+    // live pages of the segment on the wanted sites, null for all pages
+    private RoaringBitmap allowed;
+    // tombstones of the segment if no allowed pages were taken, else null
+    private RoaringBitmap tombstones;
+    private int nextTombstone;
+    private float proximityBound;
+    private TopKCollector collector;
+    private int firstDoc;
+
+    public QueryEvaluator(IndexSnapshot snapshot, BM25Scorer scorer, boolean proximityBoost) {
+        this(snapshot, scorer, proximityBoost, false);
+    }
+
+    /**
+     * @param fuzzyFallback Whether unknown terms are searched as fuzzy terms.
+     */
+    public QueryEvaluator(IndexSnapshot snapshot, BM25Scorer scorer, boolean proximityBoost, boolean fuzzyFallback) {
+        this(snapshot, scorer, proximityBoost, fuzzyFallback,
+                new Statistics(snapshot.size(), snapshot.getAverageLength(), new HashMap<>()));
+    }
+
+    /**
+     * @param statistics Statistics of an earlier search to score with
+     *                   instead of those of the snapshot.
+     */
+    QueryEvaluator(IndexSnapshot snapshot, BM25Scorer scorer, boolean proximityBoost, boolean fuzzyFallback,
+                   Statistics statistics) {
+        this.snapshot = snapshot;
+        this.scorer = scorer;
+        this.proximityBoost = proximityBoost;
+        this.fuzzyFallback = fuzzyFallback;
+        // the earlier search may be shared, it keeps its own idfs
+        this.statistics = new Statistics(statistics.docCount, statistics.averageLength,
+                new HashMap<>(statistics.idfs));
+        this.averageLength = statistics.averageLength;
+    }
+
+    /**
+     * Restricts the searches to the pages of some sites.
+     * @param domains Lowercase domain names. A page is searched if its URL
+     *                host is one of them or a subdomain of one. Empty to
+     *                search all pages.
+     */
+    void setDomains(Collection<String> domains) {
+        this.domains = domains;
+    }
+
+    /**
+     * @param query Parsed search query.
+     * @param k Number of top pages to keep.
+     * @return The {@code k} best pages with the number of matching pages.
+     */
+    public TopDocs search(QueryParser.ParsedQuery query, int k) {
+        if (snapshot.size() == 0) {
+            return TopDocs.EMPTY;
+        }
+        return collect(query, new TopKCollector(capacity(k)), 0);
+    }
+
+    /**
+     * @param after Position of the last hit of the previous page of results.
+     * @return The {@code k} best pages ranking after the position, with the
+     * number of all matching pages.
+     */
+    TopDocs searchAfter(QueryParser.ParsedQuery query, int k, SearchCursor after) {
+        if (snapshot.size() == 0) {
+            return TopDocs.EMPTY;
+        }
+        return collect(query, new TopKCollector(capacity(k), after), 0);
+    }
+
+    /**
+     * Adds the pages from an ordinal on to the top docs of an earlier search
+     * of the same query, without evaluating the pages that search covered.
+     * @param previous Top docs of the earlier search, which scored with the
+     *                 statistics this evaluator was created with.
+     * @param fromDoc First ordinal the earlier search did not cover. None of
+     *                the pages it covered may have been deleted since.
+     * @param k Number of top pages to keep, at most as many as the earlier
+     *          search kept unless it kept all its hits.
+     * @return The {@code k} best pages of the whole snapshot.
+     */
+    TopDocs update(QueryParser.ParsedQuery query, TopDocs previous, int fromDoc, int k) {
+        return collect(query, new TopKCollector(capacity(k), previous), fromDoc);
+    }
+
+    /**
+     * @return Size of the collector for {@code k} pages, which never needs
+     * more slots than the snapshot has ordinals.
+     */
+    private int capacity(int k) {
+        return Math.min(k, snapshot.getMaxDoc());
+    }
+
+    private TopDocs collect(QueryParser.ParsedQuery query, TopKCollector topK, int fromDoc) {
+        collector = topK;
+        firstDoc = fromDoc;
+        for (String term : query.getMustContain()) {
+            if (docFrequency(correct(term.toLowerCase())) == 0) {
+                return collector.topDocs();
+            }
+        }
+        if (proximityBoost) {
+            proximityBound = PROXIMITY_WEIGHT * (Math.max(0, query.getMustContain().size() - 1)
+                    + Math.max(0, query.getShouldContain().size() - 1));
+        }
+        for (Segment candidate : snapshot.getSegments()) {
+            if (candidate.getMaxDoc() > fromDoc && candidate.getLiveDocCount() > 0) {
+                searchSegment(candidate, query);
+            }
+        }
+        return collector.topDocs();
+    }
+
+    /**
+     * @return Statistics the last search scored with.
+     */
+    Statistics getStatistics() {
+        return statistics;
+    }
+
+    private void searchSegment(Segment candidate, QueryParser.ParsedQuery query) {
+        segment = candidate;
+        allowed = domains.isEmpty() ? null : segment.docsOnDomains(domains);
+        if (allowed != null && allowed.isEmpty()) {
+            return;
+        }
+        tombstones = allowed == null && segment.getDeletedCount() > 0 ? segment.getDeletedDocs() : null;
+        nextTombstone = -1;
+        minLength = segment.getMinLength();
+        required = termClauses(query.getMustContain());
+        optional = termClauses(query.getShouldContain());
+        phrases = phraseClauses(query.getPhraseTerms());
+        prohibited = new PostingsCursor[query.getMustNotContain().size()];
+        for (int i = 0; i < prohibited.length; i++) {
+            prohibited[i] = findPostings(query.getMustNotContain().get(i)).cursor();
+        }
+
+        if (required.length > 0) {
+            for (TermClause clause : required) {
+                if (clause.docFrequency == 0) {
+                    return;
+                }
+            }
+            conjunction = planConjunction(required);
+            searchConjunction();
+        } else {
+            searchDisjunction();
+        }
+    }
+
+    /**
+     * Orders the required clauses for intersection by the length of their
+     * posting list in this segment. Scoring keeps the typed order, which
+     * the proximity bonus depends on.
+     */
+    private static TermClause[] planConjunction(TermClause[] clauses) {
+        TermClause[] ordered = clauses.clone();
+        Arrays.sort(ordered, Comparator.comparingInt(clause -> clause.docFrequency));
+        return ordered;
+    }
+
+    /**
+     * Leapfrogs the required terms and scores every page they share.
+     */
+    private void searchConjunction() {
+        float requiredBound = 0f;
+        for (TermClause clause : required) {
+            requiredBound += clause.maxScore;
+        }
+        float optionalBound = proximityBound;
+        for (TermClause clause : optional) {
+            optionalBound += clause.maxScore;
+        }
+        for (PhraseClause phrase : phrases) {
+            optionalBound += phrase.maxScore;
+        }
+
+        int docId = alignRequired(firstDoc);
+        while (docId != PostingsCursor.NO_MORE_DOCS) {
+            int allowedDoc = nextAllowed(docId);
+            if (allowedDoc != docId) {
+                docId = allowedDoc == PostingsCursor.NO_MORE_DOCS ? allowedDoc : alignRequired(allowedDoc);
+                continue;
+            }
+            if (canSkip()) {
+                // the best page left in these blocks cannot make it into the top k
+                float blockBound = optionalBound;
+                int blockEnd = PostingsCursor.NO_MORE_DOCS;
+                for (TermClause clause : required) {
+                    blockBound += clause.blockMaxScore();
+                    blockEnd = Math.min(blockEnd, clause.cursor.blockLastDoc());
+                }
+                if (blockBound <= collector.minCompetitiveScore()) {
+                    collector.markTotalHitsInexact();
+                    docId = blockEnd == PostingsCursor.NO_MORE_DOCS ? blockEnd : alignRequired(blockEnd + 1);
+                    continue;
+                }
+            }
+
+            if (!isProhibited(docId)) {
+                collector.countHit();
+                if (requiredBound + optionalBound > collector.minCompetitiveScore()) {
+                    scoreAndCollect(docId);
+                }
+            }
+            docId = alignRequired(docId + 1);
+        }
+    }
+
+    /**
+     * Walks the union of the OR terms and phrases. Clauses are ordered by
+     * their bound; once the bounds of the weakest clauses together cannot
+     * beat the collector, those clauses only get probed for pages that a
+     * stronger clause produced.
+     */
+    private void searchDisjunction() {
+        List<Clause> clauses = new ArrayList<>(Arrays.asList(optional));
+        clauses.addAll(Arrays.asList(phrases));
+        if (clauses.isEmpty()) {
+            return;
+        }
+        clauses.sort(Comparator.comparingDouble(clause -> clause.maxScore));
+        float[] boundBefore = new float[clauses.size() + 1];
+        for (int i = 0; i < clauses.size(); i++) {
+            boundBefore[i + 1] = boundBefore[i] + clauses.get(i).maxScore;
+        }
+
+        int firstEssential = 0;
+        int docId = nextCandidate(clauses, firstEssential, firstDoc);
+        while (docId != PostingsCursor.NO_MORE_DOCS) {
+            int allowedDoc = nextAllowed(docId);
+            if (allowedDoc != docId) {
+                docId = allowedDoc == PostingsCursor.NO_MORE_DOCS ? allowedDoc
+                        : nextCandidate(clauses, firstEssential, allowedDoc);
+                continue;
+            }
+            boolean matched = false;
+            float bound = proximityBound;
+            for (Clause clause : clauses) {
+                if (clause.advance(docId) == docId && clause.matches(docId)) {
+                    matched = true;
+                    bound += clause.maxScore;
+                }
+            }
+            if (matched && !isProhibited(docId)) {
+                collector.countHit();
+                if (bound > collector.minCompetitiveScore()) {
+                    scoreAndCollect(docId);
+                }
+            }
+
+            if (canSkip()) {
+                float threshold = collector.minCompetitiveScore();
+                while (firstEssential < clauses.size() && boundBefore[firstEssential + 1] + proximityBound <= threshold) {
+                    firstEssential++;
+                    collector.markTotalHitsInexact();
+                }
+            }
+            docId = nextCandidate(clauses, firstEssential, docId + 1);
+        }
+    }
+
+    private int nextCandidate(List<Clause> clauses, int firstEssential, int target) {
+        int docId = PostingsCursor.NO_MORE_DOCS;
+        for (int i = firstEssential; i < clauses.size(); i++) {
+            docId = Math.min(docId, clauses.get(i).advance(target));
+        }
+        return docId;
+    }
+
+    private boolean canSkip() {
+        return collector.isFull() && collector.getTotalHits() >= TOTAL_HITS_THRESHOLD;
+    }
+
+    /**
+     * Scores a matching page, cheapest parts first. The term weights only
+     * need the frequencies at hand; phrases and proximity decode positions
+     * and are skipped once the page can no longer beat the collector.
+     * @param docId Ordinal of the page, all required cursors are on it.
+     */
+    private void scoreAndCollect(int docId) {
+        int length = segment.getLength(docId);
+        float score = scoreTerms(required, docId, length) + scoreTerms(optional, docId, length);
+
+        float remaining = proximityBound;
+        for (PhraseClause phrase : phrases) {
+            if (phrase.docId() == docId || phrase.advance(docId) == docId) {
+                remaining += phrase.maxScore;
+            }
+        }
+        for (PhraseClause phrase : phrases) {
+            if (score + remaining <= collector.minCompetitiveScore()) {
+                return;
+            }
+            if (phrase.docId() == docId) {
+                score += phrase.score(docId, length);
+                remaining -= phrase.maxScore;
+            }
+        }
+
+        if (proximityBoost && score + remaining > collector.minCompetitiveScore()) {
+            score += calculateProximityBonus(required, docId) + calculateProximityBonus(optional, docId);
+        }
+
+        if (score > 0) {
+            collector.collect(docId, score);
+        }
+    }
+
+    private float scoreTerms(TermClause[] clauses, int docId, int length) {
+        float score = 0f;
+        for (TermClause clause : clauses) {
+            if (clause.advance(docId) == docId) {
+                score += clause.score(docId, length);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Calculates the proximity bonus for a page.
+     * <p>
+     * This method rewards consecutive query terms that appear close to each
+     * other. Adjacent terms get the full {@link #PROXIMITY_WEIGHT}, which
+     * decreases linearly up to {@link #MAX_TERM_DISTANCE}.
+     * @param clauses Query terms, with cursors already advanced to the page.
+     * @param docId Ordinal of the page.
+     * @return Proximity bonus.
+     */
+    private float calculateProximityBonus(TermClause[] clauses, int docId) {
+        float bonus = 0f;
+        TermClause previous = null;
+        for (TermClause clause : clauses) {
+            if (clause.docId() != docId) {
+                previous = null;
+                continue;
+            }
+            if (previous != null && !previous.term.equals(clause.term)) {
+                int distance = minimumDistance(previous.cursor.positions(), clause.cursor.positions());
+                if (distance <= MAX_TERM_DISTANCE) {
+                    bonus += PROXIMITY_WEIGHT * (MAX_TERM_DISTANCE - distance + 1) / MAX_TERM_DISTANCE;
+                }
+            }
+            previous = clause;
+        }
+        return bonus;
+    }
+
+    private static int minimumDistance(int[] a, int[] b) {
+        int distance = Integer.MAX_VALUE;
+        int i = 0, j = 0;
+        while (i < a.length && j < b.length) {
+            distance = Math.min(distance, Math.abs(a[i] - b[j]));
+            if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * @return The first page at or after the target that all required
+     * clauses share, led by the rarest one.
+     */
+    private int alignRequired(int target) {
+        int docId = conjunction[0].advance(target);
+        int i = 1;
+        while (i < conjunction.length && docId != PostingsCursor.NO_MORE_DOCS) {
+            int other = conjunction[i].advance(docId);
+            if (other == docId) {
+                i++;
+            } else {
+                docId = other == PostingsCursor.NO_MORE_DOCS ? other : conjunction[0].advance(other);
+                i = 1;
+            }
+        }
+        return docId;
+    }
+
+    /**
+     * @return The first allowed page at or after the given one.
+     */
+    private int nextAllowed(int docId) {
+        if (allowed == null) {
+            return docId;
+        }
+        int next = allowed.nextSetBit(docId - segment.getDocBase());
+        return next < 0 ? PostingsCursor.NO_MORE_DOCS : segment.getDocBase() + next;
+    }
+
+    private boolean isProhibited(int docId) {
+        if (tombstones != null && isTombstoned(docId - segment.getDocBase())) {
+            return true;
+        }
+        for (PostingsCursor cursor : prohibited) {
+            if (cursor.advance(docId) == docId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Candidates come in ascending order, so the tombstones are walked
+     * along with them rather than looked up for every candidate. Pages a
+     * merge dropped have no postings left and never come up.
+     */
+    private boolean isTombstoned(int index) {
+        if (nextTombstone < index) {
+            int next = tombstones.nextSetBit(index);
+            nextTombstone = next < 0 ? Integer.MAX_VALUE : next;
+        }
+        return nextTombstone == index;
+    }
+
+    private TermClause[] termClauses(List<String> terms) {
+        List<TermClause> clauses = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            clauses.add(new TermClause(correct(term.toLowerCase())));
+        }
+        return clauses.toArray(new TermClause[0]);
+    }
+
+    /**
+     * @return The term, or its fuzzy form if the fallback is on and no page contains it.
+     */
+    private String correct(String term) {
+        if (!fuzzyFallback || QueryParser.isPrefixTerm(term) || QueryParser.isFuzzyTerm(term)) {
+            return term;
+        }
+        return corrections.computeIfAbsent(term, key -> {
+            if (LevenshteinAutomaton.autoEdits(key.length()) == 0 || docFrequency(key) > 0) {
+                return key;
+            }
+            return key + "~";
+        });
+    }
+
+    private PhraseClause[] phraseClauses(List<String[]> phrases) {
+        List<PhraseClause> clauses = new ArrayList<>(phrases.size());
+        for (String[] phrase : phrases) {
+            PhraseClause clause = new PhraseClause(phrase);
+            // a phrase with an unknown word can never match
+            if (clause.maxScore > 0) {
+                clauses.add(clause);
+            }
+        }
+        return clauses.toArray(new PhraseClause[0]);
+    }
+
+    private PostingList findPostings(String term) {
+        return postings(segment, term.toLowerCase());
+    }
+
+    private PostingList postings(Segment candidate, String term) {
+        // substring terms end in a wildcard as well
+        if (!QueryParser.isPrefixTerm(term) && !QueryParser.isFuzzyTerm(term)) {
+            return candidate.postings(term);
+        }
+        return unions.computeIfAbsent(candidate, key -> new HashMap<>()).computeIfAbsent(term, key -> {
+            List<PostingList> lists = new ArrayList<>();
+            for (String expansion : expand(key)) {
+                PostingList postings = candidate.postings(expansion);
+                if (!postings.isEmpty()) {
+                    lists.add(postings);
+                }
+            }
+            return lists.size() == 1 ? lists.get(0) : PostingList.union(lists);
+        });
+    }
+
+    private List<String> expand(String wildcardTerm) {
+        return expansions.computeIfAbsent(wildcardTerm, key -> {
+            statistics.expanded = true;
+            if (QueryParser.isFuzzyTerm(key)) {
+                return expandFuzzy(key);
+            }
+            boolean substring = QueryParser.isSubstringTerm(key);
+            String pattern = QueryParser.stripWildcard(key);
+            // the first terms of the index are among the first terms of some segment
+            TreeSet<String> terms = new TreeSet<>();
+            for (Segment candidate : snapshot.getSegments()) {
+                terms.addAll(substring
+                        ? candidate.expandSubstring(pattern, MAX_EXPANSIONS)
+                        : candidate.expand(pattern, MAX_EXPANSIONS));
+            }
+            List<String> expanded = new ArrayList<>(terms);
+            return expanded.size() > MAX_EXPANSIONS ? expanded.subList(0, MAX_EXPANSIONS) : expanded;
+        });
+    }
+
+    /**
+     * @return The terms within the edit distance of a fuzzy term, closest first.
+     */
+    private List<String> expandFuzzy(String fuzzyTerm) {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(
+                QueryParser.stripWildcard(fuzzyTerm), QueryParser.maxEdits(fuzzyTerm));
+        Map<String, Integer> distances = new HashMap<>();
+        for (Segment candidate : snapshot.getSegments()) {
+            candidate.forEachFuzzyMatch(automaton, distances::put);
+        }
+        List<String> expanded = new ArrayList<>(distances.keySet());
+        expanded.sort(Comparator.comparing((String term) -> distances.get(term)).thenComparing(term -> term));
+        return expanded.size() > MAX_EXPANSIONS ? expanded.subList(0, MAX_EXPANSIONS) : expanded;
+    }
+
+    private int docFrequency(String term) {
+        int docFrequency = 0;
+        for (Segment candidate : snapshot.getSegments()) {
+            docFrequency += postings(candidate, term).size();
+        }
+        return docFrequency;
+    }
+
+    private float idf(String term) {
+        return statistics.idfs.computeIfAbsent(term.toLowerCase(), key -> {
+            // tombstoned pages stay in the postings until their segment is merged
+            return scorer.idf(Math.min(docFrequency(key), statistics.docCount), statistics.docCount);
+        });
+    }
+
+    private float maxScore(float idf, int maxFrequency) {
+        return scorer.score(idf, maxFrequency, minLength, averageLength);
+    }
+
+    /**
+     * Page count, average page length and term idfs a search scored with.
+     */
+    static final class Statistics {
+        private final int docCount;
+        private final float averageLength;
+        private final Map<String, Float> idfs;
+        private boolean expanded;
+
+        private Statistics(int docCount, float averageLength, Map<String, Float> idfs) {
+            this.docCount = docCount;
+            this.averageLength = averageLength;
+            this.idfs = idfs;
+        }
+
+        int getDocCount() {
+            return docCount;
+        }
+
+        /**
+         * @return Whether the search expanded wildcard or fuzzy terms against
+         * the terms of the index, which pages added later can change.
+         */
+        boolean isExpanded() {
+            return expanded;
+        }
+
+        /**
+         * @return Approximate heap size in bytes.
+         */
+        long estimateBytes() {
+            // object and map, then per idf an entry, a boxed float and the term
+            long bytes = 32 + 64;
+            for (String term : idfs.keySet()) {
+                bytes += 32 + 16 + 40 + 2L * term.length();
+            }
+            return bytes;
+        }
+    }
+
+    private abstract static class Clause {
+        protected float maxScore;
+
+        abstract int docId();
+
+        /**
+         * Moves to the first page at or after the target this clause may match.
+         */
+        abstract int advance(int target);
+
+        /**
+         * Confirms a page the clause is positioned on.
+         */
+        boolean matches(int docId) {
+            return true;
+        }
+
+        abstract float score(int docId, int length);
+    }
+
+    private class TermClause extends Clause {
+        private final String term;
+        private final PostingsCursor cursor;
+        private final int docFrequency;
+        private final float idf;
+
+        TermClause(String term) {
+            PostingList postings = findPostings(term);
+            this.term = term;
+            this.cursor = postings.cursor();
+            this.docFrequency = postings.size();
+            this.idf = idf(term);
+            this.maxScore = maxScore(idf, postings.getMaxFrequency());
+        }
+
+        @Override
+        int docId() {
+            return cursor.docId();
+        }
+
+        @Override
+        int advance(int target) {
+            return cursor.advance(target);
+        }
+
+        @Override
+        float score(int docId, int length) {
+            return scorer.score(idf, cursor.frequency(), length, averageLength);
+        }
+
+        float blockMaxScore() {
+            return maxScore(idf, cursor.blockMaxFrequency());
+        }
+    }
+
+    private class PhraseClause extends Clause {
+        private final PostingsCursor[] cursors;
+        // position of each word within the phrase, past removed stop words
+        private final int[] offsets;
+        private float idf;
+        private int docId = -1;
+        private int matchedDocId = -1;
+        private int frequency;
+
+        PhraseClause(String[] phrase) {
+            List<String> terms = new ArrayList<>(phrase.length);
+            offsets = new int[phrase.length];
+            for (int offset = 0; offset < phrase.length; offset++) {
+                if (phrase[offset] != null) {
+                    offsets[terms.size()] = offset;
+                    terms.add(phrase[offset]);
+                }
+            }
+            cursors = new PostingsCursor[terms.size()];
+            int maxFrequency = Integer.MAX_VALUE;
+            for (int i = 0; i < cursors.length; i++) {
+                PostingList postings = findPostings(terms.get(i));
+                cursors[i] = postings.cursor();
+                idf += idf(terms.get(i));
+                // a phrase cannot occur more often than its rarest word
+                maxFrequency = Math.min(maxFrequency, postings.getMaxFrequency());
+            }
+            this.maxScore = maxScore(idf, maxFrequency);
+        }
+
+        @Override
+        int docId() {
+            return docId;
+        }
+
+        @Override
+        int advance(int target) {
+            if (docId >= target) {
+                return docId;
+            }
+            int candidate = cursors[0].advance(target);
+            int i = 1;
+            while (i < cursors.length && candidate != PostingsCursor.NO_MORE_DOCS) {
+                int other = cursors[i].advance(candidate);
+                if (other == candidate) {
+                    i++;
+                } else {
+                    candidate = other == PostingsCursor.NO_MORE_DOCS ? other : cursors[0].advance(other);
+                    i = 1;
+                }
+            }
+            docId = candidate;
+            return docId;
+        }
+
+        @Override
+        boolean matches(int docId) {
+            return phraseFrequency(docId) > 0;
+        }
+
+        @Override
+        float score(int docId, int length) {
+            // weighted like a single term carrying the idf of all its words
+            return scorer.score(idf, phraseFrequency(docId), length, averageLength);
+        }
+
+        private int phraseFrequency(int docId) {
+            if (matchedDocId != docId) {
+                matchedDocId = docId;
+                frequency = countPhrase();
+            }
+            return frequency;
+        }
+
+        /**
+         * Merges the positions of the phrase words on the current page. The
+         * phrase starts at {@code p} when the i-th word occurs at
+         * {@code p + offsets[i]}, so the lists are leapfrogged on their
+         * positions shifted by their offset in the phrase.
+         */
+        private int countPhrase() {
+            int[][] positions = new int[cursors.length][];
+            for (int i = 0; i < cursors.length; i++) {
+                positions[i] = cursors[i].positions();
+            }
+            int[] next = new int[cursors.length];
+            int count = 0;
+            int start = positions[0][0] - offsets[0];
+            int i = 0;
+            int aligned = 0;
+            while (true) {
+                int[] termPositions = positions[i];
+                while (next[i] < termPositions.length && termPositions[next[i]] - offsets[i] < start) {
+                    next[i]++;
+                }
+                if (next[i] == termPositions.length) {
+                    return count;
+                }
+                int candidate = termPositions[next[i]] - offsets[i];
+                if (candidate == start) {
+                    aligned++;
+                } else {
+                    start = candidate;
+                    aligned = 1;
+                }
+                i = (i + 1) % cursors.length;
+                if (aligned == cursors.length) {
+                    count++;
+                    start++;
+                    aligned = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package nitionsearch.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Canonical form of a parsed query, used as the key of the result cache.
+ * <p>
+ * Queries that rank the same pages the same way get equal keys, so
+ * {@code java AND spring} and {@code spring   java} share a cache entry.
+ * Letter case and spacing are gone once the terms are analyzed. The key
+ * then lists each clause in a fixed order, with its terms sorted. NOT
+ * terms only exclude pages, so they are also deduplicated. A repeated AND
+ * or OR term counts twice in the score and is kept.
+ * <p>
+ * The proximity bonus rewards consecutive query terms found close to each
+ * other. Two terms are consecutive in either order, but with three or more
+ * the order decides which pairs count. With the bonus on, such AND and OR
+ * clauses keep the order they were typed in.
+ * <p>
+ * A search restricted to some sites ranks other pages, so the sorted
+ * domains are part of the key.
+ * <p>
+ * The whole key is a single string, every term prefixed with its length so
+ * that no query text can make two different queries collide.
+ */
+final class QueryKey {
+    private static final char REQUIRED = '+';
+    private static final char OPTIONAL = '|';
+    private static final char PROHIBITED = '-';
+    private static final char PHRASE = '"';
+    private static final char GAP = '.';
+    private static final char DOMAIN = '@';
+
+    private final String canonical;
+
+    private QueryKey(String canonical) {
+        this.canonical = canonical;
+    }
+
+    /**
+     * @param proximityBoost Whether the query is ranked with the proximity
+     *                       bonus, which depends on the term order.
+     */
+    static QueryKey of(QueryParser.ParsedQuery query, boolean proximityBoost) {
+        return of(query, proximityBoost, Collections.emptyList());
+    }
+
+    /**
+     * @param domains Sites the search is restricted to, empty for all pages.
+     */
+    static QueryKey of(QueryParser.ParsedQuery query, boolean proximityBoost, Collection<String> domains) {
+        StringBuilder key = new StringBuilder();
+        appendTerms(key, REQUIRED, sorted(query.getMustContain(), proximityBoost));
+        appendTerms(key, OPTIONAL, sorted(query.getShouldContain(), proximityBoost));
+        appendTerms(key, PROHIBITED, new TreeSet<>(query.getMustNotContain()));
+        List<String> phrases = new ArrayList<>(query.getPhraseTerms().size());
+        for (String[] phrase : query.getPhraseTerms()) {
+            StringBuilder encoded = new StringBuilder().append(PHRASE).append(phrase.length).append(':');
+            for (String term : phrase) {
+                if (term == null) {
+                    encoded.append(GAP);
+                } else {
+                    appendTerm(encoded, term);
+                }
+            }
+            phrases.add(encoded.toString());
+        }
+        Collections.sort(phrases);
+        phrases.forEach(key::append);
+        appendTerms(key, DOMAIN, new TreeSet<>(domains));
+        return new QueryKey(key.toString());
+    }
+
+    private static List<String> sorted(List<String> terms, boolean proximityBoost) {
+        if (proximityBoost && terms.size() > 2) {
+            return terms;
+        }
+        List<String> sorted = new ArrayList<>(terms);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static void appendTerms(StringBuilder key, char clause, Iterable<String> terms) {
+        for (String term : terms) {
+            appendTerm(key.append(clause), term);
+        }
+    }
+
+    private static void appendTerm(StringBuilder key, String term) {
+        key.append(term.length()).append(':').append(term);
+    }
+
+    /**
+     * @return Approximate heap size in bytes.
+     */
+    long estimateBytes() {
+        // this object, the string and its characters
+        return 16 + 24 + 16 + 2L * canonical.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof QueryKey && canonical.equals(((QueryKey) o).canonical);
+    }
+
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return canonical;
+    }
+}
@@ -8,6 +8,10 @@ public class QueryParser {
     private static final String AND_OPERATOR = "AND";
     private static final String OR_OPERATOR = "OR";
     private static final String NOT_OPERATOR = "NOT";
+    private static final char WILDCARD = '*';
+    private static final char FUZZY = '~';
+
+    private final Analyzer analyzer;
 
     public static class ParsedQuery {
 
@@ -16,12 +20,14 @@ public class QueryParser {
         private final List<String> shouldContain;   // OR terms
         private final List<String> mustNotContain;  // NOT terms
         private final List<String> exactPhrases;    // Quoted phrases
+        private final List<String[]> phraseTerms;   // Analyzed phrases
 
         public ParsedQuery() {
             this.mustContain = new ArrayList<>();
             this.shouldContain = new ArrayList<>();
             this.mustNotContain = new ArrayList<>();
             this.exactPhrases = new ArrayList<>();
+            this.phraseTerms = new ArrayList<>();
         }
 
         // Getters and necessary methods
@@ -40,6 +46,88 @@ public class QueryParser {
         public List<String> getExactPhrases() {
             return exactPhrases;
         }
+
+        /**
+         * @return The terms of each phrase at their offsets within it. A
+         * word the analyzer removed, like a stop word, leaves a null gap.
+         */
+        public List<String[]> getPhraseTerms() {
+            return phraseTerms;
+        }
+    }
+
+    public QueryParser() {
+        this(new Analyzer.Builder().build());
+    }
+
+    /**
+     * @param analyzer Analyzer the index was built with.
+     */
+    public QueryParser(Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * @return True for the boolean operators, in any case.
+     */
+    public static boolean isOperator(String part) {
+        return part.equalsIgnoreCase(AND_OPERATOR) || part.equalsIgnoreCase(OR_OPERATOR)
+                || part.equalsIgnoreCase(NOT_OPERATOR);
+    }
+
+    /**
+     * @return True for a term like {@code optim*} that matches every term
+     * starting with the characters before the trailing wildcard.
+     */
+    public static boolean isPrefixTerm(String term) {
+        return term.length() > 1 && term.charAt(term.length() - 1) == WILDCARD;
+    }
+
+    /**
+     * @return True for a term like {@code *search*} that matches every term
+     * containing the characters between the wildcards.
+     */
+    public static boolean isSubstringTerm(String term) {
+        return term.length() > 2 && term.charAt(0) == WILDCARD && term.charAt(term.length() - 1) == WILDCARD;
+    }
+
+    /**
+     * @return True for a term like {@code serch~1} that matches every term
+     * within the given edit distance, or within a distance picked from its
+     * length for a bare {@code serch~}.
+     */
+    public static boolean isFuzzyTerm(String term) {
+        int index = term.lastIndexOf(FUZZY);
+        if (index < 1) {
+            return false;
+        }
+        return index == term.length() - 1
+                || (index == term.length() - 2 && Character.isDigit(term.charAt(index + 1)));
+    }
+
+    /**
+     * @param term A fuzzy term.
+     * @return The edit distance of the term, capped at {@link LevenshteinAutomaton#MAX_EDITS}.
+     */
+    public static int maxEdits(String term) {
+        int index = term.lastIndexOf(FUZZY);
+        if (index == term.length() - 1) {
+            return LevenshteinAutomaton.autoEdits(index);
+        }
+        return Math.min(term.charAt(index + 1) - '0', LevenshteinAutomaton.MAX_EDITS);
+    }
+
+    /**
+     * @return The term without its wildcards or edit distance.
+     */
+    public static String stripWildcard(String term) {
+        if (isFuzzyTerm(term)) {
+            return term.substring(0, term.lastIndexOf(FUZZY));
+        }
+        if (isSubstringTerm(term)) {
+            return term.substring(1, term.length() - 1);
+        }
+        return isPrefixTerm(term) ? term.substring(0, term.length() - 1) : term;
     }
 
     public ParsedQuery parse(String query) {
@@ -48,6 +136,19 @@ public class QueryParser {
         // Handle quoted phrases first
         List<String> phrases = extractPhrases(query);
         result.exactPhrases.addAll(phrases);
+        TokenBuffer tokens = new TokenBuffer();
+        for (String phrase : phrases) {
+            analyzer.analyze(phrase, tokens);
+            if (tokens.size() == 0) {
+                continue;
+            }
+            int first = tokens.getPosition(0);
+            String[] terms = new String[tokens.getPosition(tokens.size() - 1) - first + 1];
+            for (int i = 0; i < tokens.size(); i++) {
+                terms[tokens.getPosition(i) - first] = tokens.term(i);
+            }
+            result.phraseTerms.add(terms);
+        }
 
         // Remove processed phrases from query
         String remainingQuery = removePhrases(query);
@@ -55,29 +156,56 @@ public class QueryParser {
         // Process boolean operators
         String[] parts = remainingQuery.split("\\s+");
         for (int i = 0; i < parts.length; i++) {
+            if (parts[i].isEmpty()) {
+                continue;
+            }
             if (parts[i].equalsIgnoreCase(AND_OPERATOR)) {
                 if (i + 1 < parts.length) {
-                    result.mustContain.add(parts[i + 1]);
+                    addTerm(result.mustContain, parts[i + 1]);
                     i++;
                 }
             } else if (parts[i].equalsIgnoreCase(OR_OPERATOR)) {
                 if (i + 1 < parts.length) {
-                    result.shouldContain.add(parts[i + 1]);
+                    addTerm(result.shouldContain, parts[i + 1]);
                     i++;
                 }
             } else if (parts[i].equalsIgnoreCase(NOT_OPERATOR)) {
                 if (i + 1 < parts.length) {
-                    result.mustNotContain.add(parts[i + 1]);
+                    addTerm(result.mustNotContain, parts[i + 1]);
                     i++;
                 }
             } else {
-                result.mustContain.add(parts[i]);
+                addTerm(result.mustContain, parts[i]);
             }
         }
 
         return result;
     }
 
+    /**
+     * Adds a query term as the analyzer indexed it. Wildcard and fuzzy terms
+     * only get their characters normalized; a stemmer or stop list has no
+     * meaning for a partial word. Terms the analyzer removes are dropped.
+     */
+    private void addTerm(List<String> clause, String term) {
+        if (isSubstringTerm(term) || isPrefixTerm(term) || isFuzzyTerm(term)) {
+            String stem = analyzer.normalize(stripWildcard(term));
+            if (stem.isEmpty()) {
+                return;
+            }
+            if (isFuzzyTerm(term)) {
+                clause.add(stem + term.substring(term.lastIndexOf(FUZZY)));
+            } else {
+                clause.add(isSubstringTerm(term) ? WILDCARD + stem + WILDCARD : stem + WILDCARD);
+            }
+            return;
+        }
+        List<String> terms = analyzer.terms(term);
+        if (!terms.isEmpty()) {
+            clause.add(terms.get(0));
+        }
+    }
+
     private String removePhrases(String query) {
         StringBuilder result = new StringBuilder(query);
         int startIndex = -1;
@@ -0,0 +1,107 @@
+package nitionsearch.search;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snippet, highlights and term frequencies rendered for one page and one
+ * list of query terms, as kept in the snippet cache.
+ * <p>
+ * Rendering scans the whole content of the page, while the result cache
+ * only spares the ranking. The fragments of a page depend on nothing but
+ * its content and the terms, and an ordinal always holds the same content:
+ * a replaced page gets a new ordinal. So they are cached per ordinal and
+ * terms and never go stale. The lists are unmodifiable, as every result
+ * that shows the page shares them.
+ */
+final class ResultFragments {
+    private final String snippet;
+    private final List<String> highlights;
+    private final Map<String, Integer> termFrequencies;
+
+    ResultFragments(String snippet, List<String> highlights, Map<String, Integer> termFrequencies) {
+        this.snippet = snippet;
+        this.highlights = Collections.unmodifiableList(highlights);
+        this.termFrequencies = Collections.unmodifiableMap(termFrequencies);
+    }
+
+    String getSnippet() {
+        return snippet;
+    }
+
+    List<String> getHighlights() {
+        return highlights;
+    }
+
+    Map<String, Integer> getTermFrequencies() {
+        return termFrequencies;
+    }
+
+    /**
+     * @return Approximate heap size in bytes.
+     */
+    long estimateBytes() {
+        long bytes = 16 + stringBytes(snippet) + 40;
+        for (String highlight : highlights) {
+            bytes += 8 + stringBytes(highlight);
+        }
+        // a map entry with its boxed count per term
+        bytes += 64;
+        for (String term : termFrequencies.keySet()) {
+            bytes += 32 + 16 + stringBytes(term);
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String text) {
+        return 40 + 2L * text.length();
+    }
+
+    /**
+     * Key of the snippet cache: a page ordinal and the query terms in the
+     * order the fragments were rendered for.
+     */
+    static final class Key {
+        private final int docId;
+        private final String terms;
+
+        /**
+         * @param terms Terms encoded by {@link #encode(List)}.
+         */
+        Key(int docId, String terms) {
+            this.docId = docId;
+            this.terms = terms;
+        }
+
+        /**
+         * Joins terms into one string, each prefixed with its length so that
+         * no list of terms encodes like another.
+         */
+        static String encode(List<String> terms) {
+            StringBuilder encoded = new StringBuilder();
+            for (String term : terms) {
+                encoded.append(term.length()).append(':').append(term);
+            }
+            return encoded.toString();
+        }
+
+        long estimateBytes() {
+            return 24 + stringBytes(terms);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return docId == other.docId && terms.equals(other.terms);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * terms.hashCode() + docId;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package nitionsearch.search;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of document ordinals, split Roaring-style into chunks of
+ * 2^16 ordinals that share their high 16 bits.
+ * <p>
+ * A chunk of up to {@link #ARRAY_MAX} ordinals keeps their low bits in a
+ * sorted {@code char[]}, two bytes per ordinal. A denser chunk keeps a
+ * bitmap of 1024 words, 8 KB however full it is. A set never costs much
+ * more than two bytes per ordinal, and a sparse one far less than a
+ * {@link java.util.BitSet} sized for its highest ordinal. Tombstones of a
+ * few pages in a large segment are such a set. Unions and differences go
+ * chunk by chunk, a word at a time where both chunks are bitmaps.
+ * <p>
+ * Not thread safe. A set shared between threads must not be modified.
+ */
+final class RoaringBitmap {
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+
+    // high 16 bits of the chunks, ascending, and the chunks themselves
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    RoaringBitmap() {
+        this(new char[4], new Container[4], 0);
+    }
+
+    private RoaringBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    /**
+     * @param words Bits in the layout of {@link java.util.BitSet#toLongArray()}.
+     */
+    static RoaringBitmap valueOf(long[] words) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = 0; i < words.length; i++) {
+            for (long word = words[i]; word != 0; word &= word - 1) {
+                bitmap.add(i * 64 + Long.numberOfTrailingZeros(word));
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return Bits in the layout of {@link java.util.BitSet#toLongArray()}.
+     */
+    long[] toLongArray() {
+        if (size == 0) {
+            return new long[0];
+        }
+        int last = (keys[size - 1] << 16) | containers[size - 1].last();
+        long[] words = new long[(last >>> 6) + 1];
+        for (int value = nextSetBit(0); value >= 0; value = nextSetBit(value + 1)) {
+            words[value >>> 6] |= 1L << value;
+        }
+        return words;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the value is negative.
+     */
+    void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative ordinal: " + value);
+        }
+        char key = (char) (value >>> 16);
+        int i = indexOf(key);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) value);
+        } else {
+            insert(-i - 1, key, new ArrayContainer().add((char) value));
+        }
+    }
+
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return Number of values below the given one.
+     */
+    int rank(int value) {
+        if (value <= 0) {
+            return 0;
+        }
+        char key = (char) (value >>> 16);
+        int rank = 0;
+        for (int i = 0; i < size && keys[i] <= key; i++) {
+            rank += keys[i] < key ? containers[i].cardinality() : containers[i].rank(value & 0xFFFF);
+        }
+        return rank;
+    }
+
+    /**
+     * @return The smallest value at or after {@code from}, or -1 if there is none.
+     */
+    int nextSetBit(int from) {
+        from = Math.max(0, from);
+        char key = (char) (from >>> 16);
+        int i = indexOf(key);
+        if (i >= 0) {
+            int next = containers[i].next(from & 0xFFFF);
+            if (next >= 0) {
+                return (key << 16) | next;
+            }
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        return i < size ? (keys[i] << 16) | containers[i].next(0) : -1;
+    }
+
+    /**
+     * Adds every value of another set.
+     */
+    void or(RoaringBitmap other) {
+        char[] mergedKeys = new char[Math.max(4, size + other.size)];
+        Container[] merged = new Container[mergedKeys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                mergedKeys[count] = keys[i];
+                merged[count++] = containers[i++];
+            } else if (i == size || other.keys[j] < keys[i]) {
+                mergedKeys[count] = other.keys[j];
+                merged[count++] = other.containers[j++].copy();
+            } else {
+                mergedKeys[count] = keys[i];
+                merged[count++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        keys = mergedKeys;
+        containers = merged;
+        size = count;
+    }
+
+    /**
+     * Removes every value of another set.
+     */
+    void andNot(RoaringBitmap other) {
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            Container container = containers[i];
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                container = container.andNot(other.containers[j]);
+            }
+            if (container.cardinality() > 0) {
+                keys[count] = keys[i];
+                containers[count++] = container;
+            }
+        }
+        Arrays.fill(containers, count, size, null);
+        size = count;
+    }
+
+    RoaringBitmap copy() {
+        Container[] copies = new Container[Math.max(4, size)];
+        for (int i = 0; i < size; i++) {
+            copies[i] = containers[i].copy();
+        }
+        return new RoaringBitmap(Arrays.copyOf(keys, copies.length), copies, size);
+    }
+
+    /**
+     * @return Approximate heap size in bytes.
+     */
+    long estimateBytes() {
+        long bytes = 24 + 16 + 2L * keys.length + 16 + 4L * containers.length;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].estimateBytes();
+        }
+        return bytes;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    /**
+     * The low 16 bits of the values in one chunk. Operations may change the
+     * container in place or return another one to replace it.
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        /**
+         * @param value Value from 0 to 2^16 inclusive.
+         * @return Number of values below the given one.
+         */
+        abstract int rank(int value);
+
+        /**
+         * @return The smallest value at or after {@code from}, or -1.
+         */
+        abstract int next(int from);
+
+        abstract int last();
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract long estimateBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int rank(int value) {
+            // first index holding the value or a larger one
+            int low = 0;
+            int high = cardinality;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        int next(int from) {
+            int i = rank(from);
+            return i < cardinality ? values[i] : -1;
+        }
+
+        @Override
+        int last() {
+            return values[cardinality - 1];
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.copy().or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] merged = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality && j < array.cardinality) {
+                char a = values[i];
+                char b = array.values[j];
+                merged[count++] = a <= b ? a : b;
+                i += a <= b ? 1 : 0;
+                j += b <= a ? 1 : 0;
+            }
+            while (i < cardinality) {
+                merged[count++] = values[i++];
+            }
+            while (j < array.cardinality) {
+                merged[count++] = array.values[j++];
+            }
+            ArrayContainer union = new ArrayContainer(merged, count);
+            return count > ARRAY_MAX ? union.toBitmap() : union;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            int count = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    values[count++] = values[i];
+                }
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        long estimateBytes() {
+            return 24 + 16 + 2L * values.length;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[WORDS], 0);
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long word = words[value >>> 6];
+            long updated = word | (1L << value);
+            if (updated != word) {
+                words[value >>> 6] = updated;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int rank(int value) {
+            int word = value >>> 6;
+            int rank = 0;
+            for (int i = 0; i < word; i++) {
+                rank += Long.bitCount(words[i]);
+            }
+            if (word < WORDS) {
+                rank += Long.bitCount(words[word] & ((1L << value) - 1));
+            }
+            return rank;
+        }
+
+        @Override
+        int next(int from) {
+            int i = from >>> 6;
+            if (i >= WORDS) {
+                return -1;
+            }
+            long word = words[i] & (-1L << from);
+            while (word == 0) {
+                if (++i == WORDS) {
+                    return -1;
+                }
+                word = words[i];
+            }
+            return i * 64 + Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        int last() {
+            int i = WORDS - 1;
+            while (words[i] == 0) {
+                i--;
+            }
+            return i * 64 + 63 - Long.numberOfLeadingZeros(words[i]);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                int count = 0;
+                for (int i = 0; i < WORDS; i++) {
+                    words[i] |= otherWords[i];
+                    count += Long.bitCount(words[i]);
+                }
+                cardinality = count;
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    add(array.values[i]);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                int count = 0;
+                for (int i = 0; i < WORDS; i++) {
+                    words[i] &= ~otherWords[i];
+                    count += Long.bitCount(words[i]);
+                }
+                cardinality = count;
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    char value = array.values[i];
+                    if (contains(value)) {
+                        words[value >>> 6] &= ~(1L << value);
+                        cardinality--;
+                    }
+                }
+            }
+            return cardinality > ARRAY_MAX ? this : toArray();
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        long estimateBytes() {
+            return 24 + 16 + 8L * WORDS;
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[Math.max(1, cardinality)];
+            int count = 0;
+            for (int value = next(0); value >= 0; value = next(value + 1)) {
+                values[count++] = (char) value;
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
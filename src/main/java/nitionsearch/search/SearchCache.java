@@ -1,67 +1,378 @@
 package nitionsearch.search;
 
-import nitionsearch.model.Page;
-import java.util.*;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
-public class SearchCache {
-    private final Map<String, CacheEntry> cache;
-    private final int maxSize;
+/**
+ * Concurrent cache bounded by the total weight of its entries, with
+ * W-TinyLFU eviction.
+ * <p>
+ * New entries go to a small LRU window. An entry leaving the window has
+ * to beat the least recently used entry of the main space in estimated
+ * access frequency, or it is dropped instead: a burst of one-off queries
+ * passes through the window without flushing the queries that are asked
+ * again and again. The main space is a segmented LRU. Entries start on
+ * probation and move to the protected segment on their second hit.
+ * Frequencies come from a {@link FrequencySketch} that halves its counters
+ * periodically, so popularity fades.
+ * <p>
+ * Lookups read a {@link ConcurrentHashMap} without locking. Reordering the
+ * queues after a hit takes the policy lock only if it is free; under
+ * contention the reordering is skipped, which costs some accuracy but never
+ * blocks a reader. Insertions take the lock, and every operation is O(1).
+ * Entries expire a fixed time after they were written. Expired entries are
+ * dropped when they are next looked up or reach the end of a queue.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class SearchCache<K, V> {
+    /**
+     * Estimates the memory an entry takes.
+     */
+    @FunctionalInterface
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    // share of the maximum weight for the window and, of the rest, the protected segment
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final Map<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final long maxWeight;
+    private final long windowMaxWeight;
+    private final long protectedMaxWeight;
     private final long ttlMillis;
+    private final Weigher<K, V> weigher;
+    private final LongSupplier clock;
+
+    // guarded by policyLock
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final Queue<K, V> window = new Queue<>();
+    private final Queue<K, V> probation = new Queue<>();
+    private final Queue<K, V> protectedQueue = new Queue<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight Bound on the total weight of the entries.
+     * @param ttlMillis Time after which an entry expires.
+     * @param weigher Weight of an entry, such as its approximate size in bytes.
+     */
+    public SearchCache(long maxWeight, long ttlMillis, Weigher<K, V> weigher) {
+        this(maxWeight, ttlMillis, weigher, System::currentTimeMillis);
+    }
 
-    public SearchCache(int maxSize, long ttlMillis) {
-        this.cache = new ConcurrentHashMap<>();
-        this.maxSize = maxSize;
+    SearchCache(long maxWeight, long ttlMillis, Weigher<K, V> weigher, LongSupplier clock) {
+        this.maxWeight = maxWeight;
+        this.windowMaxWeight = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.protectedMaxWeight = (long) ((maxWeight - windowMaxWeight) * PROTECTED_SHARE);
         this.ttlMillis = ttlMillis;
+        this.weigher = weigher;
+        this.clock = clock;
     }
 
-    public Optional<List<Page>> get(String query) {
-        cleanup();
-        CacheEntry entry = cache.get(query);
-        if (entry != null && !entry.isExpired()) {
-            return Optional.of(entry.getResults());
+    public Optional<V> get(K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            recordMiss(key);
+            return Optional.empty();
+        }
+        if (clock.getAsLong() >= node.expiresAt) {
+            misses.increment();
+            if (policyLock.tryLock()) {
+                try {
+                    sketch.increment(key.hashCode());
+                    if (map.get(key) == node) {
+                        remove(node);
+                    }
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return Optional.empty();
+        }
+        hits.increment();
+        if (policyLock.tryLock()) {
+            try {
+                sketch.increment(key.hashCode());
+                if (node.queue >= 0) {
+                    onHit(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return Optional.of(node.value);
+    }
+
+    private void recordMiss(K key) {
+        // misses count towards the frequency too, a query asked twice deserves a place
+        if (policyLock.tryLock()) {
+            try {
+                sketch.increment(key.hashCode());
+            } finally {
+                policyLock.unlock();
+            }
         }
-        return Optional.empty();
     }
 
-    public void put(String query, List<Page> results) {
-        cleanup();
-        if (cache.size() >= maxSize) {
-            removeOldestEntry();
+    /**
+     * Adds or replaces an entry. An entry heavier than the whole cache is
+     * not stored.
+     */
+    public void put(K key, V value) {
+        long entryWeight = weigher.weigh(key, value);
+        policyLock.lock();
+        try {
+            Node<K, V> existing = map.get(key);
+            if (existing != null) {
+                remove(existing);
+            }
+            if (entryWeight > maxWeight) {
+                return;
+            }
+            Node<K, V> node = new Node<>(key, value, entryWeight, clock.getAsLong() + ttlMillis);
+            map.put(key, node);
+            sketch.ensureCapacity(map.size());
+            window.addLast(node, WINDOW);
+            weight += entryWeight;
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Removes an entry.
+     */
+    public void invalidate(K key) {
+        policyLock.lock();
+        try {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public void clear() {
+        policyLock.lock();
+        try {
+            map.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            weight = 0;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void onHit(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.moveToLast(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+            protectedQueue.addLast(node, PROTECTED);
+            // the protected segment overflows into probation
+            while (protectedQueue.weight > protectedMaxWeight) {
+                Node<K, V> demoted = protectedQueue.removeFirst();
+                probation.addLast(demoted, PROBATION);
+            }
+        } else {
+            protectedQueue.moveToLast(node);
+        }
+    }
+
+    /**
+     * Moves the entries that overflow the window into the main space, each
+     * against the probation victim in frequency, then evicts until the
+     * cache fits.
+     */
+    private void evict() {
+        long now = clock.getAsLong();
+        while (window.weight > windowMaxWeight) {
+            Node<K, V> candidate = window.removeFirst();
+            if (weight <= maxWeight) {
+                probation.addLast(candidate, PROBATION);
+                continue;
+            }
+            Node<K, V> victim = probation.first != null ? probation.first : protectedQueue.first;
+            if (victim == null || now >= victim.expiresAt || admit(candidate, victim)) {
+                probation.addLast(candidate, PROBATION);
+                if (victim != null) {
+                    evict(victim);
+                }
+            } else {
+                evict(candidate);
+            }
+        }
+        while (weight > maxWeight) {
+            Node<K, V> victim = probation.first != null ? probation.first
+                    : protectedQueue.first != null ? protectedQueue.first : window.first;
+            evict(victim);
         }
-        cache.put(query, new CacheEntry(results));
     }
 
-    private void cleanup() {
-        cache.entrySet().removeIf(entry -> entry.getValue().isExpired());
+    private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+        return sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode());
     }
 
-    private void removeOldestEntry() {
-        Optional<Map.Entry<String, CacheEntry>> oldest = cache.entrySet().stream()
-                .min(Comparator.comparing(e -> e.getValue().getTimestamp()));
-        oldest.ifPresent(entry -> cache.remove(entry.getKey()));
+    private void evict(Node<K, V> node) {
+        remove(node);
+        evictions.increment();
     }
 
-    private class CacheEntry {
-        private final List<Page> results;
-        private final long timestamp;
+    private void remove(Node<K, V> node) {
+        map.remove(node.key, node);
+        if (node.queue == WINDOW) {
+            window.remove(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else if (node.queue == PROTECTED) {
+            protectedQueue.remove(node);
+        }
+        weight -= node.weight;
+    }
+
+    /**
+     * @return Number of entries, including expired ones not dropped yet.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return Total weight of the entries.
+     */
+    public long getWeight() {
+        policyLock.lock();
+        try {
+            return weight;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of entries dropped to respect the weight bound,
+     * excluding replaced, invalidated and expired ones.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        final long expiresAt;
+        // queue the node is in, -1 once removed; guarded by the policy lock like the links
+        int queue;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key, V value, long weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Doubly linked LRU queue, least recently used first.
+     */
+    private static final class Queue<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+        long weight;
+
+        void addLast(Node<K, V> node, int queue) {
+            node.queue = queue;
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            weight += node.weight;
+        }
 
-        public CacheEntry(List<Page> results) {
-            this.results = new ArrayList<>(results);
-            this.timestamp = System.currentTimeMillis();
+        Node<K, V> removeFirst() {
+            Node<K, V> node = first;
+            remove(node);
+            return node;
         }
 
-        public List<Page> getResults() {
-            return new ArrayList<>(results);
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            node.queue = -1;
+            weight -= node.weight;
         }
 
-        public long getTimestamp() {
-            return timestamp;
+        void moveToLast(Node<K, V> node) {
+            if (node != last) {
+                int queue = node.queue;
+                remove(node);
+                addLast(node, queue);
+            }
         }
 
-        public boolean isExpired() {
-            return System.currentTimeMillis() - timestamp > ttlMillis;
+        void clear() {
+            for (Node<K, V> node = first; node != null; node = node.next) {
+                node.queue = -1;
+            }
+            first = null;
+            last = null;
+            weight = 0;
         }
     }
-}
\ No newline at end of file
+}
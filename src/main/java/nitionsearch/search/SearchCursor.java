@@ -0,0 +1,63 @@
+package nitionsearch.search;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Position in a ranking, as handed out with every page of results so the
+ * next page can start right after it.
+ * <p>
+ * Pages rank by descending score, ties by ascending ordinal, so the score
+ * and ordinal of the last hit on a page are enough to find where the next
+ * page starts: the engine collects the best hits ranking after them, never
+ * the ones before. The cursor holds no server state. Clients get it as an
+ * opaque URL-safe string.
+ */
+final class SearchCursor {
+    private static final int BYTES = Float.BYTES + Integer.BYTES;
+
+    private final float score;
+    private final int docId;
+
+    SearchCursor(float score, int docId) {
+        this.score = score;
+        this.docId = docId;
+    }
+
+    float getScore() {
+        return score;
+    }
+
+    int getDocId() {
+        return docId;
+    }
+
+    /**
+     * @return Whether a hit ranks after this position.
+     */
+    boolean isBefore(float hitScore, int hitDocId) {
+        return hitScore < score || (hitScore == score && hitDocId > docId);
+    }
+
+    String encode() {
+        ByteBuffer bytes = ByteBuffer.allocate(BYTES).putFloat(score).putInt(docId);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    }
+
+    /**
+     * @throws IllegalArgumentException If the text is not a cursor.
+     */
+    static SearchCursor decode(String text) {
+        byte[] bytes = Base64.getUrlDecoder().decode(text);
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("Invalid cursor: " + text);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        float score = buffer.getFloat();
+        int docId = buffer.getInt();
+        if (Float.isNaN(score) || docId < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + text);
+        }
+        return new SearchCursor(score, docId);
+    }
+}
@@ -1,340 +1,847 @@
 package nitionsearch.search;
 
 import nitionsearch.model.Page;
-import nitionsearch.model.TermOccurrence;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-
-public class SearchEngine {
-    private static final int MAX_TERM_DISTANCE = 30;
-    private static final int PROXIMITY_SCORE_BONUS = 50;
-    private final List<Page> pages;
-    private final SuffixTrie suffixTrie;
-    private final SearchCache searchCache;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory search engine over crawled pages.
+ * <p>
+ * Searches run against the current {@link IndexSnapshot}, which is read
+ * through a volatile field and never changes afterwards. Crawler threads
+ * index into a small in-memory buffer under the writer lock. The buffer is
+ * sealed into an immutable {@link Segment} once it holds
+ * {@link #MAX_BUFFERED_PAGES} pages, when {@link #REFRESH_INTERVAL_MILLIS}
+ * have passed since the last seal, or when {@link #refresh()} is called;
+ * pages are searchable from then on. A background thread merges segments
+ * as picked by the {@link TieredMergePolicy}, so sealing stays cheap however
+ * large the index grows.
+ * <p>
+ * An engine opened on an {@link IndexDirectory} is persistent: every sealed
+ * and merged segment is written to an immutable file and searched through a
+ * memory mapping, and each new snapshot is committed to the directory;
+ * deletions of sealed pages are batched into the commit of the next refresh.
+ * Reopening the directory maps the committed segments instead of
+ * re-indexing, so startup takes about as long as reading the URLs and the
+ * vocabulary. Mutations are also appended to a {@link WriteAheadLog} before
+ * they are applied, so buffered pages survive a crash: opening the directory
+ * replays the log, which is emptied whenever a committed snapshot holds
+ * everything it recorded.
+ * <p>
+ * Results are cached per query together with the ordinals they cover, so
+ * sealing new pages does not flush the cache: a cached query is brought up
+ * to date by evaluating it on the new pages only (see {@link CachedTopDocs}).
+ */
+public class SearchEngine implements AutoCloseable {
+    static final int MAX_BUFFERED_PAGES = 256;
+    static final long REFRESH_INTERVAL_MILLIS = 1000;
+    private static final long NOT_LOGGED = 0;
+    public static final int MAX_SUGGESTIONS = Segment.CACHED_COMPLETIONS;
+    static final long SEARCH_CACHE_BYTES = 16L << 20;
+    static final long SEARCH_CACHE_TTL_MILLIS = 3_600_000;
+    static final long SNIPPET_CACHE_BYTES = 8L << 20;
+
+    private final Object writeLock = new Object();
+    private volatile IndexSnapshot snapshot = IndexSnapshot.EMPTY;
+    // guarded by writeLock
+    private DocumentDictionary bufferedDocuments = new DocumentDictionary();
+    private SuffixTrie bufferedTerms = new SuffixTrie();
+    private long lastRefresh = System.currentTimeMillis();
+    // set while the write-ahead log is replayed, which must not truncate it
+    private boolean replaying;
+    // deletes of pages that are not searchable yet or have a replacement in the buffer
+    private final List<Integer> pendingDeletes = new ArrayList<>();
+    // sealed pages were deleted since the last commit, the log holds them until the next one
+    private boolean uncommittedDeletes;
+    private final Set<Integer> merging = new HashSet<>();
+    // written under writeLock, covers sealed and buffered pages
+    private final Map<String, Integer> urlOrdinals = new ConcurrentHashMap<>();
+    // written under writeLock, counts every indexed page that is not deleted
+    private final SpellingDictionary spellingDictionary = new SpellingDictionary();
+
+    // both null for an in-memory engine
+    private final IndexDirectory directory;
+    private final WriteAheadLog log;
+    private final TieredMergePolicy mergePolicy;
+    private final ExecutorService mergeExecutor;
+    private final SearchCache<QueryKey, CachedTopDocs> searchCache;
+    // cached results brought up to date instead of recomputed
+    private final LongAdder cacheUpdates = new LongAdder();
+    private final SearchCache<ResultFragments.Key, ResultFragments> snippetCache;
+    private final Analyzer analyzer;
     private final QueryParser queryParser;
+    // indexing threads analyze pages outside the writer lock, each into its own buffer
+    private final ThreadLocal<TokenBuffer> tokenBuffers = ThreadLocal.withInitial(TokenBuffer::new);
+    private final BM25Scorer scorer;
+    private volatile boolean proximityBoost = true;
+    private volatile boolean substringIndex;
+    private volatile boolean fuzzyFallback = true;
 
     public SearchEngine() {
-        pages = new ArrayList<>();
-        suffixTrie = new SuffixTrie();
-        searchCache = new SearchCache(1000,3600000);
-        queryParser = new QueryParser();
+        this(new Analyzer.Builder().build());
     }
 
-    public void addPage(Page page) {
-        if (canAddPage(page)) {
-            pages.add(page);
-            String content = page.getContent().toLowerCase();
-            String[] words = content.split("\\s+");
-            UUID pageId = page.getId();
-            for (int position = 0; position < words.length; position++) {
-                suffixTrie.insert(words[position], pageId, position);
-            }
-        }
+    /**
+     * @param analyzer Analyzer for both the pages and the queries.
+     */
+    public SearchEngine(Analyzer analyzer) {
+        this(analyzer, null, null);
     }
 
-    public boolean canAddPage(Page page){
-        return (!pages.stream().anyMatch(p -> p.getUrl().equals(page.getUrl()))
-        && !page.getContent().trim().isEmpty());
+    private SearchEngine(Analyzer analyzer, IndexDirectory directory, WriteAheadLog log) {
+        this.directory = directory;
+        this.log = log;
+        mergePolicy = new TieredMergePolicy(MAX_BUFFERED_PAGES);
+        mergeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        searchCache = new SearchCache<>(SEARCH_CACHE_BYTES, SEARCH_CACHE_TTL_MILLIS,
+                (key, cached) -> key.estimateBytes() + cached.estimateBytes());
+        snippetCache = new SearchCache<>(SNIPPET_CACHE_BYTES, SEARCH_CACHE_TTL_MILLIS,
+                (key, fragments) -> key.estimateBytes() + fragments.estimateBytes());
+        this.analyzer = analyzer;
+        queryParser = new QueryParser(analyzer);
+        scorer = new BM25Scorer();
     }
 
-    public SearchResult search(String query, SearchOptions options) {
-        Optional<List<Page>> cachedResults = searchCache.get(query);
-        QueryParser.ParsedQuery parsedQuery = queryParser.parse(query);
-
-        List<Page> results;
-        if (cachedResults.isPresent()) {
-            results = cachedResults.get();
-        } else {
-            Map<Page, Integer> scores = calculateScores(parsedQuery);
-            results = rankPagesByScore(scores);
-            searchCache.put(query, results);
-        }
-
-        // Convert Pages to SearchResultItems with snippets and highlights
-        List<SearchResultItem> resultItems = results.stream()
-                .map(page -> createResultItem(page, parsedQuery))
-                .collect(Collectors.toList());
-
-        return paginateResults(resultItems, options);
+    /**
+     * Opens a persistent engine on a directory, creating an empty index if
+     * the directory holds none.
+     * @see #open(Path, Analyzer)
+     */
+    public static SearchEngine open(Path path) throws IOException {
+        return open(path, new Analyzer.Builder().build());
     }
 
-    private Map<Page, Integer> calculateScores(QueryParser.ParsedQuery parsedQuery) {
-        Map<Page, Integer> scores = new HashMap<>();
-
+    /**
+     * Opens a persistent engine on a directory whose mutations are durable
+     * once their call returns.
+     * @see #open(Path, Analyzer, WriteAheadLog.SyncPolicy)
+     */
+    public static SearchEngine open(Path path, Analyzer analyzer) throws IOException {
+        return open(path, analyzer, WriteAheadLog.SyncPolicy.PER_WRITE);
+    }
 
-        for (Page page : pages) {
-            int score = 0;
+    /**
+     * Opens a persistent engine on a directory, creating an empty index if
+     * the directory holds none.
+     * @param path Index directory.
+     * @param analyzer Analyzer the index was built with.
+     * @param syncPolicy When logged mutations are forced to disk.
+     * @return An engine searching the last committed snapshot of the
+     * directory plus the mutations replayed from its log.
+     */
+    public static SearchEngine open(Path path, Analyzer analyzer, WriteAheadLog.SyncPolicy syncPolicy)
+            throws IOException {
+        IndexDirectory directory = IndexDirectory.open(path);
+        WriteAheadLog log = WriteAheadLog.open(path.resolve(WriteAheadLog.FILE_NAME), syncPolicy);
+        SearchEngine engine = new SearchEngine(analyzer, directory, log);
+        try {
+            engine.load();
+        } catch (IOException | RuntimeException e) {
+            // nothing is committed, the log keeps what could not be replayed
+            engine.mergeExecutor.shutdownNow();
+            log.close();
+            throw e;
+        }
+        return engine;
+    }
 
-            if (!parsedQuery.getMustContain().isEmpty()) {
-                if (containsAllTerms(page, parsedQuery.getMustContain())) {
-                    score += calculateTermsScore(page, parsedQuery.getMustContain());
-                } else {
-                    continue;
+    private void load() throws IOException {
+        synchronized (writeLock) {
+            snapshot = directory.load();
+            for (Segment segment : snapshot.getSegments()) {
+                for (int docId = segment.getDocBase(); docId < segment.getMaxDoc(); docId++) {
+                    String url = segment.getUrl(docId);
+                    if (url != null) {
+                        urlOrdinals.put(url, docId);
+                    }
+                }
+                // the term table counts tombstoned pages, take their words out again
+                segment.forEachDocFrequency(spellingDictionary::add);
+                RoaringBitmap deleted = segment.getDeletedDocs();
+                for (int i = deleted.nextSetBit(0); i >= 0; i = deleted.nextSetBit(i + 1)) {
+                    Page page = segment.storedPage(i);
+                    if (page != null) {
+                        spellingDictionary.removeAll(new HashSet<>(analyzer.terms(page.getContent())));
+                    }
                 }
             }
+            // replayed mutations are not logged again
+            replaying = true;
+            try {
+                log.replay(new WriteAheadLog.Replay() {
+                    @Override
+                    public void addPage(Page page, boolean replace) {
+                        indexPage(page, replace, false);
+                    }
 
-
-            if (!parsedQuery.getShouldContain().isEmpty()) {
-                score += calculateTermsScore(page, parsedQuery.getShouldContain());
+                    @Override
+                    public void deletePage(String url) {
+                        SearchEngine.this.deletePage(url, false);
+                    }
+                });
+            } finally {
+                replaying = false;
             }
+            publish();
+            // commits even if the buffer was empty, which truncates the log
+            commit();
+            scheduleMerges();
+        }
+    }
+
+    /**
+     * Indexes a page unless a page with the same URL is already indexed.
+     */
+    public void addPage(Page page) {
+        indexPage(page, false, true);
+    }
 
+    /**
+     * Indexes a page, replacing the page previously indexed under the same
+     * URL. The old version stays searchable until the new one is.
+     */
+    public void addOrReplacePage(Page page) {
+        indexPage(page, true, true);
+    }
 
-            if (containsAnyTerm(page, parsedQuery.getMustNotContain())) {
-                continue;
+    private void indexPage(Page page, boolean replace, boolean logged) {
+        if (page.getContent().trim().isEmpty()) {
+            return;
+        }
+        TokenBuffer tokens = tokenBuffers.get();
+        analyzer.analyze(page.getContent(), tokens);
+        long sequence = NOT_LOGGED;
+        synchronized (writeLock) {
+            Integer previous = urlOrdinals.get(page.getUrl());
+            if (previous != null && !replace) {
+                return;
             }
-
-            // Exact phrases
-            for (String phrase : parsedQuery.getExactPhrases()) {
-                if (containsExactPhrase(page, phrase)) {
-                    score += calculatePhraseScore(page, phrase);
+            if (logged && log != null) {
+                try {
+                    sequence = log.logAdd(page, replace);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not log page", e);
                 }
             }
-
-            if (score > 0) {
-                scores.put(page, score);
+            if (previous != null) {
+                forgetWords(previous);
+            }
+            // ordinals continue after the last sealed segment
+            int docId = snapshot.getMaxDoc() + bufferedDocuments.add(page, tokens.size());
+            List<String> distinctTerms = new ArrayList<>();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (bufferedTerms.insert(tokens.chars(), tokens.getStart(i), tokens.getLength(i),
+                        docId, tokens.getPosition(i))) {
+                    distinctTerms.add(tokens.term(i));
+                }
+            }
+            urlOrdinals.put(page.getUrl(), docId);
+            spellingDictionary.addAll(distinctTerms);
+            if (previous != null) {
+                pendingDeletes.add(previous);
+            }
+            if (bufferedDocuments.size() >= MAX_BUFFERED_PAGES
+                    || System.currentTimeMillis() - lastRefresh >= REFRESH_INTERVAL_MILLIS) {
+                publish();
             }
         }
-
-        return scores;
+        sync(sequence);
     }
 
-    private boolean containsAllTerms(Page page, List<String> terms) {
-        String content = page.getContent().toLowerCase();
-        return terms.stream().allMatch(term -> content.contains(term.toLowerCase()));
+    /**
+     * Waits until a logged mutation is as durable as the sync policy asks.
+     * Runs outside the writer lock, so other writers keep appending while the
+     * log is forced and share the next force.
+     */
+    private void sync(long sequence) {
+        if (sequence == NOT_LOGGED) {
+            return;
+        }
+        try {
+            log.sync(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync write-ahead log", e);
+        }
     }
 
-    private boolean containsAnyTerm(Page page, List<String> terms) {
-        String content = page.getContent().toLowerCase();
-        return terms.stream().anyMatch(term -> content.contains(term.toLowerCase()));
+    /**
+     * Takes the words of a page that is about to be deleted out of the
+     * spelling dictionary. Must be called under the writer lock.
+     */
+    private void forgetWords(int docId) {
+        int maxDoc = snapshot.getMaxDoc();
+        Page page = docId < maxDoc ? snapshot.getPage(docId) : bufferedDocuments.getPage(docId - maxDoc);
+        if (page != null) {
+            spellingDictionary.removeAll(new HashSet<>(analyzer.terms(page.getContent())));
+        }
     }
 
-    private boolean containsExactPhrase(Page page, String phrase) {
-        String content = page.getContent().toLowerCase();
-        return content.contains(phrase.toLowerCase());
+    public boolean canAddPage(Page page){
+        return !urlOrdinals.containsKey(page.getUrl()) && !page.getContent().trim().isEmpty();
     }
 
-    private int calculateTermsScore(Page page, List<String> terms) {
-        List<TermOccurrence> occurrences = getTermOccurrences(page,
-                terms.toArray(new String[0]));
-        return calculateProximityScore(occurrences,
-                terms.toArray(new String[0]));
+    /**
+     * Removes a page from the index. The page stays in its segment as a
+     * tombstone until the segment is merged. Searches stop finding it right
+     * away; a persistent engine keeps the deletion in its log and commits it
+     * with the next refresh rather than rewriting the manifest per delete.
+     * @param url URL of the page.
+     * @return True if the page was indexed.
+     */
+    public boolean deletePage(String url) {
+        return deletePage(url, true);
     }
 
-    private int calculatePhraseScore(Page page, String phrase) {
-        // Give higher score for exact phrase matches
-        String content = page.getContent().toLowerCase();
-        String phraseLower = phrase.toLowerCase();
+    private boolean deletePage(String url, boolean logged) {
+        long sequence = NOT_LOGGED;
+        synchronized (writeLock) {
+            Integer docId = urlOrdinals.get(url);
+            if (docId == null) {
+                return false;
+            }
+            if (logged && log != null) {
+                try {
+                    sequence = log.logDelete(url);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not log deletion", e);
+                }
+            }
+            urlOrdinals.remove(url);
+            forgetWords(docId);
+            if (docId >= snapshot.getMaxDoc()) {
+                pendingDeletes.add(docId);
+            } else {
+                snapshot = snapshot.withDeletion(docId);
+                uncommittedDeletes = true;
+                scheduleMerges();
+            }
+            if (System.currentTimeMillis() - lastRefresh >= REFRESH_INTERVAL_MILLIS) {
+                publish();
+            }
+        }
+        sync(sequence);
+        return true;
+    }
 
-        // Count occurrences of the exact phrase
-        int count = 0;
-        int index = 0;
-        while ((index = content.indexOf(phraseLower, index)) != -1) {
-            count++;
-            index += phraseLower.length();
+    /**
+     * Makes all pages added so far visible to searches.
+     */
+    public void refresh() {
+        synchronized (writeLock) {
+            publish();
         }
+    }
 
-        return count * PROXIMITY_SCORE_BONUS * 2; // Double bonus for exact phrases
+    private void publish() {
+        lastRefresh = System.currentTimeMillis();
+        if (bufferedDocuments.size() == 0) {
+            if (uncommittedDeletes) {
+                commit();
+            }
+            return;
+        }
+        Segment segment = Segment.seal(snapshot.getMaxDoc(), bufferedDocuments, bufferedTerms);
+        if (substringIndex) {
+            segment.buildSubstringIndex();
+        }
+        if (directory != null) {
+            try {
+                segment = directory.write(segment);
+            } catch (IOException e) {
+                // the buffer is kept, the next refresh tries again
+                throw new UncheckedIOException("Could not write segment", e);
+            }
+        }
+        IndexSnapshot next = snapshot.withSegment(segment);
+        for (int docId : pendingDeletes) {
+            next = next.withDeletion(docId);
+        }
+        // replaced pages disappear in the same snapshot their replacements appear in
+        snapshot = next;
+        pendingDeletes.clear();
+        bufferedDocuments = new DocumentDictionary();
+        bufferedTerms = new SuffixTrie();
+        commit();
+        scheduleMerges();
     }
 
+    private void scheduleMerges() {
+        List<Segment> sources;
+        while (!(sources = mergePolicy.findMerge(snapshot.getSegments(), merging)).isEmpty()) {
+            List<Segment> toMerge = new ArrayList<>(sources);
+            for (Segment segment : toMerge) {
+                merging.add(segment.getDocBase());
+            }
+            try {
+                mergeExecutor.execute(() -> merge(toMerge));
+            } catch (RejectedExecutionException e) {
+                // closed, the segments simply stay as they are
+                toMerge.forEach(segment -> merging.remove(segment.getDocBase()));
+                return;
+            }
+        }
+    }
 
-    private List<TermOccurrence> getTermOccurrences(Page page, String[] terms) {
-        List<TermOccurrence> occurrences = new ArrayList<>();
-        for (String term : terms) {
-            Map<UUID, List<Integer>> termOccurrences = suffixTrie.search(term.toLowerCase());
-            for (Map.Entry<UUID, List<Integer>> entry : termOccurrences.entrySet()) {
-                UUID pageId = entry.getKey();
-                for (int position : entry.getValue()) {
-                    occurrences.add(new TermOccurrence(pageId, term, position));
+    private void merge(List<Segment> sources) {
+        Segment merged = null;
+        try {
+            merged = Segment.merge(sources);
+            if (substringIndex) {
+                merged.buildSubstringIndex();
+            }
+            if (directory != null) {
+                merged = directory.write(merged);
+            }
+        } catch (ClosedByInterruptException e) {
+            // closed while writing, the sources stay as they are
+            merged = null;
+        } catch (IOException e) {
+            merged = null;
+            throw new UncheckedIOException("Could not write merged segment", e);
+        } finally {
+            synchronized (writeLock) {
+                if (merged != null) {
+                    snapshot = snapshot.withMerge(sources, merged);
+                    commit();
+                }
+                for (Segment segment : sources) {
+                    merging.remove(segment.getDocBase());
+                }
+                writeLock.notifyAll();
+                if (merged != null) {
+                    scheduleMerges();
                 }
             }
         }
-
-        return occurrences;
     }
 
     /**
-     * Calculates proximity score for term occurrences.
-     *
-     * @param occurrences Term occurrences.
-     * @param terms Search terms.
-     * @return Proximity score.
+     * Makes the current snapshot the one a persistent engine reopens with.
+     * Must be called under the writer lock.
      */
+    private void commit() {
+        if (directory == null) {
+            return;
+        }
+        try {
+            directory.commit(snapshot);
+            uncommittedDeletes = false;
+            // the commit is durable, and with the buffer empty it holds every logged mutation
+            if (!replaying && bufferedDocuments.size() == 0) {
+                log.truncate();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not commit index", e);
+        }
+    }
 
-    protected int calculateProximityScore(List<TermOccurrence> occurrences, String[] terms) {
-        int baseScore = calculateMatchingTermsScore(occurrences, terms);
-        int proximityBonus = calculateProximityBonus(occurrences, terms);
-
-        // Get the page from occurrences
-        UUID pageId = occurrences.isEmpty() ? null : occurrences.get(0).getDocumentId();
-        if (pageId == null) return 0;
-
-        Optional<Page> page = pages.stream()
-                .filter(p -> p.getId().equals(pageId))
-                .findFirst();
-
-        if (!page.isPresent()) return 0;
-
-        // Normalize score based on document length
-        double contentLength = page.get().getContent().length();
-        double normalizedScore = (baseScore + proximityBonus) / Math.log(contentLength);
+    IndexSnapshot getSnapshot() {
+        return snapshot;
+    }
 
-        // Add term frequency impact without losing proximity advantage
-        double termFrequencyBonus = calculateTermFrequencyImpact(occurrences, terms);
+    /**
+     * Blocks until no merge is running or queued.
+     */
+    void waitForMerges() throws InterruptedException {
+        synchronized (writeLock) {
+            while (!merging.isEmpty()) {
+                writeLock.wait();
+            }
+        }
+    }
 
-        return (int)(normalizedScore * (1 + termFrequencyBonus));
+    /**
+     * Stops the background merges. Searching and indexing keep working. A
+     * persistent engine also seals and commits the buffered pages and closes
+     * its log, after which it can no longer index.
+     */
+    @Override
+    public void close() {
+        mergeExecutor.shutdownNow();
+        if (directory != null) {
+            try {
+                // an interrupted merge gives up at its next write, but must not write after close
+                mergeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refresh();
+            try {
+                log.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not close write-ahead log", e);
+            }
+        }
     }
+
     /**
-     * Calculates proximity score for matching terms in the occurrences.
-     * <p>
-     * This method rewards occurrences that contain all search terms.
-     * @param occurrences Term occurrences.
-     * @param terms Search terms.
-     * @return Proximity score.
+     * Ranks the pages matching a query and renders one page of results,
+     * picked by its number or by the cursor of the page before it.
      */
-    private int calculateMatchingTermsScore(List<TermOccurrence> occurrences, String[] terms) {
-        Map<String, Boolean> termMap = Arrays.stream(terms)
-                .collect(Collectors.toMap(Function.identity(), term -> Boolean.TRUE));
+    public SearchResult search(String query, SearchOptions options) {
+        IndexSnapshot current = snapshot;
+        QueryParser.ParsedQuery parsedQuery = queryParser.parse(query);
+        List<String> domains = domains(options);
+        QueryKey cacheKey = QueryKey.of(parsedQuery, proximityBoost, domains);
+        if (options.getAfter() != null) {
+            return searchAfter(current, parsedQuery, cacheKey, domains, options, query);
+        }
+        // one hit past the page tells whether another page follows; no query
+        // has more hits than the snapshot has ordinals, however deep the page
+        long start = (long) (options.getPage() - 1) * options.getPageSize();
+        int needed = (int) Math.min(start + options.getPageSize() + 1, current.getMaxDoc() + 1L);
+
+        CachedTopDocs cached = searchCache.get(cacheKey)
+                .filter(entry -> entry.getTopDocs().covers(needed))
+                .orElse(null);
+        TopDocs topDocs;
+        if (cached != null && cached.isCurrent(current)) {
+            topDocs = cached.getTopDocs();
+        } else {
+            QueryEvaluator evaluator;
+            if (cached != null && cached.canUpdate(current)) {
+                evaluator = newEvaluator(current, cached, domains);
+                // holding all its hits, the cached top docs may be shorter than needed
+                int k = Math.max(needed, cached.getTopDocs().size());
+                topDocs = evaluator.update(parsedQuery, cached.getTopDocs(), cached.getMaxDoc(), k);
+                cacheUpdates.increment();
+            } else {
+                evaluator = newEvaluator(current, null, domains);
+                topDocs = evaluator.search(parsedQuery, needed);
+            }
+            searchCache.put(cacheKey, new CachedTopDocs(topDocs, current, evaluator.getStatistics()));
+        }
 
-        return (int) occurrences.stream()
-                .filter(occurrence -> termMap.containsKey(occurrence.getTerm()))
-                .count() * PROXIMITY_SCORE_BONUS;
+        // past the hits, which the results report as an empty page
+        int first = (int) Math.min(start, topDocs.size());
+        return paginateResults(current, topDocs, first, parsedQuery, options, didYouMean(query));
     }
 
     /**
-     * Calculates the proximity bonus score for term occurrences.
-     * <p>
-     * This method rewards occurrences where search terms appear close to each other.
-     * @param occurrences Term occurrences.
-     * @param terms Search terms.
-     * @return Proximity score.
+     * Collects only the page of hits ranking after the cursor, so a deep
+     * page costs what the first one does. The scores have to match those
+     * the cursor was taken from: while the query is cached and its entry
+     * still applies, the page is scored with the cached statistics.
      */
-    private int calculateProximityBonus(List<TermOccurrence> occurrences, String[] terms) {
-        int[] termPositions = new int[terms.length];
-        Arrays.fill(termPositions, -1);
-        int score = 0;
+    private SearchResult searchAfter(IndexSnapshot current, QueryParser.ParsedQuery parsedQuery,
+                                     QueryKey cacheKey, List<String> domains, SearchOptions options,
+                                     String query) {
+        CachedTopDocs cached = searchCache.get(cacheKey)
+                .filter(entry -> entry.isCurrent(current) || entry.canUpdate(current))
+                .orElse(null);
+        QueryEvaluator evaluator = newEvaluator(current, cached, domains);
+        TopDocs topDocs = evaluator.searchAfter(parsedQuery, options.getPageSize() + 1, options.getAfter());
+        return paginateResults(current, topDocs, 0, parsedQuery, options, didYouMean(query));
+    }
 
-        occurrences.sort(Comparator.comparingInt(TermOccurrence::getPosition));
+    /**
+     * @param cached Cached entry whose statistics to score with, or null to
+     *               score with those of the snapshot.
+     */
+    private QueryEvaluator newEvaluator(IndexSnapshot current, CachedTopDocs cached, List<String> domains) {
+        QueryEvaluator evaluator = cached != null
+                ? new QueryEvaluator(current, scorer, proximityBoost, fuzzyFallback, cached.getStatistics())
+                : new QueryEvaluator(current, scorer, proximityBoost, fuzzyFallback);
+        evaluator.setDomains(domains);
+        return evaluator;
+    }
 
-        for (TermOccurrence occurrence : occurrences) {
-            int position = occurrence.getPosition();
-            String term = occurrence.getTerm();
+    /**
+     * The filters of a search name the sites to search, like
+     * {@code example.com}, which also covers {@code docs.example.com}.
+     * @return The domains, lowercase and without blanks.
+     */
+    private static List<String> domains(SearchOptions options) {
+        List<String> domains = new ArrayList<>();
+        for (String filter : options.getFilters()) {
+            String domain = filter.trim().toLowerCase(Locale.ROOT);
+            if (!domain.isEmpty()) {
+                domains.add(domain);
+            }
+        }
+        return domains;
+    }
 
-            for (int i = 0; i < terms.length; i++) {
-                if (terms[i].equalsIgnoreCase(term)) {
-                    termPositions[i] = position;
-                    score += calculateTermDistanceScore(termPositions, MAX_TERM_DISTANCE);
-                }
+    /**
+     * Proposes a spelling correction for a query. Every word whose analyzed
+     * term no indexed page contains is replaced by the closest indexed term;
+     * operators, wildcard and fuzzy terms, words the analyzer drops such as
+     * stop words, and words it splits into several terms are kept as they
+     * are. The lookups take a few microseconds, so this runs on every search.
+     * @param query Query as typed.
+     * @return The corrected query, or null if no word needed a correction.
+     */
+    public String didYouMean(String query) {
+        String[] parts = query.trim().split("\\s+");
+        boolean corrected = false;
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (QueryParser.isOperator(part) || QueryParser.isPrefixTerm(part) || QueryParser.isFuzzyTerm(part)) {
+                continue;
+            }
+            // words of a phrase keep their quotes
+            int start = part.startsWith("\"") ? 1 : 0;
+            int end = part.length() > start && part.endsWith("\"") ? part.length() - 1 : part.length();
+            if (start >= end) {
+                continue;
+            }
+            // checked as indexed, so stop words and stemmed forms are not misspellings
+            List<String> terms = analyzer.terms(part.substring(start, end));
+            if (terms.size() != 1) {
+                continue;
+            }
+            String correction = spellingDictionary.correct(terms.get(0));
+            if (correction != null) {
+                parts[i] = part.substring(0, start) + correction + part.substring(end);
+                corrected = true;
             }
         }
-        return score;
+        return corrected ? String.join(" ", parts) : null;
     }
 
     /**
-     * Calculates score for term distance score.
-     * <p>
-     * This method rewards smaller distances between search terms.
-     * @param termPositions Term occurrences.
-     * @param maxDistance Search terms.
-     * @return Proximity score.
+     * Completes the last word of a partially typed query with the indexed
+     * terms found in the most pages. The word is normalized like the stem of
+     * a prefix query; with a stemmer, its stem is completed as well, since
+     * "engines" is indexed as "engine". Each segment proposes its most
+     * frequent completions from the ones cached in its trie nodes, so the
+     * cost does not depend on how many terms share the prefix. The proposals
+     * are then ranked by their document frequency over all segments. A term
+     * that no segment ranks among its top completions is not proposed, even
+     * if its frequencies summed up would rank it higher.
+     * @param prefix Query typed so far.
+     * @param limit Maximum number of suggestions, capped at {@link #MAX_SUGGESTIONS};
+     *              none for zero or less.
+     * @return The query with its last word completed, most frequent first.
      */
-    private int calculateTermDistanceScore(int[] termPositions, int maxDistance) {
-        int score = 0;
-        // iterate over the term pairs to calculate score based on distance
-        for (int i = 0; i < termPositions.length; i++) {
-            for (int j = 0; j < termPositions.length; j++) {
-                if (i != j && termPositions[j] != -1) {
-                    int distance = Math.abs(termPositions[i] - termPositions[j]);
-                    // reward adjacent terms with maximum bonus :)
-                    if (distance == 1) {
-                        score += PROXIMITY_SCORE_BONUS;
-                    }
-                    // decrease score for larger distances
-                    else if (distance <= maxDistance) {
-                        score += (maxDistance - distance) / 2;
-                    }
+    public List<String> suggest(String prefix, int limit) {
+        int wordStart = prefix.length();
+        while (wordStart > 0 && !Character.isWhitespace(prefix.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        String typed = prefix.substring(wordStart);
+        String word = analyzer.normalize(typed);
+        if (word.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> analyzed = analyzer.terms(typed);
+        String stem = analyzed.size() == 1 && !analyzed.get(0).equals(word) ? analyzed.get(0) : null;
+        int count = Math.min(limit, MAX_SUGGESTIONS);
+
+        List<Segment> segments = snapshot.getSegments();
+        List<Map<String, Integer>> proposed = new ArrayList<>(segments.size());
+        Set<String> candidates = new HashSet<>();
+        for (Segment segment : segments) {
+            Map<String, Integer> completions = new HashMap<>();
+            for (SuffixTrie.Completion completion : segment.complete(word, count)) {
+                completions.put(completion.getTerm(), completion.getDocFrequency());
+            }
+            if (stem != null) {
+                for (SuffixTrie.Completion completion : segment.complete(stem, count)) {
+                    completions.put(completion.getTerm(), completion.getDocFrequency());
                 }
             }
+            proposed.add(completions);
+            candidates.addAll(completions.keySet());
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : candidates) {
+            int frequency = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                Integer known = proposed.get(i).get(term);
+                frequency += known != null ? known : segments.get(i).docFrequency(term);
+            }
+            frequencies.put(term, frequency);
         }
-        return score;
+        String head = prefix.substring(0, wordStart);
+        List<String> suggestions = new ArrayList<>(count);
+        frequencies.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(count)
+                .forEach(entry -> suggestions.add(head + entry.getKey()));
+        return suggestions;
     }
 
     /**
-     * Ranks web pages based on their search scores.
-     * <p>
-     * This method sorts pages in descending order of their scores and
-     * filters out pages with no matching terms.
-     * @param scores Map of pages to their corresponding search scores.
-     * @return List of ranked pages.
+     * Slices the requested page out of the ranked hits, then runs the fetch
+     * phase: only the hits on that page are resolved to pages and get
+     * snippets, highlights and term frequencies. Those are rendered once per
+     * page and query terms and then come from the snippet cache.
      */
-    private List<Page> rankPagesByScore(Map<Page, Integer> scores){
-        List<Page> results = new ArrayList<>(scores.keySet());
-
-        // prioritize page relevance by sorting scores in descending order
-        results.sort((p1, p2) -> scores.get(p2) - scores.get(p1));
+    private SearchResult paginateResults(IndexSnapshot current, TopDocs topDocs, int start,
+                                         QueryParser.ParsedQuery parsedQuery, SearchOptions options,
+                                         String didYouMean) {
+        int totalPages = (int) Math.ceil((double) topDocs.getTotalHits() / options.getPageSize());
+
+        if (start >= topDocs.size()) {
+            return new SearchResult(Collections.emptyList(), topDocs.getTotalHits(), totalPages,
+                    topDocs.isTotalHitsExact(), didYouMean);
+        }
+        int end = Math.min(start + options.getPageSize(), topDocs.size());
+
+        List<String> terms = highlightTerms(parsedQuery);
+        String encodedTerms = ResultFragments.Key.encode(terms);
+        List<SearchResultItem> items = new ArrayList<>(end - start);
+        for (int rank = start; rank < end; rank++) {
+            int docId = topDocs.getDocId(rank);
+            Page page = current.getPage(docId);
+            ResultFragments.Key key = new ResultFragments.Key(docId, encodedTerms);
+            ResultFragments fragments = snippetCache.get(key).orElse(null);
+            if (fragments == null) {
+                fragments = renderFragments(page, terms);
+                snippetCache.put(key, fragments);
+            }
+            items.add(new SearchResultItem(page, fragments.getSnippet(), fragments.getHighlights(),
+                    fragments.getTermFrequencies()));
+        }
 
-        // remove pages with no matching terms from the result
-        results = results.stream()
-                .filter(page -> scores.get(page) > 0)
-                .collect(Collectors.toList());
+        // the hits were collected one past the page, if there was one
+        String nextCursor = end == topDocs.size() ? null
+                : new SearchCursor(topDocs.getScore(end - 1), topDocs.getDocId(end - 1)).encode();
+        return new SearchResult(
+                items,
+                topDocs.getTotalHits(),
+                totalPages,
+                topDocs.isTotalHitsExact(),
+                didYouMean,
+                nextCursor
+        );
+    }
 
-        return results;
+    /**
+     * @return Number of pages visible to searches.
+     */
+    public int getIndexedPagesCount() {
+        return snapshot.size();
     }
 
-    private SearchResult paginateResults(List<SearchResultItem> results, SearchOptions options) {
-        int start = (options.getPage() - 1) * options.getPageSize();
-        int end = Math.min(start + options.getPageSize(), results.size());
+    /**
+     * @return Counters of the result cache: hits, misses, evictions, hit
+     * rate, entries and their approximate size in bytes, and how many hits
+     * were brought up to date with pages indexed after they were cached.
+     */
+    public Map<String, Object> getCacheStatistics() {
+        Map<String, Object> statistics = cacheStatistics(searchCache);
+        statistics.put("updates", cacheUpdates.sum());
+        return statistics;
+    }
 
-        if (start >= results.size()) {
-            return new SearchResult(Collections.emptyList(), 0, 0);
-        }
+    /**
+     * @return Counters of the snippet cache, like those of the result cache.
+     */
+    public Map<String, Object> getSnippetCacheStatistics() {
+        return cacheStatistics(snippetCache);
+    }
 
-        return new SearchResult(
-                results.subList(start, end),
-                results.size(),
-                (int) Math.ceil((double) results.size() / options.getPageSize())
-        );
+    private static Map<String, Object> cacheStatistics(SearchCache<?, ?> cache) {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("hits", cache.getHitCount());
+        statistics.put("misses", cache.getMissCount());
+        statistics.put("evictions", cache.getEvictionCount());
+        statistics.put("hitRate", cache.getHitRate());
+        statistics.put("entries", cache.size());
+        statistics.put("bytes", cache.getWeight());
+        return statistics;
     }
 
+    public boolean isProximityBoost() {
+        return proximityBoost;
+    }
 
+    public boolean isSubstringIndex() {
+        return substringIndex;
+    }
 
-    private double calculateTermFrequencyImpact(List<TermOccurrence> occurrences, String[] terms) {
-        Map<String, Integer> termFrequencies = new HashMap<>();
-        for (TermOccurrence occurrence : occurrences) {
-            termFrequencies.merge(occurrence.getTerm(), 1, Integer::sum);
+    /**
+     * Enables the suffix array that answers substring terms like
+     * {@code *search*} per segment. It costs about six bytes per character of
+     * the vocabulary; without it substring terms scan the whole vocabulary.
+     * Existing segments are indexed in the background.
+     */
+    public void setSubstringIndex(boolean substringIndex) {
+        this.substringIndex = substringIndex;
+        if (substringIndex) {
+            for (Segment segment : snapshot.getSegments()) {
+                try {
+                    mergeExecutor.execute(segment::buildSubstringIndex);
+                } catch (RejectedExecutionException e) {
+                    segment.buildSubstringIndex();
+                }
+            }
         }
+    }
 
-        double avgFrequency = termFrequencies.values().stream()
-                .mapToInt(Integer::intValue)
-                .average()
-                .orElse(0.0);
+    public boolean isFuzzyFallback() {
+        return fuzzyFallback;
+    }
 
-        return Math.log(1 + avgFrequency);
+    /**
+     * Enables or disables searching AND and OR terms that no page contains
+     * as fuzzy terms, so a typo still finds the pages with the intended
+     * word. Cached results depend on the setting, so the cache is cleared.
+     */
+    public void setFuzzyFallback(boolean fuzzyFallback) {
+        this.fuzzyFallback = fuzzyFallback;
+        searchCache.clear();
     }
 
-    public int getIndexedPagesCount() {
-        return pages.size();
+    /**
+     * Enables or disables the proximity bonus on top of BM25. Cached results
+     * were ranked with the previous setting, so the cache is cleared.
+     */
+    public void setProximityBoost(boolean proximityBoost) {
+        this.proximityBoost = proximityBoost;
+        searchCache.clear();
     }
 
 
-    private SearchResultItem createResultItem(Page page, QueryParser.ParsedQuery query) {
-        String content = page.getContent();
+    /**
+     * @return The terms to highlight, normalized like the analyzed ones so
+     * that the snippet cache sees the same terms for the same query.
+     */
+    private List<String> highlightTerms(QueryParser.ParsedQuery query) {
         List<String> allTerms = new ArrayList<>();
-        allTerms.addAll(query.getMustContain());
-        allTerms.addAll(query.getShouldContain());
-        allTerms.addAll(query.getExactPhrases());
+        for (String term : query.getMustContain()) {
+            allTerms.add(QueryParser.stripWildcard(term));
+        }
+        for (String term : query.getShouldContain()) {
+            allTerms.add(QueryParser.stripWildcard(term));
+        }
+        for (String phrase : query.getExactPhrases()) {
+            allTerms.add(phrase.replace("*", "").trim().replaceAll("\\s+", " ").toLowerCase());
+        }
+        return allTerms;
+    }
+
+    private ResultFragments renderFragments(Page page, List<String> allTerms) {
+        String content = page.getContent();
+        String contentLower = content.toLowerCase();
 
         // Generate snippet
         String snippet = generateSnippet(content, allTerms);
 
         // Get term frequencies
-        Map<String, Integer> frequencies = calculateTermFrequencies(content, allTerms);
+        Map<String, Integer> frequencies = calculateTermFrequencies(contentLower, allTerms);
 
         // Get highlights
-        List<String> highlights = findBestMatches(content, allTerms);
+        List<String> highlights = findBestMatches(content, contentLower, allTerms);
 
-        return new SearchResultItem(page, snippet, highlights, frequencies);
+        return new ResultFragments(snippet, highlights, frequencies);
     }
 
     private String generateSnippet(String content, List<String> terms) {
@@ -346,9 +853,10 @@ public class SearchEngine {
         String bestSentence = "";
 
         for (String sentence : sentences) {
+            String sentenceLower = sentence.toLowerCase();
             int termCount = 0;
             for (String term : terms) {
-                if (sentence.toLowerCase().contains(term.toLowerCase())) {
+                if (sentenceLower.contains(term.toLowerCase())) {
                     termCount++;
                 }
             }
@@ -373,9 +881,8 @@ public class SearchEngine {
         return bestSentence.trim();
     }
 
-    private Map<String, Integer> calculateTermFrequencies(String content, List<String> terms) {
+    private Map<String, Integer> calculateTermFrequencies(String contentLower, List<String> terms) {
         Map<String, Integer> frequencies = new HashMap<>();
-        String contentLower = content.toLowerCase();
 
         for (String term : terms) {
             String termLower = term.toLowerCase();
@@ -391,9 +898,8 @@ public class SearchEngine {
         return frequencies;
     }
 
-    private List<String> findBestMatches(String content, List<String> terms) {
+    private List<String> findBestMatches(String content, String contentLower, List<String> terms) {
         List<String> matches = new ArrayList<>();
-        String contentLower = content.toLowerCase();
 
         for (String term : terms) {
             String termLower = term.toLowerCase();
@@ -409,4 +915,4 @@ public class SearchEngine {
 
         return matches;
     }
-}
+}
\ No newline at end of file
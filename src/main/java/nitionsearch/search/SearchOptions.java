@@ -8,6 +8,7 @@ public class SearchOptions {
     private int pageSize = 10;
     private SortOrder sortOrder = SortOrder.RELEVANCE;
     private Set<String> filters = new HashSet<>();
+    private SearchCursor after;
 
     // Builder pattern
     public static class Builder {
@@ -33,6 +34,17 @@ public class SearchOptions {
             return this;
         }
 
+        /**
+         * Starts the results right after the last hit of an earlier page
+         * instead of at a page number.
+         * @param cursor Cursor returned with the earlier page, or null.
+         * @throws IllegalArgumentException If the cursor is malformed.
+         */
+        public Builder after(String cursor) {
+            options.after = cursor == null || cursor.isEmpty() ? null : SearchCursor.decode(cursor);
+            return this;
+        }
+
         public SearchOptions build() {
             return options;
         }
@@ -43,6 +55,7 @@ public class SearchOptions {
     public int getPageSize() { return pageSize; }
     public SortOrder getSortOrder() { return sortOrder; }
     public Set<String> getFilters() { return new HashSet<>(filters); }
+    SearchCursor getAfter() { return after; }
 }
 
 
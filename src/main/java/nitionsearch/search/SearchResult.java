@@ -9,14 +9,40 @@ public class SearchResult {
     private final List<SearchResultItem> items;
     private final int totalResults;
     private final int totalPages;
+    private final boolean totalResultsExact;
+    private final String didYouMean;
+    private final String nextCursor;
 
     public SearchResult(List<SearchResultItem> items, int totalResults, int totalPages) {
+        this(items, totalResults, totalPages, true);
+    }
+
+    public SearchResult(List<SearchResultItem> items, int totalResults, int totalPages,
+                        boolean totalResultsExact) {
+        this(items, totalResults, totalPages, totalResultsExact, null);
+    }
+
+    public SearchResult(List<SearchResultItem> items, int totalResults, int totalPages,
+                        boolean totalResultsExact, String didYouMean) {
+        this(items, totalResults, totalPages, totalResultsExact, didYouMean, null);
+    }
+
+    public SearchResult(List<SearchResultItem> items, int totalResults, int totalPages,
+                        boolean totalResultsExact, String didYouMean, String nextCursor) {
         this.items = items;
         this.totalResults = totalResults;
         this.totalPages = totalPages;
+        this.totalResultsExact = totalResultsExact;
+        this.didYouMean = didYouMean;
+        this.nextCursor = nextCursor;
     }
 
     public List<SearchResultItem> getItems() { return items; }
     public int getTotalResults() { return totalResults; }
     public int getTotalPages() { return totalPages; }
+    public boolean isTotalResultsExact() { return totalResultsExact; }
+    /** Spelling correction of the query, or null if it needs none. */
+    public String getDidYouMean() { return didYouMean; }
+    /** Cursor to fetch the page after this one with, or null on the last page. */
+    public String getNextCursor() { return nextCursor; }
 }
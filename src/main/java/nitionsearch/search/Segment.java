@@ -0,0 +1,489 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Immutable slice of the index covering a contiguous range of document
+ * ordinals.
+ * <p>
+ * Postings inside a segment use the global ordinals, so the segments of a
+ * snapshot can be searched one after the other in ordinal order. Deleting a
+ * page does not touch the postings; it returns a copy of the segment with
+ * the page marked in its tombstones. Merging drops the postings and the
+ * page of every tombstoned document, but keeps its ordinal slot empty so the
+ * ordinals of all other pages stay valid. The tombstones are a
+ * {@link RoaringBitmap}, so copying them costs little while they are few.
+ * <p>
+ * Sealed and merged segments keep their pages and terms on the heap. A
+ * persistent engine writes them to a {@link SegmentFile} and replaces them
+ * with a segment reading from the mapped file.
+ */
+public final class Segment {
+    static final int CACHED_COMPLETIONS = 10;
+
+    private final int docBase;
+    // stored pages on the heap, null when they are read from the file
+    private final Page[] pages;
+    private final SegmentFile file;
+    private final int[] lengths;
+    // ordinal slots a merge left empty
+    private final BitSet dropped;
+    private final TermDictionary terms;
+    private final RoaringBitmap deleted;
+    private final int deletedCount;
+    private final int droppedCount;
+    private final long liveLength;
+    private final int minLength;
+    // derived from the terms, built on demand
+    private volatile SubstringIndex substrings;
+    // ordinals of the pages of every host, built by the first domain filter
+    private volatile Map<String, RoaringBitmap> hosts;
+
+    private Segment(int docBase, Page[] pages, SegmentFile file, int[] lengths, BitSet dropped,
+                    TermDictionary terms, RoaringBitmap deleted, long liveLength, int minLength) {
+        this.docBase = docBase;
+        this.pages = pages;
+        this.file = file;
+        this.lengths = lengths;
+        this.dropped = dropped;
+        this.terms = terms;
+        this.deleted = deleted;
+        this.deletedCount = deleted.cardinality();
+        this.droppedCount = dropped.cardinality();
+        this.liveLength = liveLength;
+        this.minLength = minLength;
+    }
+
+    private static Segment create(int docBase, Page[] pages, SegmentFile file, int[] lengths, BitSet dropped,
+                                  TermDictionary terms, RoaringBitmap deleted) {
+        long length = 0;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < lengths.length; i++) {
+            if (!dropped.get(i) && !deleted.contains(i)) {
+                length += lengths[i];
+                min = Math.min(min, lengths[i]);
+            }
+        }
+        return new Segment(docBase, pages, file, lengths, dropped, terms, deleted, length,
+                min == Integer.MAX_VALUE ? 0 : min);
+    }
+
+    private static Segment create(int docBase, Page[] pages, int[] lengths, TermDictionary terms) {
+        BitSet dropped = new BitSet(pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] == null) {
+                dropped.set(i);
+            }
+        }
+        return create(docBase, pages, null, lengths, dropped, terms, new RoaringBitmap());
+    }
+
+    /**
+     * Opens a segment written to a file.
+     * @param file Mapped segment file.
+     * @param deleted Tombstones of the segment, relative to its doc base.
+     * @return A segment reading its pages and terms from the file.
+     */
+    static Segment open(SegmentFile file, RoaringBitmap deleted) {
+        return create(file.getDocBase(), null, file, file.readLengths(), file.readDropped(), file.terms(), deleted);
+    }
+
+    /**
+     * Seals buffered pages into a segment.
+     * @param docBase Global ordinal of the first buffered page.
+     * @param documents Buffered pages with ordinals counted from zero.
+     * @param terms Postings of the buffered pages, keyed by global ordinals.
+     * @return The new segment. The buffer must not be written to afterwards.
+     */
+    public static Segment seal(int docBase, DocumentDictionary documents, SuffixTrie terms) {
+        Page[] pages = new Page[documents.size()];
+        int[] lengths = new int[documents.size()];
+        for (int ordinal = 0; ordinal < pages.length; ordinal++) {
+            pages[ordinal] = documents.getPage(ordinal);
+            lengths[ordinal] = documents.getLength(ordinal);
+        }
+        terms.cacheCompletions(CACHED_COMPLETIONS);
+        return create(docBase, pages, lengths, terms);
+    }
+
+    /**
+     * Merges adjacent segments into one, dropping tombstoned pages.
+     * @param segments Segments in ordinal order, each starting where the
+     *                 previous one ends.
+     * @return The merged segment.
+     */
+    public static Segment merge(List<Segment> segments) {
+        Segment first = segments.get(0);
+        int docCount = 0;
+        for (Segment segment : segments) {
+            if (segment.docBase != first.docBase + docCount) {
+                throw new IllegalArgumentException("Only adjacent segments can be merged");
+            }
+            docCount += segment.getDocCount();
+        }
+
+        Page[] pages = new Page[docCount];
+        int[] lengths = new int[docCount];
+        Map<String, PostingList> merged = new HashMap<>();
+        for (Segment segment : segments) {
+            int offset = segment.docBase - first.docBase;
+            for (int i = 0; i < segment.getDocCount(); i++) {
+                if (!segment.isLocallyDeleted(i)) {
+                    pages[offset + i] = segment.storedPage(i);
+                    lengths[offset + i] = segment.lengths[i];
+                }
+            }
+            segment.terms.forEachTerm((term, postings) -> {
+                PostingList target = merged.get(term);
+                if (segment.deletedCount == 0) {
+                    if (target == null) {
+                        merged.put(term, postings.copy());
+                    } else {
+                        target.addAll(postings);
+                    }
+                    return;
+                }
+                PostingsCursor cursor = postings.cursor();
+                while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+                    if (segment.isDeleted(cursor.docId())) {
+                        continue;
+                    }
+                    if (target == null) {
+                        target = new PostingList();
+                        merged.put(term, target);
+                    }
+                    for (int position : cursor.positions()) {
+                        target.add(cursor.docId(), position);
+                    }
+                }
+            });
+        }
+
+        SuffixTrie terms = new SuffixTrie();
+        merged.forEach(terms::put);
+        terms.cacheCompletions(CACHED_COMPLETIONS);
+        return create(first.docBase, pages, lengths, terms);
+    }
+
+    /**
+     * @param docId Global ordinal of a page in this segment.
+     * @return A copy of this segment with the page tombstoned.
+     */
+    public Segment delete(int docId) {
+        RoaringBitmap tombstones = deleted.copy();
+        tombstones.add(docId - docBase);
+        // the minimum length stays a valid lower bound, no need to rescan
+        Segment segment = new Segment(docBase, pages, file, lengths, dropped, terms, tombstones,
+                liveLength - lengths[docId - docBase], minLength);
+        segment.shareDerivedIndexes(this);
+        return segment;
+    }
+
+    /**
+     * Carries tombstones set on the sources of a merge while it was running
+     * over to the merged segment.
+     */
+    Segment withDeletionsOf(List<Segment> sources) {
+        RoaringBitmap tombstones = deleted.copy();
+        for (Segment source : sources) {
+            for (int i = source.deleted.nextSetBit(0); i >= 0; i = source.deleted.nextSetBit(i + 1)) {
+                int index = source.docBase - docBase + i;
+                // pages tombstoned before the merge started are already gone
+                if (!dropped.get(index)) {
+                    tombstones.add(index);
+                }
+            }
+        }
+        // tombstones are only ever added
+        if (tombstones.cardinality() == deletedCount) {
+            return this;
+        }
+        Segment segment = create(docBase, pages, file, lengths, dropped, terms, tombstones);
+        segment.shareDerivedIndexes(this);
+        return segment;
+    }
+
+    /**
+     * @return The same pages and tombstones, read from the file the segment
+     * was written to.
+     */
+    Segment withFile(SegmentFile file) {
+        Segment segment = create(docBase, null, file, file.readLengths(), file.readDropped(), file.terms(), deleted);
+        segment.shareDerivedIndexes(this);
+        return segment;
+    }
+
+    private void shareDerivedIndexes(Segment source) {
+        substrings = source.substrings;
+        hosts = source.hosts;
+    }
+
+    /**
+     * @return The file the segment is read from, null for a segment on the heap.
+     */
+    SegmentFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return The tombstones, relative to the doc base. They are shared and
+     * must not be modified.
+     */
+    RoaringBitmap getDeletedDocs() {
+        return deleted;
+    }
+
+    /**
+     * @param index Ordinal relative to the doc base.
+     * @return The page in the slot, tombstoned or not, or null if a merge
+     * dropped it.
+     */
+    Page storedPage(int index) {
+        if (dropped.get(index)) {
+            return null;
+        }
+        return pages != null ? pages[index] : file.getPage(index);
+    }
+
+    /**
+     * @return URL of a live page, without reading its content from the file.
+     */
+    String getUrl(int docId) {
+        if (isDeleted(docId)) {
+            return null;
+        }
+        int index = docId - docBase;
+        return pages != null ? pages[index].getUrl() : file.getUrl(index);
+    }
+
+    /**
+     * @see TermDictionary#forEachTerm(BiConsumer)
+     */
+    void forEachTerm(BiConsumer<String, PostingList> action) {
+        terms.forEachTerm(action);
+    }
+
+    /**
+     * Document frequencies count tombstoned pages until the segment is merged.
+     * @see TermDictionary#forEachDocFrequency(ObjIntConsumer)
+     */
+    void forEachDocFrequency(ObjIntConsumer<String> action) {
+        terms.forEachDocFrequency(action);
+    }
+
+    public PostingList postings(String term) {
+        return terms.search(term);
+    }
+
+    /**
+     * Document frequencies count tombstoned pages until the segment is merged.
+     * @return Number of pages in the segment containing the term.
+     */
+    public int docFrequency(String term) {
+        return terms.search(term).size();
+    }
+
+    /**
+     * @see TermDictionary#expand(String, int)
+     */
+    public List<String> expand(String prefix, int limit) {
+        return terms.expand(prefix, limit);
+    }
+
+    /**
+     * Lists the terms containing a substring, through the
+     * {@link SubstringIndex} if it was built and by scanning the vocabulary
+     * otherwise.
+     * @return Up to {@code limit} terms, the first ones in lexicographic order.
+     */
+    public List<String> expandSubstring(String pattern, int limit) {
+        SubstringIndex index = substrings;
+        return index != null ? index.termsContaining(pattern, limit) : terms.scanContaining(pattern, limit);
+    }
+
+    /**
+     * Builds the substring index of this segment unless it exists already.
+     */
+    public void buildSubstringIndex() {
+        if (substrings == null) {
+            synchronized (this) {
+                if (substrings == null) {
+                    substrings = SubstringIndex.build(terms);
+                }
+            }
+        }
+    }
+
+    public boolean hasSubstringIndex() {
+        return substrings != null;
+    }
+
+    /**
+     * Collects the live pages of some sites. The pages of every host are
+     * indexed by the first call and shared by later copies of the segment.
+     * @param domains Lowercase domain names.
+     * @return Ordinals, relative to the doc base, of the live pages whose URL
+     * host is one of the domains or a subdomain of one.
+     */
+    RoaringBitmap docsOnDomains(Collection<String> domains) {
+        RoaringBitmap docs = new RoaringBitmap();
+        for (Map.Entry<String, RoaringBitmap> entry : hostIndex().entrySet()) {
+            for (String domain : domains) {
+                if (isOnDomain(entry.getKey(), domain)) {
+                    docs.or(entry.getValue());
+                    break;
+                }
+            }
+        }
+        docs.andNot(deleted);
+        return docs;
+    }
+
+    private Map<String, RoaringBitmap> hostIndex() {
+        Map<String, RoaringBitmap> index = hosts;
+        if (index == null) {
+            synchronized (this) {
+                index = hosts;
+                if (index == null) {
+                    index = new HashMap<>();
+                    for (int i = 0; i < lengths.length; i++) {
+                        if (!dropped.get(i)) {
+                            String url = pages != null ? pages[i].getUrl() : file.getUrl(i);
+                            index.computeIfAbsent(host(url), host -> new RoaringBitmap()).add(i);
+                        }
+                    }
+                    hosts = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The lowercase host of a URL, without user info and port.
+     */
+    static String host(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        int userInfo = url.lastIndexOf('@', end - 1);
+        String authority = url.substring(userInfo >= start ? userInfo + 1 : start, end);
+        int port = authority.lastIndexOf(':');
+        if (port >= 0 && authority.indexOf(']') < port) {
+            authority = authority.substring(0, port);
+        }
+        return authority.toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isOnDomain(String host, String domain) {
+        return host.endsWith(domain) && (host.length() == domain.length()
+                || host.charAt(host.length() - domain.length() - 1) == '.');
+    }
+
+    /**
+     * @see TermDictionary#forEachFuzzyMatch(LevenshteinAutomaton, ObjIntConsumer)
+     */
+    public void forEachFuzzyMatch(LevenshteinAutomaton automaton, ObjIntConsumer<String> action) {
+        terms.forEachFuzzyMatch(automaton, action);
+    }
+
+    /**
+     * Document frequencies count tombstoned pages until the segment is merged.
+     * @see TermDictionary#complete(String, int)
+     */
+    public List<SuffixTrie.Completion> complete(String prefix, int limit) {
+        return terms.complete(prefix, limit);
+    }
+
+    public int getDocBase() {
+        return docBase;
+    }
+
+    /**
+     * @return First ordinal after this segment.
+     */
+    public int getMaxDoc() {
+        return docBase + lengths.length;
+    }
+
+    public boolean contains(int docId) {
+        return docId >= docBase && docId < getMaxDoc();
+    }
+
+    /**
+     * @return True if the page is tombstoned or was dropped by a merge.
+     */
+    public boolean isDeleted(int docId) {
+        int index = docId - docBase;
+        return isLocallyDeleted(index) || (droppedCount > 0 && dropped.get(index));
+    }
+
+    private boolean isLocallyDeleted(int index) {
+        return deletedCount > 0 && deleted.contains(index);
+    }
+
+    /**
+     * @return Number of tombstoned pages whose postings are still in the segment.
+     */
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * @return The page, or null if it was deleted.
+     */
+    public Page getPage(int docId) {
+        return isDeleted(docId) ? null : storedPage(docId - docBase);
+    }
+
+    public int getLength(int docId) {
+        return lengths[docId - docBase];
+    }
+
+    /**
+     * @return Number of ordinal slots, including deleted pages.
+     */
+    public int getDocCount() {
+        return lengths.length;
+    }
+
+    public int getLiveDocCount() {
+        return lengths.length - droppedCount - deletedCount;
+    }
+
+    /**
+     * @return Number of live pages with an ordinal below the given one.
+     */
+    public int getLiveDocCount(int maxDoc) {
+        if (maxDoc >= getMaxDoc()) {
+            return getLiveDocCount();
+        }
+        int end = Math.max(0, maxDoc - docBase);
+        int live = end;
+        if (droppedCount > 0) {
+            live -= dropped.get(0, end).cardinality();
+        }
+        if (deletedCount > 0) {
+            live -= deleted.rank(end);
+        }
+        return live;
+    }
+
+    public long getLiveLength() {
+        return liveLength;
+    }
+
+    /**
+     * @return Lower bound on the token count of the live pages.
+     */
+    public int getMinLength() {
+        return minLength;
+    }
+}
@@ -0,0 +1,599 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A {@link Segment} written to an immutable file and memory-mapped.
+ * <p>
+ * Opening a segment maps the file and reads the document-length table; the
+ * stored pages, postings and terms stay in the page cache and are only read
+ * when a search needs them, so an index opens in milliseconds whatever its
+ * size. The file holds, in this order:
+ * <ul>
+ *     <li>the stored pages: id, URL and content, each string as UTF-8;</li>
+ *     <li>the document table: token count and stored page offset per
+ *     ordinal, -1 for slots a merge dropped;</li>
+ *     <li>the postings of every term as written by {@link PostingList},
+ *     which searches decode in place rather than copy;</li>
+ *     <li>the characters of all terms in lexicographic order, UTF-16;</li>
+ *     <li>the term table: character offset, length, document frequency and
+ *     postings offset per term;</li>
+ *     <li>the completions: for every prefix shared by more than
+ *     {@link Segment#CACHED_COMPLETIONS} terms, its range in the term table
+ *     and its most frequent terms, as {@link SuffixTrie} caches them per
+ *     node;</li>
+ *     <li>a footer with the section offsets, the ordinal range, the term
+ *     count, the format version and a magic number.</li>
+ * </ul>
+ * Offsets are ints, so a segment file is limited to 2 GB; the merge policy
+ * keeps segments far below that.
+ */
+final class SegmentFile {
+    static final String EXTENSION = ".seg";
+    private static final int MAGIC = 0x4E53_4547;
+    private static final int VERSION = 2;
+    // version 1 had no completions, and its footer no offset for them
+    private static final int VERSION_WITHOUT_COMPLETIONS = 1;
+    private static final int FOOTER_BYTES = 36;
+    private static final int TERM_ENTRY_BYTES = 16;
+    private static final int DOC_ENTRY_BYTES = 8;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int docTableOffset;
+    private final int termCharsOffset;
+    private final int termTableOffset;
+    private final int docBase;
+    private final int docCount;
+    private final int termCount;
+    private final int completionsOffset;
+
+    private SegmentFile(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        int end = buffer.capacity();
+        if (end < FOOTER_BYTES - 4 || buffer.getInt(end - 4) != MAGIC) {
+            throw new IOException("Not a segment file: " + path);
+        }
+        int version = buffer.getInt(end - 8);
+        if (version != VERSION && version != VERSION_WITHOUT_COMPLETIONS) {
+            throw new IOException("Unsupported segment version " + version + ": " + path);
+        }
+        int footer = end - FOOTER_BYTES + 4;
+        completionsOffset = version == VERSION ? buffer.getInt(footer - 4) : -1;
+        docTableOffset = buffer.getInt(footer);
+        termCharsOffset = buffer.getInt(footer + 4);
+        termTableOffset = buffer.getInt(footer + 8);
+        docBase = buffer.getInt(footer + 12);
+        docCount = buffer.getInt(footer + 16);
+        termCount = buffer.getInt(footer + 20);
+    }
+
+    /**
+     * Writes a segment to a file. The file is written under a temporary name,
+     * forced to disk and then renamed, so it either exists complete or not
+     * at all; the directory is forced after the rename.
+     * @param segment Segment to write, with its tombstoned pages, which are
+     *                kept by the index directory.
+     * @param path File to create.
+     */
+    static void write(Segment segment, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // not closed, that would close the channel before it is forced
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16));
+            write(segment, out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // a manifest naming the file must not outlive a power loss the rename does not
+        IndexDirectory.sync(path.toAbsolutePath().getParent());
+    }
+
+    private static void write(Segment segment, DataOutputStream out) throws IOException {
+        int docCount = segment.getDocCount();
+        int[] storedOffsets = new int[docCount];
+        for (int i = 0; i < docCount; i++) {
+            Page page = segment.storedPage(i);
+            if (page == null) {
+                storedOffsets[i] = -1;
+                continue;
+            }
+            storedOffsets[i] = checkedSize(out);
+            out.writeLong(page.getId().getMostSignificantBits());
+            out.writeLong(page.getId().getLeastSignificantBits());
+            writeString(out, page.getUrl());
+            writeString(out, page.getContent());
+        }
+
+        int docTableOffset = checkedSize(out);
+        for (int i = 0; i < docCount; i++) {
+            out.writeInt(segment.getLength(segment.getDocBase() + i));
+            out.writeInt(storedOffsets[i]);
+        }
+
+        List<String> terms = new ArrayList<>();
+        List<int[]> entries = new ArrayList<>();
+        try {
+            segment.forEachTerm((term, postings) -> {
+                terms.add(term);
+                entries.add(new int[]{postings.size(), out.size()});
+                try {
+                    postings.writeTo(out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int termCharsOffset = checkedSize(out);
+        for (String term : terms) {
+            out.writeChars(term);
+        }
+        int termTableOffset = checkedSize(out);
+        int charOffset = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            out.writeInt(charOffset);
+            out.writeInt(terms.get(i).length());
+            out.writeInt(entries.get(i)[0]);
+            out.writeInt(entries.get(i)[1]);
+            charOffset += terms.get(i).length();
+        }
+        int completionsOffset = checkedSize(out);
+        writeCompletions(terms, entries, out);
+
+        out.writeInt(completionsOffset);
+        out.writeInt(docTableOffset);
+        out.writeInt(termCharsOffset);
+        out.writeInt(termTableOffset);
+        out.writeInt(segment.getDocBase());
+        out.writeInt(docCount);
+        out.writeInt(terms.size());
+        out.writeInt(VERSION);
+        out.writeInt(MAGIC);
+        checkedSize(out);
+    }
+
+    /**
+     * Writes the completion size, the number of cached prefixes and, for
+     * each, its term table range and the term indices of its completions,
+     * ordered by start and then by descending end so nested ranges can be
+     * searched.
+     */
+    private static void writeCompletions(List<String> terms, List<int[]> entries, DataOutputStream out)
+            throws IOException {
+        List<int[]> cached = new ArrayList<>();
+        if (!terms.isEmpty()) {
+            collectCompletions(terms, entries, 0, terms.size(), 0, cached);
+        }
+        cached.sort(Comparator.comparingInt((int[] range) -> range[0]).thenComparingInt(range -> -range[1]));
+        out.writeInt(Segment.CACHED_COMPLETIONS);
+        out.writeInt(cached.size());
+        for (int[] range : cached) {
+            for (int value : range) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Walks the sorted terms as the nodes of a radix tree, whose terms are
+     * a range of the term table sharing a longer prefix than the range they
+     * belong to, and caches the completions of every node with too many terms
+     * to sort at lookup.
+     * @param low First term of the node.
+     * @param high End of the node's terms.
+     * @param depth Length of the prefix all terms of the node share at least.
+     * @param cached Collects the range and completions of the nodes cached.
+     * @return Indices of the most frequent terms of the node, best first.
+     */
+    private static int[] collectCompletions(List<String> terms, List<int[]> entries, int low, int high, int depth,
+                                            List<int[]> cached) {
+        String first = terms.get(low);
+        String last = terms.get(high - 1);
+        int prefix = depth;
+        while (prefix < first.length() && prefix < last.length() && first.charAt(prefix) == last.charAt(prefix)) {
+            prefix++;
+        }
+        List<Integer> candidates = new ArrayList<>();
+        int start = low;
+        if (first.length() == prefix) {
+            // the prefix is a term itself, sorted before its extensions
+            candidates.add(low);
+            start++;
+        }
+        while (start < high) {
+            char next = terms.get(start).charAt(prefix);
+            int end = start + 1;
+            while (end < high && terms.get(end).charAt(prefix) == next) {
+                end++;
+            }
+            for (int term : collectCompletions(terms, entries, start, end, prefix + 1, cached)) {
+                candidates.add(term);
+            }
+            start = end;
+        }
+        // terms are sorted, so ties on frequency go to the lower index as in SuffixTrie.BY_FREQUENCY
+        candidates.sort(Comparator.comparingInt((Integer term) -> -entries.get(term)[0]).thenComparingInt(term -> term));
+        int[] best = new int[Math.min(candidates.size(), Segment.CACHED_COMPLETIONS)];
+        for (int i = 0; i < best.length; i++) {
+            best[i] = candidates.get(i);
+        }
+        if (high - low > Segment.CACHED_COMPLETIONS) {
+            int[] range = new int[2 + best.length];
+            range[0] = low;
+            range[1] = high;
+            System.arraycopy(best, 0, range, 2, best.length);
+            cached.add(range);
+        }
+        return best;
+    }
+
+    private static int checkedSize(DataOutputStream out) throws IOException {
+        // DataOutputStream counts in an int that sticks at Integer.MAX_VALUE
+        if (out.size() < 0 || out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Segment exceeds 2 GB");
+        }
+        return out.size();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Maps a segment file. The mapping stays valid after the channel is
+     * closed and is released once the segment is no longer referenced.
+     */
+    static SegmentFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment exceeds 2 GB: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SegmentFile(path, buffer);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getDocBase() {
+        return docBase;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * @return Token count per ordinal, read into the heap since every
+     * scored document needs its length.
+     */
+    int[] readLengths() {
+        int[] lengths = new int[docCount];
+        for (int i = 0; i < docCount; i++) {
+            lengths[i] = buffer.getInt(docTableOffset + i * DOC_ENTRY_BYTES);
+        }
+        return lengths;
+    }
+
+    /**
+     * @return Ordinal slots a merge left empty, relative to the doc base.
+     */
+    BitSet readDropped() {
+        BitSet dropped = new BitSet(docCount);
+        for (int i = 0; i < docCount; i++) {
+            if (storedOffset(i) < 0) {
+                dropped.set(i);
+            }
+        }
+        return dropped;
+    }
+
+    private int storedOffset(int index) {
+        return buffer.getInt(docTableOffset + index * DOC_ENTRY_BYTES + 4);
+    }
+
+    /**
+     * @param index Ordinal relative to the doc base.
+     * @return The stored page, or null if the slot is empty.
+     */
+    Page getPage(int index) {
+        int offset = storedOffset(index);
+        if (offset < 0) {
+            return null;
+        }
+        UUID id = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+        offset += 16;
+        String url = readString(offset);
+        offset += 4 + buffer.getInt(offset);
+        return new Page(id, url, readString(offset));
+    }
+
+    /**
+     * @return URL of the stored page, without decoding its content.
+     */
+    String getUrl(int index) {
+        int offset = storedOffset(index);
+        return offset < 0 ? null : readString(offset + 16);
+    }
+
+    private String readString(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The terms of the segment, read from the mapping.
+     */
+    TermDictionary terms() {
+        return new MappedTerms();
+    }
+
+    /**
+     * Terms of a mapped segment. The term table is sorted, so exact terms
+     * and prefixes are found by binary search and fuzzy matching runs the
+     * automaton over the sorted terms, reusing its states for the prefix a
+     * term shares with the previous one.
+     */
+    private final class MappedTerms implements TermDictionary {
+        private static final int NOT_FOUND = -1;
+
+        private int charOffset(int term) {
+            return termCharsOffset + 2 * buffer.getInt(termTableOffset + term * TERM_ENTRY_BYTES);
+        }
+
+        private int charLength(int term) {
+            return buffer.getInt(termTableOffset + term * TERM_ENTRY_BYTES + 4);
+        }
+
+        private int docFrequency(int term) {
+            return buffer.getInt(termTableOffset + term * TERM_ENTRY_BYTES + 8);
+        }
+
+        private PostingList postings(int term) {
+            return PostingList.map(buffer, buffer.getInt(termTableOffset + term * TERM_ENTRY_BYTES + 12));
+        }
+
+        private String term(int term) {
+            char[] chars = new char[charLength(term)];
+            int offset = charOffset(term);
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = buffer.getChar(offset + 2 * i);
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Compares a term with a string, or only with its start if
+         * {@code prefix} is set.
+         */
+        private int compare(int term, String value, boolean prefix) {
+            int offset = charOffset(term);
+            int length = charLength(term);
+            int common = Math.min(length, value.length());
+            for (int i = 0; i < common; i++) {
+                int difference = buffer.getChar(offset + 2 * i) - value.charAt(i);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return prefix && length >= value.length() ? 0 : length - value.length();
+        }
+
+        /**
+         * @return Index of the first term not below the value.
+         */
+        private int lowerBound(String value) {
+            int low = 0;
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, value, false) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return End of the terms starting with the prefix, which start at
+         * {@code low}.
+         */
+        private int upperBound(String prefix, int low) {
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, prefix, true) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int find(String value) {
+            int index = lowerBound(value);
+            return index < termCount && compare(index, value, false) == 0 ? index : NOT_FOUND;
+        }
+
+        @Override
+        public PostingList search(String term) {
+            int index = find(term);
+            return index == NOT_FOUND ? PostingList.EMPTY : postings(index);
+        }
+
+        @Override
+        public List<String> expand(String prefix, int limit) {
+            List<String> result = new ArrayList<>();
+            for (int i = lowerBound(prefix); i < termCount && result.size() < limit
+                    && compare(i, prefix, true) == 0; i++) {
+                result.add(term(i));
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> scanContaining(String pattern, int limit) {
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < termCount && result.size() < limit; i++) {
+                String term = term(i);
+                if (term.contains(pattern)) {
+                    result.add(term);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void forEachFuzzyMatch(LevenshteinAutomaton automaton, ObjIntConsumer<String> action) {
+            char[] previous = new char[16];
+            int[][] states = new int[17][];
+            states[0] = automaton.start();
+            // states[0..computed] belong to the first computed chars of previous
+            int computed = 0;
+            // depth at which the previous term left the automaton
+            int deadDepth = Integer.MAX_VALUE;
+            for (int term = 0; term < termCount; term++) {
+                int offset = charOffset(term);
+                int length = charLength(term);
+                int common = 0;
+                while (common < computed && common < length
+                        && buffer.getChar(offset + 2 * common) == previous[common]) {
+                    common++;
+                }
+                if (deadDepth <= common) {
+                    // shares the prefix no match can start with
+                    continue;
+                }
+                deadDepth = Integer.MAX_VALUE;
+                if (length >= states.length) {
+                    states = Arrays.copyOf(states, length + 1);
+                    previous = Arrays.copyOf(previous, length);
+                }
+                int depth = common;
+                while (depth < length) {
+                    char c = buffer.getChar(offset + 2 * depth);
+                    previous[depth] = c;
+                    states[depth + 1] = automaton.step(states[depth], c);
+                    depth++;
+                    if (!automaton.canMatch(states[depth])) {
+                        deadDepth = depth;
+                        break;
+                    }
+                }
+                computed = depth;
+                if (depth == length && deadDepth == Integer.MAX_VALUE && automaton.isAccepting(states[depth])) {
+                    action.accept(new String(previous, 0, length), automaton.distance(states[depth]));
+                }
+            }
+        }
+
+        /**
+         * Reads the completions cached for the prefix's range of the term
+         * table, and only ranks the terms itself when there are too few to
+         * be cached, or the file predates cached completions.
+         */
+        @Override
+        public List<SuffixTrie.Completion> complete(String prefix, int limit) {
+            int low = lowerBound(prefix);
+            int high = upperBound(prefix, low);
+            List<SuffixTrie.Completion> completions = new ArrayList<>();
+            int cached = cachedCompletions(low, high);
+            if (cached >= 0) {
+                int size = buffer.getInt(completionsOffset);
+                for (int i = 0; i < size && i < limit; i++) {
+                    int term = buffer.getInt(cached + 8 + 4 * i);
+                    completions.add(new SuffixTrie.Completion(term(term), docFrequency(term)));
+                }
+                return completions;
+            }
+            for (int i = low; i < high; i++) {
+                completions.add(new SuffixTrie.Completion(term(i), docFrequency(i)));
+            }
+            completions.sort(SuffixTrie.BY_FREQUENCY);
+            return completions.size() > limit ? new ArrayList<>(completions.subList(0, limit)) : completions;
+        }
+
+        /**
+         * @return Offset of the completions cached for a range of the term
+         * table, or -1 if it has none.
+         */
+        private int cachedCompletions(int low, int high) {
+            if (completionsOffset < 0) {
+                return -1;
+            }
+            int size = buffer.getInt(completionsOffset);
+            if (high - low <= size) {
+                return -1;
+            }
+            int entryBytes = 8 + 4 * size;
+            int first = completionsOffset + 8;
+            int lowEntry = 0;
+            int highEntry = buffer.getInt(completionsOffset + 4);
+            while (lowEntry < highEntry) {
+                int mid = (lowEntry + highEntry) >>> 1;
+                int entry = first + mid * entryBytes;
+                int start = buffer.getInt(entry);
+                int end = buffer.getInt(entry + 4);
+                if (start < low || start == low && end > high) {
+                    lowEntry = mid + 1;
+                } else {
+                    highEntry = mid;
+                }
+            }
+            int entry = first + lowEntry * entryBytes;
+            return lowEntry < buffer.getInt(completionsOffset + 4) && buffer.getInt(entry) == low
+                    && buffer.getInt(entry + 4) == high ? entry : -1;
+        }
+
+        @Override
+        public void forEachTerm(BiConsumer<String, PostingList> action) {
+            for (int i = 0; i < termCount; i++) {
+                action.accept(term(i), postings(i));
+            }
+        }
+
+        @Override
+        public void forEachDocFrequency(ObjIntConsumer<String> action) {
+            for (int i = 0; i < termCount; i++) {
+                action.accept(term(i), docFrequency(i));
+            }
+        }
+    }
+}
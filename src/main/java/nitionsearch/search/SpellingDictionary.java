@@ -0,0 +1,314 @@
+package nitionsearch.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Spelling corrections by symmetric deletes (SymSpell).
+ * <p>
+ * Every indexed term is stored under each string obtained by deleting up to
+ * {@link LevenshteinAutomaton#MAX_EDITS} characters from its first
+ * {@link #PREFIX_LENGTH} characters. Two words within that edit distance
+ * share at least one such delete, so a lookup only generates the deletes of
+ * the misspelled word and checks the terms stored under them: a few dozen
+ * hash probes however large the vocabulary is.
+ * <p>
+ * There are a few dozen deletes per term, so they are not kept as strings.
+ * An open-addressing table maps the hash of each delete to a chain of term
+ * ids in two parallel int arrays, about 24 bytes per delete. Terms of
+ * colliding deletes share a chain; that only adds candidates, and every
+ * candidate is compared with the word before it is suggested.
+ * <p>
+ * Pages are added and removed by one writer at a time. Lookups only take
+ * the read lock and run concurrently.
+ */
+public class SpellingDictionary {
+    /**
+     * Only the start of long terms gets deletes. Typos past it are still
+     * found, since the full words are compared before a term is suggested.
+     */
+    static final int PREFIX_LENGTH = 7;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private String[] terms = new String[INITIAL_CAPACITY];
+    // document frequency per term id, terms at zero are no longer suggested
+    private int[] frequencies = new int[INITIAL_CAPACITY];
+
+    // open addressing on the delete hash, slot heads point into the chains plus one
+    private int[] slotHashes = new int[INITIAL_CAPACITY];
+    private int[] slotHeads = new int[INITIAL_CAPACITY];
+    private int usedSlots;
+    private int[] chainTerms = new int[INITIAL_CAPACITY];
+    private int[] chainNext = new int[INITIAL_CAPACITY];
+    private int chainLength;
+
+    /**
+     * Counts one more page containing each of the terms.
+     * @param pageTerms Distinct terms of the page.
+     */
+    public void addAll(Collection<String> pageTerms) {
+        lock.writeLock().lock();
+        try {
+            for (String term : pageTerms) {
+                Integer termId = termIds.get(term);
+                if (termId == null) {
+                    termId = register(term);
+                }
+                frequencies[termId]++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts more pages containing a term, as when an index is opened.
+     * @param term Indexed term.
+     * @param pages Number of pages containing it.
+     */
+    public void add(String term, int pages) {
+        lock.writeLock().lock();
+        try {
+            Integer termId = termIds.get(term);
+            if (termId == null) {
+                termId = register(term);
+            }
+            frequencies[termId] += pages;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts one page less containing each of the terms.
+     * @param pageTerms Distinct terms of the page.
+     */
+    public void removeAll(Collection<String> pageTerms) {
+        lock.writeLock().lock();
+        try {
+            for (String term : pageTerms) {
+                Integer termId = termIds.get(term);
+                if (termId != null && frequencies[termId] > 0) {
+                    frequencies[termId]--;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of indexed pages containing the term.
+     */
+    public int getFrequency(String term) {
+        lock.readLock().lock();
+        try {
+            Integer termId = termIds.get(term);
+            return termId == null ? 0 : frequencies[termId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the indexed term closest to a word, allowing the number of edits
+     * {@link LevenshteinAutomaton#autoEdits(int)} picks for its length. Adjacent
+     * transpositions count as one edit.
+     * @param word Lower case word.
+     * @return The term with the fewest edits, the most frequent among those,
+     * or null if the word is indexed or no term is close enough.
+     */
+    public String correct(String word) {
+        int maxEdits = LevenshteinAutomaton.autoEdits(word.length());
+        if (maxEdits == 0) {
+            return null;
+        }
+        List<String> wordDeletes = deletes(word, maxEdits);
+        lock.readLock().lock();
+        try {
+            Integer wordId = termIds.get(word);
+            if (wordId != null && frequencies[wordId] > 0) {
+                return null;
+            }
+            String best = null;
+            int bestDistance = maxEdits + 1;
+            int bestFrequency = 0;
+            Set<Integer> checked = new HashSet<>();
+            for (String delete : wordDeletes) {
+                int hash = hash(delete);
+                int slot = findSlot(hash);
+                for (int entry = slotHeads[slot] - 1; entry >= 0; entry = chainNext[entry] - 1) {
+                    int termId = chainTerms[entry];
+                    String term = terms[termId];
+                    if (frequencies[termId] == 0 || Math.abs(term.length() - word.length()) > maxEdits
+                            || !checked.add(termId)) {
+                        continue;
+                    }
+                    int distance = distance(word, term, maxEdits);
+                    if (distance < bestDistance || (distance == bestDistance && frequencies[termId] > bestFrequency)) {
+                        best = term;
+                        bestDistance = distance;
+                        bestFrequency = frequencies[termId];
+                    }
+                }
+            }
+            return best;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of distinct terms ever added.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return termIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Approximate heap size of the delete table in bytes.
+     */
+    public long estimateBytes() {
+        lock.readLock().lock();
+        try {
+            return 8L * (slotHashes.length + chainTerms.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int register(String term) {
+        int termId = termIds.size();
+        termIds.put(term, termId);
+        if (termId == terms.length) {
+            terms = Arrays.copyOf(terms, termId * 2);
+            frequencies = Arrays.copyOf(frequencies, termId * 2);
+        }
+        terms[termId] = term;
+        for (String delete : deletes(term, LevenshteinAutomaton.MAX_EDITS)) {
+            int hash = hash(delete);
+            int slot = findSlot(hash);
+            if (slotHeads[slot] == 0) {
+                slotHashes[slot] = hash;
+                usedSlots++;
+            }
+            if (chainLength == chainTerms.length) {
+                chainTerms = Arrays.copyOf(chainTerms, chainLength * 2);
+                chainNext = Arrays.copyOf(chainNext, chainLength * 2);
+            }
+            chainTerms[chainLength] = termId;
+            chainNext[chainLength] = slotHeads[slot];
+            slotHeads[slot] = ++chainLength;
+            if (usedSlots * 2 > slotHashes.length) {
+                rehash();
+            }
+        }
+        return termId;
+    }
+
+    /**
+     * @return The slot holding the hash, or the empty slot where it belongs.
+     */
+    private int findSlot(int hash) {
+        int mask = slotHashes.length - 1;
+        int slot = hash & mask;
+        while (slotHeads[slot] != 0 && slotHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldHashes = slotHashes;
+        int[] oldHeads = slotHeads;
+        slotHashes = new int[oldHashes.length * 2];
+        slotHeads = new int[oldHeads.length * 2];
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHeads[i] != 0) {
+                int slot = findSlot(oldHashes[i]);
+                slotHashes[slot] = oldHashes[i];
+                slotHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    private static int hash(String delete) {
+        // spread the bits, String hashes of short strings cluster
+        int hash = delete.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return The start of the word and every string obtained from it by
+     * deleting up to {@code maxEdits} characters.
+     */
+    static List<String> deletes(String word, int maxEdits) {
+        String prefix = word.length() > PREFIX_LENGTH ? word.substring(0, PREFIX_LENGTH) : word;
+        Set<String> result = new HashSet<>();
+        result.add(prefix);
+        List<String> level = new ArrayList<>(result);
+        for (int edits = 0; edits < maxEdits; edits++) {
+            List<String> next = new ArrayList<>();
+            for (String candidate : level) {
+                for (int i = 0; i < candidate.length(); i++) {
+                    String delete = candidate.substring(0, i) + candidate.substring(i + 1);
+                    if (result.add(delete)) {
+                        next.add(delete);
+                    }
+                }
+            }
+            level = next;
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Optimal string alignment distance: Levenshtein plus swaps of adjacent
+     * characters.
+     * @return The distance, or {@code max + 1} if it is larger than {@code max}.
+     */
+    static int distance(String a, String b, int max) {
+        int[] previousRow = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            current[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int[] recycled = previousRow;
+            previousRow = row;
+            row = current;
+            current = recycled;
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(row[j - 1] + cost, Math.min(row[j], current[j - 1]) + 1);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previousRow[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+        }
+        return Math.min(current[b.length()], max + 1);
+    }
+}
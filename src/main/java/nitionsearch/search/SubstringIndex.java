@@ -0,0 +1,233 @@
+package nitionsearch.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Suffix array over the vocabulary of a segment, answering which terms
+ * contain a given substring.
+ * <p>
+ * All terms are concatenated into one text, each followed by a separator.
+ * The suffix array lists the start of every suffix in sorted order, where
+ * a suffix ends at the next separator, so the suffixes beginning with a
+ * pattern form one contiguous range found by binary search in
+ * O(|pattern| log n). Every suffix in the range is an occurrence inside one
+ * term, found by a binary search over the term starts.
+ * <p>
+ * Indexing the vocabulary rather than the page text keeps the array small:
+ * each distinct term is stored once however many pages contain it, and the
+ * matching terms are then resolved through their postings as usual.
+ */
+public class SubstringIndex {
+    private static final char SEPARATOR = '\0';
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final String[] terms;
+    private final int[] termStarts;
+    private final char[] text;
+    private final int[] suffixes;
+
+    private SubstringIndex(String[] terms, int[] termStarts, char[] text, int[] suffixes) {
+        this.terms = terms;
+        this.termStarts = termStarts;
+        this.text = text;
+        this.suffixes = suffixes;
+    }
+
+    /**
+     * @param vocabulary Terms of a segment.
+     * @return The index over all of its terms.
+     */
+    public static SubstringIndex build(TermDictionary vocabulary) {
+        List<String> termList = new ArrayList<>();
+        vocabulary.forEachTerm((term, postings) -> termList.add(term));
+        String[] terms = termList.toArray(new String[0]);
+
+        int[] termStarts = new int[terms.length];
+        int length = 0;
+        for (int i = 0; i < terms.length; i++) {
+            termStarts[i] = length;
+            length += terms[i].length() + 1;
+        }
+        char[] text = new char[length];
+        int suffixCount = 0;
+        for (int i = 0; i < terms.length; i++) {
+            terms[i].getChars(0, terms[i].length(), text, termStarts[i]);
+            text[termStarts[i] + terms[i].length()] = SEPARATOR;
+            suffixCount += terms[i].length();
+        }
+
+        int[] suffixes = new int[suffixCount];
+        int next = 0;
+        for (int i = 0; i < terms.length; i++) {
+            for (int offset = 0; offset < terms[i].length(); offset++) {
+                suffixes[next++] = termStarts[i] + offset;
+            }
+        }
+        SubstringIndex index = new SubstringIndex(terms, termStarts, text, suffixes);
+        index.sort(0, suffixCount, 0);
+        return index;
+    }
+
+    /**
+     * @param pattern Substring to look for, without separators.
+     * @param limit Maximum number of terms to return.
+     * @return Up to {@code limit} terms containing the pattern, the first ones
+     * in lexicographic order.
+     */
+    public List<String> termsContaining(String pattern, int limit) {
+        if (pattern.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int from = lowerBound(pattern);
+        int to = upperBound(pattern, from);
+        int[] termIds = new int[to - from];
+        for (int i = from; i < to; i++) {
+            termIds[i - from] = termId(suffixes[i]);
+        }
+        Arrays.sort(termIds);
+
+        List<String> matches = new ArrayList<>();
+        for (int i = 0; i < termIds.length && matches.size() < limit; i++) {
+            // a term containing the pattern twice shows up twice
+            if (i == 0 || termIds[i] != termIds[i - 1]) {
+                matches.add(terms[termIds[i]]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return Number of indexed terms.
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * @return Approximate heap size of the text and the two int arrays in bytes.
+     */
+    public long estimateBytes() {
+        return 2L * text.length + 4L * suffixes.length + 4L * termStarts.length;
+    }
+
+    private int termId(int position) {
+        int index = Arrays.binarySearch(termStarts, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @return First suffix not smaller than the pattern.
+     */
+    private int lowerBound(String pattern) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(suffixes[mid], pattern) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return First suffix after {@code from} that does not start with the pattern.
+     */
+    private int upperBound(String pattern, int from) {
+        int low = from;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(suffixes[mid], pattern) == 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares a suffix against a pattern, treating the suffix as equal if
+     * it starts with the pattern.
+     */
+    private int compare(int suffix, String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            int c = charAt(suffix, i);
+            if (c != pattern.charAt(i)) {
+                return c < pattern.charAt(i) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The character at the given depth of a suffix, or -1 past its end.
+     */
+    private int charAt(int suffix, int depth) {
+        char c = text[suffix + depth];
+        return c == SEPARATOR ? -1 : c;
+    }
+
+    /**
+     * Three-way radix quicksort of the suffixes in {@code [from, to)} that
+     * share their first {@code depth} characters.
+     */
+    private void sort(int from, int to, int depth) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int pivot = charAt(suffixes[(from + to) >>> 1], depth);
+            int less = from;
+            int greater = to - 1;
+            int i = from;
+            while (i <= greater) {
+                int c = charAt(suffixes[i], depth);
+                if (c < pivot) {
+                    swap(less++, i++);
+                } else if (c > pivot) {
+                    swap(i, greater--);
+                } else {
+                    i++;
+                }
+            }
+            sort(from, less, depth);
+            sort(greater + 1, to, depth);
+            if (pivot < 0) {
+                // suffixes ending here are equal, their order does not matter
+                return;
+            }
+            from = less;
+            to = greater + 1;
+            depth++;
+        }
+        insertionSort(from, to, depth);
+    }
+
+    private void insertionSort(int from, int to, int depth) {
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compareSuffixes(suffixes[j], suffixes[j - 1], depth) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private int compareSuffixes(int a, int b, int depth) {
+        while (true) {
+            int ca = charAt(a, depth);
+            int cb = charAt(b, depth);
+            if (ca != cb || ca < 0) {
+                return Integer.compare(ca, cb);
+            }
+            depth++;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int suffix = suffixes[i];
+        suffixes[i] = suffixes[j];
+        suffixes[j] = suffix;
+    }
+}
@@ -1,47 +1,308 @@
 package nitionsearch.search;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
 
-import java.util.*;
+public class SuffixTrie implements TermDictionary {
+    static final Comparator<Completion> BY_FREQUENCY =
+            Comparator.comparingInt((Completion completion) -> -completion.docFrequency)
+                    .thenComparing(completion -> completion.term);
 
-public class SuffixTrie {
     private TrieNode root = new TrieNode();
 
-    public void insert(String word, UUID pageId, int position) {
+    public void insert(String word, int docId, int position) {
+        findOrCreate(word.toCharArray(), 0, word.length()).addOccurrence(docId, position);
+    }
+
+    /**
+     * Adds an occurrence of a term held in a char array, without creating a
+     * string for it.
+     * @param buffer Array holding the term.
+     * @param start Offset of the term.
+     * @param length Length of the term.
+     * @param docId Ordinal of the document.
+     * @param position Position of the term within the document.
+     * @return True if this is the first occurrence of the term in the document.
+     */
+    public boolean insert(char[] buffer, int start, int length, int docId, int position) {
+        return findOrCreate(buffer, start, length).addOccurrence(docId, position);
+    }
+
+    /**
+     * Stores the postings of a term, replacing any it had before.
+     * @param term Term to store.
+     * @param postings Postings of the term.
+     */
+    public void put(String term, PostingList postings) {
+        findOrCreate(term.toCharArray(), 0, term.length()).setPostings(postings);
+    }
+
+    private TrieNode findOrCreate(char[] word, int start, int wordLength) {
         TrieNode currentNode = root;
-        for (char letter : word.toCharArray()) {
-            currentNode = currentNode.getChildren().computeIfAbsent(letter, c -> new TrieNode());
+        int length = start + wordLength;
+        int i = start;
+        while (i < length) {
+            TrieNode child = currentNode.getChild(word[i]);
+            if (child == null) {
+                child = new TrieNode(Arrays.copyOfRange(word, i, length));
+                currentNode.addChild(child);
+                currentNode = child;
+                break;
+            }
+            char[] label = child.getLabel();
+            int matched = 0;
+            while (matched < label.length && i < length && label[matched] == word[i]) {
+                matched++;
+                i++;
+            }
+            if (matched < label.length) {
+                child.split(matched);
+            }
+            currentNode = child;
         }
-        currentNode.addOccurrence(pageId, position);
+        return currentNode;
     }
 
-    public Map<UUID, List<Integer>> search(String term) {
+    @Override
+    public PostingList search(String term) {
         TrieNode currentNode = root;
-        for (char letter : term.toCharArray()) {
-            currentNode = currentNode.getChildren().get(letter);
+        int length = term.length();
+        int i = 0;
+        while (i < length) {
+            currentNode = currentNode.getChild(term.charAt(i));
             if (currentNode == null) {
-                return Collections.emptyMap();
+                return PostingList.EMPTY;
+            }
+            for (char letter : currentNode.getLabel()) {
+                if (i == length || term.charAt(i) != letter) {
+                    return PostingList.EMPTY;
+                }
+                i++;
             }
         }
-        return currentNode.getOccurrences();
+        PostingList postings = currentNode.getPostings();
+        return postings == null ? PostingList.EMPTY : postings;
+    }
+
+    @Override
+    public List<String> expand(String prefix, int limit) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        TrieNode node = locate(prefix, word);
+        if (node != null) {
+            expand(node, word, limit, terms);
+        }
+        return terms;
+    }
+
+    @Override
+    public List<String> scanContaining(String pattern, int limit) {
+        List<String> terms = new ArrayList<>();
+        forEachTerm((term, postings) -> {
+            if (terms.size() < limit && term.contains(pattern)) {
+                terms.add(term);
+            }
+        });
+        return terms;
+    }
+
+    /**
+     * Only the nodes reachable within the edit distance of the automaton are
+     * walked.
+     */
+    @Override
+    public void forEachFuzzyMatch(LevenshteinAutomaton automaton, ObjIntConsumer<String> action) {
+        forEachFuzzyMatch(root, automaton.start(), automaton, new StringBuilder(), action);
+    }
+
+    private void forEachFuzzyMatch(TrieNode node, int[] state, LevenshteinAutomaton automaton,
+                                   StringBuilder word, ObjIntConsumer<String> action) {
+        int length = word.length();
+        for (char letter : node.getLabel()) {
+            state = automaton.step(state, letter);
+            if (!automaton.canMatch(state)) {
+                word.setLength(length);
+                return;
+            }
+            word.append(letter);
+        }
+        if (node.getPostings() != null && automaton.isAccepting(state)) {
+            action.accept(word.toString(), automaton.distance(state));
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            forEachFuzzyMatch(node.getChildAt(i), state, automaton, word, action);
+        }
+        word.setLength(length);
+    }
+
+    private void expand(TrieNode node, StringBuilder word, int limit, List<String> terms) {
+        int length = word.length();
+        word.append(node.getLabel());
+        if (node.getPostings() != null) {
+            terms.add(word.toString());
+        }
+        for (int i = 0; i < node.getChildCount() && terms.size() < limit; i++) {
+            expand(node.getChildAt(i), word, limit, terms);
+        }
+        word.setLength(length);
+    }
+
+    /**
+     * Finds the node where the terms starting with a prefix begin. The
+     * prefix may end inside the label of that node.
+     * @param prefix Prefix to look up.
+     * @param word Receives the characters before the label of the node.
+     * @return The node, or null if no term starts with the prefix.
+     */
+    private TrieNode locate(String prefix, StringBuilder word) {
+        TrieNode currentNode = root;
+        int length = prefix.length();
+        int labelStart = 0;
+        int i = 0;
+        while (i < length) {
+            TrieNode child = currentNode.getChild(prefix.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            labelStart = i;
+            for (char letter : child.getLabel()) {
+                if (i == length) {
+                    break;
+                }
+                if (prefix.charAt(i) != letter) {
+                    return null;
+                }
+                i++;
+            }
+            currentNode = child;
+        }
+        word.setLength(0);
+        word.append(prefix, 0, labelStart);
+        return currentNode;
+    }
+
+    /**
+     * Returns the most frequent terms starting with a prefix.
+     * @param prefix Prefix typed so far.
+     * @param limit Maximum number of completions, at most the size the
+     *              completions were cached with.
+     * @return Completions ordered by descending document frequency.
+     */
+    @Override
+    public List<Completion> complete(String prefix, int limit) {
+        StringBuilder word = new StringBuilder();
+        TrieNode node = locate(prefix, word);
+        if (node == null) {
+            return new ArrayList<>();
+        }
+        List<Completion> completions = new ArrayList<>();
+        if (node.getCompletions() != null) {
+            for (Completion completion : node.getCompletions()) {
+                completions.add(completion);
+            }
+        } else {
+            collect(node, word, completions);
+            completions.sort(BY_FREQUENCY);
+        }
+        return completions.size() > limit ? new ArrayList<>(completions.subList(0, limit)) : completions;
+    }
+
+    /**
+     * Caches the {@code size} most frequent terms on every node with more
+     * terms than that below it, so completions never walk a large subtree.
+     * Smaller subtrees are walked on demand. Must be called again after the
+     * trie changes.
+     */
+    public void cacheCompletions(int size) {
+        cacheCompletions(root, new StringBuilder(), size);
+    }
+
+    private List<Completion> cacheCompletions(TrieNode node, StringBuilder word, int size) {
+        int length = word.length();
+        word.append(node.getLabel());
+        List<Completion> candidates = new ArrayList<>();
+        if (node.getPostings() != null) {
+            candidates.add(new Completion(word.toString(), node.getPostings().size()));
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            candidates.addAll(cacheCompletions(node.getChildAt(i), word, size));
+        }
+        word.setLength(length);
+
+        candidates.sort(BY_FREQUENCY);
+        if (candidates.size() > size) {
+            candidates = candidates.subList(0, size);
+            node.setCompletions(candidates.toArray(new Completion[0]));
+        } else {
+            node.setCompletions(null);
+        }
+        return candidates;
+    }
+
+    private void collect(TrieNode node, StringBuilder word, List<Completion> completions) {
+        int length = word.length();
+        word.append(node.getLabel());
+        if (node.getPostings() != null) {
+            completions.add(new Completion(word.toString(), node.getPostings().size()));
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collect(node.getChildAt(i), word, completions);
+        }
+        word.setLength(length);
+    }
+
+    @Override
+    public void forEachDocFrequency(ObjIntConsumer<String> action) {
+        forEachTerm((term, postings) -> action.accept(term, postings.size()));
+    }
+
+    @Override
+    public void forEachTerm(BiConsumer<String, PostingList> action) {
+        forEachTerm(root, new StringBuilder(), action);
+    }
+
+    private void forEachTerm(TrieNode node, StringBuilder currentWord, BiConsumer<String, PostingList> action) {
+        int length = currentWord.length();
+        currentWord.append(node.getLabel());
+        if (node.getPostings() != null) {
+            action.accept(currentWord.toString(), node.getPostings());
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            forEachTerm(node.getChildAt(i), currentWord, action);
+        }
+        currentWord.setLength(length);
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        toStringHelper(root, new StringBuilder(), builder);
+        forEachTerm((term, postings) -> builder.append(term).append(": ").append(postings).append("\n"));
         return builder.toString();
     }
 
-    private void toStringHelper(TrieNode node, StringBuilder currentWord, StringBuilder result) {
-        if (node.getOccurrences() != null && !node.getOccurrences().isEmpty()) {
-            result.append(currentWord).append(": ").append(node.getOccurrences()).append("\n");
+    /**
+     * A term with the number of documents containing it.
+     */
+    public static final class Completion {
+        private final String term;
+        private final int docFrequency;
+
+        public Completion(String term, int docFrequency) {
+            this.term = term;
+            this.docFrequency = docFrequency;
         }
 
-        for (Map.Entry<Character, TrieNode> entry : node.getChildren().entrySet()) {
-            currentWord.append(Character.toLowerCase(entry.getKey()));
-            toStringHelper(entry.getValue(), currentWord, result);
-            currentWord.deleteCharAt(currentWord.length() - 1);
+        public String getTerm() {
+            return term;
         }
-    }
 
+        public int getDocFrequency() {
+            return docFrequency;
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package nitionsearch.search;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Terms of a segment with their postings. Buffered and freshly merged
+ * segments keep them in a {@link SuffixTrie}; segments opened from disk
+ * read them from the sorted term table of their {@link SegmentFile}.
+ */
+public interface TermDictionary {
+    /**
+     * @return Postings of the term, empty if it does not occur.
+     */
+    PostingList search(String term);
+
+    /**
+     * Lists the terms starting with a prefix in lexicographic order.
+     * @param prefix Prefix to expand.
+     * @param limit Maximum number of terms to return.
+     * @return Up to {@code limit} terms, the first ones in lexicographic order.
+     */
+    List<String> expand(String prefix, int limit);
+
+    /**
+     * Lists the terms containing a substring by visiting every term.
+     * @see SubstringIndex#termsContaining(String, int)
+     */
+    List<String> scanContaining(String pattern, int limit);
+
+    /**
+     * Visits the terms accepted by a Levenshtein automaton in lexicographic
+     * order.
+     * @param automaton Automaton of the misspelled term.
+     * @param action Receives each accepted term with its edit distance.
+     */
+    void forEachFuzzyMatch(LevenshteinAutomaton automaton, ObjIntConsumer<String> action);
+
+    /**
+     * Returns the most frequent terms starting with a prefix.
+     * @return Completions ordered by descending document frequency.
+     */
+    List<SuffixTrie.Completion> complete(String prefix, int limit);
+
+    /**
+     * Visits every term with its postings in lexicographic order.
+     */
+    void forEachTerm(BiConsumer<String, PostingList> action);
+
+    /**
+     * Visits every term with its document frequency, which unlike
+     * {@link #forEachTerm(BiConsumer)} does not need to decode postings.
+     */
+    void forEachDocFrequency(ObjIntConsumer<String> action);
+}
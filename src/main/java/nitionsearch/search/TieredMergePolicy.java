@@ -0,0 +1,70 @@
+package nitionsearch.search;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Picks segments to merge.
+ * <p>
+ * Segments are grouped into tiers by size, each tier
+ * {@link #SEGMENTS_PER_TIER} times larger than the one below. Once that many
+ * adjacent segments share a tier they are merged into one segment of the
+ * next tier, so every page is rewritten about once per tier and the number
+ * of segments grows with the logarithm of the index size. Only adjacent
+ * segments are merged, which keeps the ordinal ranges contiguous. A segment
+ * that is mostly tombstones is merged on its own to reclaim the space.
+ */
+public class TieredMergePolicy {
+    static final int SEGMENTS_PER_TIER = 10;
+    static final double MAX_DELETED_RATIO = 0.5;
+
+    private final int floorSize;
+
+    /**
+     * @param floorSize Segments up to this many pages share the lowest tier.
+     */
+    public TieredMergePolicy(int floorSize) {
+        this.floorSize = floorSize;
+    }
+
+    /**
+     * @param segments Segments of the current snapshot in ordinal order.
+     * @param merging Doc bases of the segments already being merged.
+     * @return Adjacent segments to merge next, or an empty list.
+     */
+    public List<Segment> findMerge(List<Segment> segments, Set<Integer> merging) {
+        int runStart = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (merging.contains(segment.getDocBase())) {
+                runStart = i + 1;
+                continue;
+            }
+            if (tier(segment) != tier(segments.get(runStart))) {
+                runStart = i;
+            }
+            if (i - runStart + 1 == SEGMENTS_PER_TIER) {
+                return segments.subList(runStart, i + 1);
+            }
+        }
+        for (Segment segment : segments) {
+            int deleted = segment.getDeletedCount();
+            if (!merging.contains(segment.getDocBase()) && deleted > 0
+                    && deleted > MAX_DELETED_RATIO * (deleted + segment.getLiveDocCount())) {
+                return Collections.singletonList(segment);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private int tier(Segment segment) {
+        int tier = 0;
+        long bound = floorSize;
+        while (segment.getLiveDocCount() > bound) {
+            bound *= SEGMENTS_PER_TIER;
+            tier++;
+        }
+        return tier;
+    }
+}
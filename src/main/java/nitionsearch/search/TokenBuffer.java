@@ -0,0 +1,110 @@
+package nitionsearch.search;
+
+import java.util.Arrays;
+
+/**
+ * Tokens of one analyzed text, stored back to back in a single char array.
+ * <p>
+ * A buffer is meant to be reused: {@link Analyzer#analyze(CharSequence, TokenBuffer)}
+ * clears it and the arrays only grow, so analyzing page after page into the
+ * same buffer allocates nothing once it has reached the size of the largest
+ * page.
+ */
+public final class TokenBuffer {
+    private char[] text = new char[256];
+    private char[] chars = new char[256];
+    private int charCount;
+    private int[] starts = new int[32];
+    private int[] lengths = new int[32];
+    private int[] positions = new int[32];
+    private int size;
+
+    public void clear() {
+        charCount = 0;
+        size = 0;
+    }
+
+    /**
+     * @return Number of tokens.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The shared char array holding all tokens.
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    public int getStart(int token) {
+        return starts[token];
+    }
+
+    public int getLength(int token) {
+        return lengths[token];
+    }
+
+    /**
+     * @return Position of the token in the text. Removed words leave gaps.
+     */
+    public int getPosition(int token) {
+        return positions[token];
+    }
+
+    /**
+     * @return The token as a string. Allocates, unlike the other accessors.
+     */
+    public String term(int token) {
+        return new String(chars, starts[token], lengths[token]);
+    }
+
+    /**
+     * Copies the text to analyze into a reusable array, which is scanned
+     * much faster than through {@link CharSequence#charAt(int)}.
+     * @return Array holding the text from index 0.
+     */
+    char[] text(CharSequence source) {
+        int length = source.length();
+        if (length > text.length) {
+            text = new char[Math.max(text.length * 2, length)];
+        }
+        if (source instanceof String) {
+            ((String) source).getChars(0, length, text, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                text[i] = source.charAt(i);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Makes room for a token of up to {@code length} characters after the
+     * last token.
+     * @return Offset in {@link #chars()} where the token goes.
+     */
+    int reserve(int length) {
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        return charCount;
+    }
+
+    /**
+     * Adds the token written at the offset returned by {@link #reserve(int)}.
+     */
+    void commit(int length, int position) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        starts[size] = charCount;
+        lengths[size] = length;
+        positions[size] = position;
+        charCount += length;
+        size++;
+    }
+}
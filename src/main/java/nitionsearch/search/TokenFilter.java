@@ -0,0 +1,24 @@
+package nitionsearch.search;
+
+/**
+ * One step of an {@link Analyzer} chain, rewriting a token in place.
+ * @see TokenFilters
+ */
+public interface TokenFilter {
+    /**
+     * @param buffer Array holding the token.
+     * @param start Offset of the token.
+     * @param length Length of the token.
+     * @return New length of the token, which may only shrink, or 0 to remove
+     * the word. A removed word keeps its position, so phrases stay aligned.
+     */
+    int filter(char[] buffer, int start, int length);
+
+    /**
+     * @return True if the filter only normalizes characters, so it also
+     * applies to the stem of wildcard and fuzzy query terms.
+     */
+    default boolean isNormalizer() {
+        return false;
+    }
+}
@@ -0,0 +1,213 @@
+package nitionsearch.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The token filters the default {@link Analyzer} chains are built from.
+ */
+public final class TokenFilters {
+    /**
+     * The usual English stop words.
+     */
+    public static final Collection<String> ENGLISH_STOP_WORDS = Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it",
+            "no", "not", "of", "on", "or", "such", "that", "the", "their", "then", "there", "these",
+            "they", "this", "to", "was", "will", "with");
+
+    private TokenFilters() {
+    }
+
+    public static TokenFilter lowerCase() {
+        return new LowerCaseFilter();
+    }
+
+    /**
+     * Strips punctuation from both ends of a token, so {@code engine,} and
+     * {@code (engine)} index as {@code engine}. Inner punctuation as in
+     * {@code e-mail} or {@code 3.5} is kept.
+     */
+    public static TokenFilter punctuation() {
+        return new PunctuationFilter();
+    }
+
+    /**
+     * @param stopWords Lower case words to remove.
+     */
+    public static TokenFilter stopWords(Collection<String> stopWords) {
+        return new StopFilter(stopWords);
+    }
+
+    /**
+     * Reduces English plurals to their singular: {@code queries} to
+     * {@code query}, {@code engines} to {@code engine}, {@code ties} to
+     * {@code tie}. Deliberately light: words under four letters and endings
+     * that are rarely plurals ({@code -ss}, {@code -us}, {@code -is},
+     * {@code -ws}, {@code -as}) are kept, as are a few words like
+     * {@code lens} and {@code series}. It works without a dictionary, so it
+     * still gets some words wrong: {@code always} becomes {@code alway}, and
+     * plurals such as {@code ideas} or {@code laws} are not reduced.
+     */
+    public static TokenFilter minimalEnglishStem() {
+        return new MinimalStemFilter();
+    }
+
+    /**
+     * {@link Character#isLetterOrDigit(char)} with a shortcut for ASCII.
+     */
+    static boolean isLetterOrDigit(char c) {
+        if (c < '\u0080') {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+        }
+        return Character.isLetterOrDigit(c);
+    }
+
+    private static final class LowerCaseFilter implements TokenFilter {
+        @Override
+        public int filter(char[] buffer, int start, int length) {
+            for (int i = start; i < start + length; i++) {
+                char c = buffer[i];
+                if (c >= 'A' && c <= 'Z') {
+                    buffer[i] = (char) (c + ('a' - 'A'));
+                } else if (c >= '\u0080') {
+                    buffer[i] = Character.toLowerCase(c);
+                }
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isNormalizer() {
+            return true;
+        }
+    }
+
+    private static final class PunctuationFilter implements TokenFilter {
+        @Override
+        public int filter(char[] buffer, int start, int length) {
+            int end = start + length;
+            while (end > start && !isLetterOrDigit(buffer[end - 1])) {
+                end--;
+            }
+            int first = start;
+            while (first < end && !isLetterOrDigit(buffer[first])) {
+                first++;
+            }
+            if (first > start) {
+                System.arraycopy(buffer, first, buffer, start, end - first);
+            }
+            return end - first;
+        }
+
+        @Override
+        public boolean isNormalizer() {
+            return true;
+        }
+    }
+
+    /**
+     * Looks the token up in an open-addressing table of char arrays, so no
+     * string is created per token.
+     */
+    private static final class StopFilter implements TokenFilter {
+        private final char[][] table;
+        // stop words are short, longer tokens skip the lookup
+        private int maxLength;
+
+        StopFilter(Collection<String> stopWords) {
+            table = new char[Integer.highestOneBit(Math.max(1, stopWords.size()) * 4)][];
+            for (String word : stopWords) {
+                char[] chars = word.toCharArray();
+                maxLength = Math.max(maxLength, chars.length);
+                int slot = slot(chars, 0, chars.length);
+                if (table[slot] == null) {
+                    table[slot] = chars;
+                }
+            }
+        }
+
+        @Override
+        public int filter(char[] buffer, int start, int length) {
+            if (length > maxLength) {
+                return length;
+            }
+            return table[slot(buffer, start, length)] == null ? length : 0;
+        }
+
+        /**
+         * @return The slot holding the word, or the empty slot where it belongs.
+         */
+        private int slot(char[] buffer, int start, int length) {
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            int mask = table.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != null && !equals(table[slot], buffer, start, length)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static boolean equals(char[] word, char[] buffer, int start, int length) {
+            if (word.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (word[i] != buffer[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class MinimalStemFilter implements TokenFilter {
+        // end in s without being plurals, and match no rule below
+        private static final char[][] INVARIANT = {
+                "lens".toCharArray(), "means".toCharArray(), "series".toCharArray(), "species".toCharArray()};
+
+        @Override
+        public int filter(char[] buffer, int start, int length) {
+            if (length < 4 || buffer[start + length - 1] != 's') {
+                // gas, yes
+                return length;
+            }
+            char beforeS = buffer[start + length - 2];
+            if (beforeS == 'u' || beforeS == 's' || beforeS == 'i' || beforeS == 'w' || beforeS == 'a') {
+                // status, class, analysis, news, canvas
+                return length;
+            }
+            if (isInvariant(buffer, start, length)) {
+                return length;
+            }
+            if (beforeS == 'e') {
+                char beforeE = buffer[start + length - 3];
+                if (length == 4 && beforeE == 'i') {
+                    // ties -> tie
+                    return length - 1;
+                }
+                if (beforeE == 'i' && buffer[start + length - 4] != 'a' && buffer[start + length - 4] != 'e') {
+                    // queries -> query
+                    buffer[start + length - 3] = 'y';
+                    return length - 2;
+                }
+                if (beforeE == 'i' || beforeE == 'a' || beforeE == 'o' || beforeE == 'e') {
+                    // shoes, trees stay as they are
+                    return length;
+                }
+            }
+            return length - 1;
+        }
+
+        private static boolean isInvariant(char[] buffer, int start, int length) {
+            for (char[] word : INVARIANT) {
+                if (word.length == length && Arrays.equals(word, 0, length, buffer, start, start + length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
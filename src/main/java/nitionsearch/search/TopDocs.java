@@ -0,0 +1,60 @@
+package nitionsearch.search;
+
+/**
+ * Best scoring pages of a query, as document ordinals in rank order.
+ */
+public class TopDocs {
+    public static final TopDocs EMPTY = new TopDocs(new int[0], new float[0], 0, true);
+
+    private final int[] docIds;
+    private final float[] scores;
+    private final int totalHits;
+    private final boolean totalHitsExact;
+
+    public TopDocs(int[] docIds, float[] scores, int totalHits, boolean totalHitsExact) {
+        this.docIds = docIds;
+        this.scores = scores;
+        this.totalHits = totalHits;
+        this.totalHitsExact = totalHitsExact;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public int getDocId(int rank) {
+        return docIds[rank];
+    }
+
+    public float getScore(int rank) {
+        return scores[rank];
+    }
+
+    /**
+     * @return Number of matching pages, a lower bound when
+     * {@link #isTotalHitsExact()} is false.
+     */
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public boolean isTotalHitsExact() {
+        return totalHitsExact;
+    }
+
+    /**
+     * @return Approximate heap size in bytes.
+     */
+    public long estimateBytes() {
+        // object header and fields, plus the two arrays with their headers
+        return 32 + 2 * (16 + 4L * docIds.length);
+    }
+
+    /**
+     * @param count Number of top hits needed.
+     * @return Whether these top docs hold the first {@code count} hits.
+     */
+    public boolean covers(int count) {
+        return docIds.length >= count || (totalHitsExact && docIds.length == totalHits);
+    }
+}
@@ -0,0 +1,161 @@
+package nitionsearch.search;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the {@code k} best scoring pages in a binary min-heap.
+ * <p>
+ * Pages are expected in ascending ordinal order. On equal scores the page
+ * collected first ranks higher, so a later page needs a strictly greater
+ * score than {@link #minCompetitiveScore()} to get in.
+ */
+public class TopKCollector {
+    private final int[] docIds;
+    private final float[] scores;
+    private int size;
+    private int totalHits;
+    private boolean totalHitsExact = true;
+    // only pages ranking after this position are collected, if set
+    private SearchCursor after;
+
+    public TopKCollector(int k) {
+        docIds = new int[k];
+        scores = new float[k];
+    }
+
+    /**
+     * Starts from the top docs of an earlier search over lower ordinals, as
+     * if their pages had been collected already.
+     */
+    public TopKCollector(int k, TopDocs previous) {
+        this(k);
+        // ranks sorted by ordinal, which decides ties, so collect in that order
+        long[] byDocId = new long[previous.size()];
+        for (int rank = 0; rank < byDocId.length; rank++) {
+            byDocId[rank] = (long) previous.getDocId(rank) << 32 | rank;
+        }
+        Arrays.sort(byDocId);
+        for (long entry : byDocId) {
+            int rank = (int) entry;
+            collect(previous.getDocId(rank), previous.getScore(rank));
+        }
+        totalHits = previous.getTotalHits();
+        totalHitsExact = previous.isTotalHitsExact();
+    }
+
+    /**
+     * Collects only the pages ranking after a position, as for the page of
+     * results following it.
+     */
+    TopKCollector(int k, SearchCursor after) {
+        this(k);
+        this.after = after;
+    }
+
+    public void collect(int docId, float score) {
+        if (after != null && !after.isBefore(score, docId)) {
+            return;
+        }
+        if (size < docIds.length) {
+            docIds[size] = docId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && score > scores[0]) {
+            docIds[0] = docId;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return Score a page has to beat to be collected.
+     */
+    public float minCompetitiveScore() {
+        return size < docIds.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public boolean isFull() {
+        return size == docIds.length;
+    }
+
+    public void countHit() {
+        totalHits++;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Records that matching pages were skipped without being counted.
+     */
+    public void markTotalHitsInexact() {
+        totalHitsExact = false;
+    }
+
+    /**
+     * @return Collected pages, best first.
+     */
+    public TopDocs topDocs() {
+        int[] sortedDocs = new int[size];
+        float[] sortedScores = new float[size];
+        int[] heapDocs = docIds.clone();
+        float[] heapScores = scores.clone();
+        int heapSize = size;
+        // pop the weakest page until the heap is empty, filling from the back
+        for (int i = size - 1; i >= 0; i--) {
+            sortedDocs[i] = heapDocs[0];
+            sortedScores[i] = heapScores[0];
+            heapSize--;
+            heapDocs[0] = heapDocs[heapSize];
+            heapScores[0] = heapScores[heapSize];
+            siftDown(heapDocs, heapScores, heapSize, 0);
+        }
+        return new TopDocs(sortedDocs, sortedScores, totalHits, totalHitsExact);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isWorse(docIds, scores, index, parent)) {
+                break;
+            }
+            swap(docIds, scores, index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        siftDown(docIds, scores, size, index);
+    }
+
+    private static void siftDown(int[] docIds, float[] scores, int size, int index) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && isWorse(docIds, scores, child + 1, child)) {
+                child++;
+            }
+            if (!isWorse(docIds, scores, child, index)) {
+                return;
+            }
+            swap(docIds, scores, index, child);
+            index = child;
+        }
+    }
+
+    private static boolean isWorse(int[] docIds, float[] scores, int a, int b) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && docIds[a] > docIds[b]);
+    }
+
+    private static void swap(int[] docIds, float[] scores, int a, int b) {
+        int docId = docIds[a];
+        docIds[a] = docIds[b];
+        docIds[b] = docId;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -1,25 +1,117 @@
 package nitionsearch.search;
 
-import java.util.*;
+import java.util.Arrays;
 
+/**
+ * Node of the compressed (radix) term trie.
+ * <p>
+ * Each node carries the label of the edge leading into it, so chains of
+ * single-child nodes collapse into one node. Children are kept in a sorted
+ * {@code char[]} of first label characters with a parallel child array, and
+ * the postings are only allocated for nodes where a term ends.
+ */
 public class TrieNode {
+    private static final char[] NO_KEYS = new char[0];
+    private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
 
+    private char[] label;
+    private char[] keys = NO_KEYS;
+    private TrieNode[] children = NO_CHILDREN;
+    private PostingList postings;
+    private SuffixTrie.Completion[] completions;
 
-    private Map<Character, TrieNode> children = new HashMap<>();
-    private Map<UUID, List<Integer>> occurrences = new HashMap<>();
+    public TrieNode() {
+        this(NO_KEYS);
+    }
 
+    public TrieNode(char[] label) {
+        this.label = label;
+    }
 
-    public Map<Character, TrieNode> getChildren() {
-        return children;
+    public char[] getLabel() {
+        return label;
     }
 
-    public void addOccurrence(UUID pageId, int position) {
-        occurrences.computeIfAbsent(pageId, k -> new ArrayList<>()).add(position);
+    public TrieNode getChild(char key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? null : children[index];
     }
 
-    public Map<UUID, List<Integer>> getOccurrences() {
-        return occurrences;
+    public int getChildCount() {
+        return children.length;
     }
 
+    public TrieNode getChildAt(int index) {
+        return children[index];
+    }
+
+    public void addChild(TrieNode child) {
+        char key = child.label[0];
+        int index = Arrays.binarySearch(keys, key);
+        if (index >= 0) {
+            throw new IllegalStateException("Child for '" + key + "' already exists");
+        }
+        index = -index - 1;
+        char[] newKeys = new char[keys.length + 1];
+        TrieNode[] newChildren = new TrieNode[children.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(children, 0, newChildren, 0, index);
+        newKeys[index] = key;
+        newChildren[index] = child;
+        System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+        System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+        keys = newKeys;
+        children = newChildren;
+    }
+
+    /**
+     * Splits the label of this node. The node keeps the first {@code length}
+     * characters, and a new single child takes over the rest of the label
+     * together with the children and postings.
+     * @param length Number of label characters to keep.
+     */
+    public void split(int length) {
+        TrieNode tail = new TrieNode(Arrays.copyOfRange(label, length, label.length));
+        tail.keys = keys;
+        tail.children = children;
+        tail.postings = postings;
+        label = Arrays.copyOf(label, length);
+        keys = new char[]{tail.label[0]};
+        children = new TrieNode[]{tail};
+        postings = null;
+    }
+
+    /**
+     * @return True if this is the first occurrence in the document.
+     */
+    public boolean addOccurrence(int docId, int position) {
+        if (postings == null) {
+            postings = new PostingList();
+        }
+        return postings.add(docId, position);
+    }
+
+    /**
+     * @return Postings of the term ending at this node, or null if none does.
+     */
+    public PostingList getPostings() {
+        return postings;
+    }
+
+    public void setPostings(PostingList postings) {
+        this.postings = postings;
+    }
+
+    /**
+     * @return Most frequent terms below this node, or null if they are not
+     * cached because the subtree is small.
+     */
+    public SuffixTrie.Completion[] getCompletions() {
+        return completions;
+    }
+
+    public void setCompletions(SuffixTrie.Completion[] completions) {
+        this.completions = completions;
+    }
 
 }
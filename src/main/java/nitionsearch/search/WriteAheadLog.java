@@ -0,0 +1,338 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the pages added, replaced and deleted since the last
+ * committed snapshot of a persistent index. Reopening the index replays it,
+ * so pages that were still in the buffer when the process died are not lost.
+ * <p>
+ * Every mutation is one record: payload length, CRC32 of the payload, then
+ * the payload itself, a type byte followed by the page id, URL and content.
+ * Replay stops at the first record that is incomplete or fails its checksum,
+ * which is where a crash cut the log off.
+ * <p>
+ * Records are appended by one writer at a time, and {@link #sync(long)}
+ * makes them durable according to the {@link SyncPolicy}. Syncing is a
+ * group commit: while one thread forces the file, others keep appending, and
+ * the next force covers all of their records at once. Once the index
+ * commits a snapshot that holds every logged mutation, the log is truncated.
+ */
+public final class WriteAheadLog implements Closeable {
+    static final String FILE_NAME = "wal";
+    /**
+     * Records written before a {@link SyncPolicy#BATCHED} log forces the file.
+     */
+    static final int BATCH_SIZE = 64;
+    /**
+     * Delay between the forces of a {@link SyncPolicy#PERIODIC} log.
+     */
+    static final long SYNC_INTERVAL_MILLIS = 200;
+
+    private static final byte ADD = 1;
+    private static final byte REPLACE = 2;
+    private static final byte DELETE = 3;
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * When logged mutations become durable, trading durability against
+     * indexing throughput.
+     */
+    public enum SyncPolicy {
+        /**
+         * A mutation is durable when the call that made it returns. Concurrent
+         * writers share the forces.
+         */
+        PER_WRITE,
+        /**
+         * The file is forced every {@link #BATCH_SIZE} records; a crash loses
+         * at most the last batch.
+         */
+        BATCHED,
+        /**
+         * A background thread forces the file every
+         * {@link #SYNC_INTERVAL_MILLIS}; a crash loses at most that interval.
+         */
+        PERIODIC
+    }
+
+    /**
+     * Receives the mutations of a replayed log.
+     */
+    interface Replay {
+        void addPage(Page page, boolean replace);
+
+        void deletePage(String url);
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+    private final ScheduledExecutorService syncExecutor;
+    private final Object syncLock = new Object();
+    private final CRC32 checksum = new CRC32();
+    // guarded by this
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private long writtenSequence;
+    private volatile long syncedSequence;
+    private volatile long syncCount;
+    // set when a background force failed, reported to the next writer
+    private volatile IOException syncFailure;
+
+    private WriteAheadLog(Path path, FileChannel channel, SyncPolicy policy) {
+        this.path = path;
+        this.channel = channel;
+        this.policy = policy;
+        if (policy == SyncPolicy.PERIODIC) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::backgroundSync, SYNC_INTERVAL_MILLIS,
+                    SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    /**
+     * Opens a log, creating it if it does not exist. Records already in it
+     * stay until {@link #replay(Replay)} is called.
+     */
+    public static WriteAheadLog open(Path path, SyncPolicy policy) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // a log created just now must not vanish with the records forced into it
+            IndexDirectory.sync(path.toAbsolutePath().getParent());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new WriteAheadLog(path, channel, policy);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return policy;
+    }
+
+    /**
+     * Reads every complete record, cuts off whatever a crash left after the
+     * last one and positions the log for appending.
+     * @return Number of replayed mutations.
+     */
+    int replay(Replay replay) throws IOException {
+        long valid = 0;
+        int count = 0;
+        channel.position(0);
+        // not closed, that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int expected = in.readInt();
+                if (length <= 0 || valid + HEADER_BYTES + length > channel.size()) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            apply(ByteBuffer.wrap(payload), replay);
+            valid += HEADER_BYTES + payload.length;
+            count++;
+        }
+        synchronized (this) {
+            channel.truncate(valid);
+            channel.position(valid);
+        }
+        return count;
+    }
+
+    private static void apply(ByteBuffer payload, Replay replay) {
+        byte type = payload.get();
+        if (type == DELETE) {
+            replay.deletePage(readString(payload));
+            return;
+        }
+        UUID id = new UUID(payload.getLong(), payload.getLong());
+        String url = readString(payload);
+        replay.addPage(new Page(id, url, readString(payload)), type == REPLACE);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    /**
+     * Appends an added or replaced page.
+     * @return Sequence number of the record, to pass to {@link #sync(long)}.
+     */
+    public synchronized long logAdd(Page page, boolean replace) throws IOException {
+        byte[] url = page.getUrl().getBytes(StandardCharsets.UTF_8);
+        byte[] content = page.getContent().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = startRecord(1 + 16 + 4 + url.length + 4 + content.length);
+        payload.put(replace ? REPLACE : ADD);
+        payload.putLong(page.getId().getMostSignificantBits());
+        payload.putLong(page.getId().getLeastSignificantBits());
+        payload.putInt(url.length).put(url);
+        payload.putInt(content.length).put(content);
+        return append();
+    }
+
+    /**
+     * Appends a deleted page.
+     * @return Sequence number of the record, to pass to {@link #sync(long)}.
+     */
+    public synchronized long logDelete(String url) throws IOException {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = startRecord(1 + 4 + bytes.length);
+        payload.put(DELETE);
+        payload.putInt(bytes.length).put(bytes);
+        return append();
+    }
+
+    private ByteBuffer startRecord(int payloadLength) throws IOException {
+        IOException failure = syncFailure;
+        if (failure != null) {
+            throw new IOException("Write-ahead log could not be synced", failure);
+        }
+        if (record.capacity() < HEADER_BYTES + payloadLength) {
+            record = ByteBuffer.allocate(Math.max(record.capacity() * 2, HEADER_BYTES + payloadLength));
+        }
+        record.clear();
+        record.putInt(payloadLength);
+        // checksum goes here once the payload is written
+        record.putInt(0);
+        return record;
+    }
+
+    private long append() throws IOException {
+        checksum.reset();
+        checksum.update(record.array(), HEADER_BYTES, record.position() - HEADER_BYTES);
+        record.putInt(4, (int) checksum.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        return ++writtenSequence;
+    }
+
+    /**
+     * Makes a record durable as far as the sync policy asks for.
+     * @param sequence Sequence number returned when the record was appended.
+     */
+    public void sync(long sequence) throws IOException {
+        if (policy == SyncPolicy.PERIODIC || syncedSequence >= sequence) {
+            return;
+        }
+        if (policy == SyncPolicy.BATCHED && sequence - syncedSequence < BATCH_SIZE) {
+            return;
+        }
+        force();
+    }
+
+    /**
+     * Forces everything appended so far. A thread that finds another one
+     * forcing waits for it and then forces the records appended meanwhile
+     * in one go, unless they were covered already.
+     */
+    private void force() throws IOException {
+        synchronized (syncLock) {
+            long target;
+            synchronized (this) {
+                target = writtenSequence;
+            }
+            if (syncedSequence >= target) {
+                return;
+            }
+            channel.force(false);
+            syncedSequence = target;
+            syncCount++;
+        }
+    }
+
+    private void backgroundSync() {
+        try {
+            force();
+        } catch (IOException e) {
+            syncFailure = e;
+        }
+    }
+
+    /**
+     * Empties the log. The index must have committed a snapshot holding every
+     * logged mutation.
+     */
+    public void truncate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                channel.truncate(0);
+                channel.force(false);
+                syncedSequence = writtenSequence;
+            }
+        }
+    }
+
+    /**
+     * @return Size of the log in bytes.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * @return Number of times the file was forced to disk.
+     */
+    long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Forces the records not yet synced and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+        try {
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -30,11 +30,17 @@ public class SearchService {
         return searchEngine.search(query, options);
     }
 
+    public List<String> suggest(String prefix, int limit) {
+        return searchEngine.suggest(prefix, limit);
+    }
+
     public Map<String, Object> getStatistics() {
         Map<String, Object> stats = new HashMap<>();
         stats.put("totalSearches", totalSearches.get());
         stats.put("popularQueries", getTopQueries(10));
         stats.put("indexedPages", searchEngine.getIndexedPagesCount());
+        stats.put("resultCache", searchEngine.getCacheStatistics());
+        stats.put("snippetCache", searchEngine.getSnippetCacheStatistics());
         return stats;
     }
 
@@ -4,10 +4,13 @@ document.addEventListener('DOMContentLoaded', () => {
     const searchResults = document.getElementById('searchResults');
     const resultsList = document.getElementById('resultsList');
     const resultsStats = document.getElementById('resultsStats');
+    const didYouMean = document.getElementById('didYouMean');
     const pagination = document.getElementById('pagination');
     const loader = document.getElementById('loader');
     const searchContainer = document.querySelector('.search-container');
+    const suggestions = document.getElementById('suggestions');
     let currentPage = 1;
+    let suggestTimer = null;
 
     class SearchUI {
         static createResultCard(result) {
@@ -51,8 +54,10 @@ document.addEventListener('DOMContentLoaded', () => {
                 }
                 const data = await response.json();
 
-                resultsStats.textContent = `Found ${data.totalResults} results (${data.totalPages} pages)`;
+                const totalPrefix = data.totalResultsExact === false ? 'more than ' : '';
+                resultsStats.textContent = `Found ${totalPrefix}${data.totalResults} results (${data.totalPages} pages)`;
                 resultsList.innerHTML = '';
+                SearchUI.showDidYouMean(data.didYouMean);
 
                 if (data.items && Array.isArray(data.items)) {
                     data.items.forEach(result => {
@@ -108,6 +113,47 @@ document.addEventListener('DOMContentLoaded', () => {
             pagination.appendChild(button);
         }
 
+        static async updateSuggestions(prefix) {
+            if (!prefix.trim()) {
+                suggestions.innerHTML = '';
+                return;
+            }
+
+            try {
+                const response = await fetch(`/api/suggest?prefix=${encodeURIComponent(prefix)}&limit=8`);
+                if (!response.ok) return;
+                const body = await response.json();
+                // ignore answers for input that has changed in the meantime
+                if (searchInput.value !== prefix) return;
+
+                suggestions.innerHTML = '';
+                (body.data || []).forEach(suggestion => {
+                    const option = document.createElement('option');
+                    option.value = suggestion;
+                    suggestions.appendChild(option);
+                });
+            } catch (error) {
+                console.error('Suggest failed:', error);
+            }
+        }
+
+        static showDidYouMean(correction) {
+            didYouMean.innerHTML = '';
+            if (!correction) return;
+
+            const link = document.createElement('a');
+            link.href = '#';
+            link.className = 'text-blue-600 hover:underline font-medium';
+            link.textContent = correction;
+            link.addEventListener('click', (e) => {
+                e.preventDefault();
+                searchInput.value = correction;
+                currentPage = 1;
+                SearchUI.performSearch(correction);
+            });
+            didYouMean.append('Did you mean: ', link);
+        }
+
         static addPaginationEllipsis() {
             const span = document.createElement('span');
             span.textContent = '...';
@@ -122,6 +168,11 @@ document.addEventListener('DOMContentLoaded', () => {
         SearchUI.performSearch(searchInput.value);
     });
 
+    searchInput.addEventListener('input', () => {
+        clearTimeout(suggestTimer);
+        suggestTimer = setTimeout(() => SearchUI.updateSuggestions(searchInput.value), 100);
+    });
+
     searchInput.addEventListener('keypress', (e) => {
         if (e.key === 'Enter') {
             currentPage = 1;
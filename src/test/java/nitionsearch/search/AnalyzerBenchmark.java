@@ -0,0 +1,82 @@
+package nitionsearch.search;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares the {@link Analyzer} with the {@code toLowerCase().split("\\s+")}
+ * it replaced, in time and bytes allocated per page.
+ * <p>
+ * Not part of the test suite; run {@link #main(String[])} directly. The
+ * allocation counts need a HotSpot JVM.
+ */
+public class AnalyzerBenchmark {
+    private static final int PAGES = 2_000;
+    private static final int WORDS_PER_PAGE = 500;
+    private static final int ROUNDS = 30;
+    private static final String[] PUNCTUATION = {"", "", "", "", ",", ".", ")", ";"};
+
+    public static void main(String[] args) {
+        String[] pages = createPages(new Random(7));
+        Analyzer analyzer = new Analyzer.Builder().build();
+        TokenBuffer tokens = new TokenBuffer();
+
+        long splitNanos = Long.MAX_VALUE;
+        long analyzerNanos = Long.MAX_VALUE;
+        long splitBytes = 0;
+        long analyzerBytes = 0;
+        long sink = 0;
+        // the best round of each, after the JIT has settled
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (String page : pages) {
+                sink += page.toLowerCase().split("\\s+").length;
+            }
+            splitNanos = Math.min(splitNanos, System.nanoTime() - start);
+            splitBytes = allocatedBytes() - bytes;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (String page : pages) {
+                analyzer.analyze(page, tokens);
+                sink += tokens.size();
+            }
+            analyzerNanos = Math.min(analyzerNanos, System.nanoTime() - start);
+            analyzerBytes = allocatedBytes() - bytes;
+        }
+        report("split", splitNanos, splitBytes);
+        report("Analyzer", analyzerNanos, analyzerBytes);
+        if (sink < 0) {
+            System.out.println(sink);
+        }
+    }
+
+    private static void report(String name, long nanos, long bytes) {
+        System.out.printf("%-9s %8.1f us/page  %,10d bytes/page%n",
+                name, nanos / 1e3 / PAGES, bytes / PAGES);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String[] createPages(Random random) {
+        String[] pages = new String[PAGES];
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < pages.length; i++) {
+            page.setLength(0);
+            for (int j = 0; j < WORDS_PER_PAGE; j++) {
+                int length = 2 + random.nextInt(8);
+                for (int k = 0; k < length; k++) {
+                    char c = (char) ('a' + random.nextInt(26));
+                    page.append(k == 0 && random.nextInt(10) == 0 ? Character.toUpperCase(c) : c);
+                }
+                page.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]).append(' ');
+            }
+            pages[i] = page.toString();
+        }
+        return pages;
+    }
+}
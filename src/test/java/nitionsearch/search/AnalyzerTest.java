@@ -0,0 +1,86 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnalyzerTest {
+
+    private final Analyzer analyzer = new Analyzer.Builder().build();
+
+    @Test
+    public void testStripsPunctuationAndLowerCases() {
+        assertEquals(Arrays.asList("search", "engine", "e-mail", "3.5", "it's", "done"),
+                analyzer.terms("Search  ENGINE, (e-mail) 3.5 -- it's done!"));
+        assertTrue(analyzer.terms("  ... -- !! ").isEmpty());
+    }
+
+    @Test
+    public void testStopWordsLeavePositionGaps() {
+        TokenBuffer tokens = new TokenBuffer();
+        analyzer.analyze("The engine of the web -- search", tokens);
+        assertEquals(3, tokens.size());
+        assertEquals("engine", tokens.term(0));
+        assertEquals(1, tokens.getPosition(0));
+        assertEquals("web", tokens.term(1));
+        assertEquals(4, tokens.getPosition(1));
+        // a run without letters is no word and takes no position
+        assertEquals("search", tokens.term(2));
+        assertEquals(5, tokens.getPosition(2));
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        TokenBuffer tokens = new TokenBuffer();
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            longText.append("word").append(i).append(' ');
+        }
+        analyzer.analyze(longText, tokens);
+        assertEquals(500, tokens.size());
+        char[] chars = tokens.chars();
+
+        analyzer.analyze("short text", tokens);
+        assertEquals(Arrays.asList("short", "text"), Arrays.asList(tokens.term(0), tokens.term(1)));
+        assertSame(chars, tokens.chars());
+    }
+
+    @Test
+    public void testOptionalStemming() {
+        Analyzer stemming = new Analyzer.Builder().stemming(true).stopWords(Collections.emptyList()).build();
+        assertEquals(Arrays.asList("query", "engine", "class", "status", "shoes", "the"),
+                stemming.terms("queries engines class status shoes the"));
+        assertEquals("queries", stemming.normalize("Queries,"));
+    }
+
+    @Test
+    public void testStemmingKeepsWordsThatAreNotPlurals() {
+        Analyzer stemming = new Analyzer.Builder().stemming(true).stopWords(Collections.emptyList()).build();
+        assertEquals(Arrays.asList("news", "gas", "series", "lens", "analysis", "canvas", "species", "means"),
+                stemming.terms("news gas series lens analysis canvas species means"));
+        assertEquals(Arrays.asList("tie", "tie", "lie", "city", "fly", "cat", "day"),
+                stemming.terms("ties tie lies cities flies cats days"));
+    }
+
+    @Test
+    public void testQueriesAreAnalyzedLikePages() {
+        try (SearchEngine engine = new SearchEngine()) {
+            engine.addPage(new Page("http://example.com/1", "The engine, of the web."));
+            engine.addPage(new Page("http://example.com/2", "Engine web"));
+            engine.refresh();
+            SearchOptions options = new SearchOptions.Builder().build();
+
+            assertEquals(2, engine.search("ENGINE!", options).getTotalResults());
+            assertEquals(2, engine.search("Engi*", options).getTotalResults());
+            // the stop words between keep the phrase from matching adjacent words
+            assertEquals(1, engine.search("\"engine of the web\"", options).getTotalResults());
+            assertEquals(1, engine.search("\"engine web\"", options).getTotalResults());
+            assertEquals("http://example.com/2",
+                    engine.search("\"engine web\"", options).getItems().get(0).getPage().getUrl());
+        }
+    }
+}
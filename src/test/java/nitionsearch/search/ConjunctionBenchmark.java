@@ -0,0 +1,60 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.util.Random;
+
+/**
+ * Cost of AND queries mixing words of very different document frequencies,
+ * typed in various orders, over one large segment.
+ */
+public class ConjunctionBenchmark {
+    private static final int PAGES = 200_000;
+    private static final int ROUNDS = 7;
+    private static final int SEARCHES = 500;
+
+    public static void main(String[] args) {
+        DocumentDictionary documents = new DocumentDictionary();
+        SuffixTrie terms = new SuffixTrie();
+        Random random = new Random(42);
+        for (int i = 0; i < PAGES; i++) {
+            StringBuilder content = new StringBuilder("common");
+            for (int w = 0; w < 30; w++) {
+                content.append(" word").append(random.nextInt(5_000));
+            }
+            // two common words that never meet, like the words of two unrelated topics
+            content.append(i % 2 == 0 ? " even" : " odd");
+            if (i % 5_000 == 0) {
+                content.append(" rare");
+            }
+            String[] words = content.toString().split(" ");
+            int docId = documents.add(new Page("http://example.com/" + i, content.toString()), words.length);
+            for (int position = 0; position < words.length; position++) {
+                terms.insert(words[position], docId, position);
+            }
+        }
+        IndexSnapshot snapshot = IndexSnapshot.EMPTY.withSegment(Segment.seal(0, documents, terms));
+
+        QueryParser queryParser = new QueryParser();
+        String[] queries = {"common rare", "rare common", "even odd rare", "even common absent"};
+        for (String query : queries) {
+            run(snapshot, queryParser.parse(query), SEARCHES * 4);
+        }
+        for (String query : queries) {
+            QueryParser.ParsedQuery parsed = queryParser.parse(query);
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                run(snapshot, parsed, SEARCHES);
+                best = Math.min(best, (double) (System.nanoTime() - start) / SEARCHES / 1000);
+            }
+            System.out.printf("%-24s %8.1f us%n", query, best);
+        }
+    }
+
+    private static void run(IndexSnapshot snapshot, QueryParser.ParsedQuery query, int searches) {
+        for (int i = 0; i < searches; i++) {
+            new QueryEvaluator(snapshot, new BM25Scorer(), true, false).search(query, 10);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexDirectoryTest {
+
+    private final SearchOptions options = new SearchOptions.Builder().pageSize(20).build();
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("index");
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private List<String> urls(SearchEngine engine, String query) {
+        List<String> urls = new ArrayList<>();
+        for (SearchResultItem item : engine.search(query, options).getItems()) {
+            urls.add(item.getPage().getUrl());
+        }
+        return urls;
+    }
+
+    @Test
+    public void testMappedSegmentAnswersLikeTheTrie() throws IOException {
+        DocumentDictionary documents = new DocumentDictionary();
+        SuffixTrie trie = new SuffixTrie();
+        String[] contents = {"search engine segment", "segments merge quickly", "the engine searches", "merging segment files"};
+        for (String content : contents) {
+            String[] words = content.split(" ");
+            int docId = 5 + documents.add(new Page("http://example.com/" + slug(content), content), words.length);
+            for (int position = 0; position < words.length; position++) {
+                trie.insert(words[position], docId, position);
+            }
+        }
+        Segment heap = Segment.seal(5, documents, trie);
+        Segment mapped = IndexDirectory.open(directory).write(heap);
+
+        assertNotNull(mapped.getFile());
+        assertEquals(heap.getMaxDoc(), mapped.getMaxDoc());
+        assertEquals(heap.getLiveLength(), mapped.getLiveLength());
+        heap.forEachTerm((term, postings) ->
+                assertEquals(postings.toString(), mapped.postings(term).toString(), term));
+        assertTrue(mapped.postings("missing").isEmpty());
+        assertEquals(heap.expand("seg", 10), mapped.expand("seg", 10));
+        assertEquals(heap.expandSubstring("arch", 10), mapped.expandSubstring("arch", 10));
+        assertEquals(fuzzy(heap, "segmnt"), fuzzy(mapped, "segmnt"));
+        assertEquals(fuzzy(heap, "engin"), fuzzy(mapped, "engin"));
+        List<String> completions = new ArrayList<>();
+        mapped.complete("se", 10).forEach(completion -> completions.add(completion.getTerm()));
+        List<String> expected = new ArrayList<>();
+        heap.complete("se", 10).forEach(completion -> expected.add(completion.getTerm()));
+        assertEquals(expected, completions);
+        for (int docId = 5; docId < 9; docId++) {
+            assertEquals(heap.getPage(docId).getId(), mapped.getPage(docId).getId());
+            assertEquals(heap.getPage(docId).getUrl(), mapped.getPage(docId).getUrl());
+            assertEquals(heap.getPage(docId).getContent(), mapped.getPage(docId).getContent());
+            assertEquals(heap.getLength(docId), mapped.getLength(docId));
+        }
+    }
+
+    @Test
+    public void testMappedCompletionsMatchTheTrie() throws IOException {
+        DocumentDictionary documents = new DocumentDictionary();
+        SuffixTrie trie = new SuffixTrie();
+        Random random = new Random(3);
+        Set<String> prefixes = new TreeSet<>(List.of("", "x"));
+        for (int doc = 0; doc < 200; doc++) {
+            StringBuilder content = new StringBuilder();
+            int words = 1 + random.nextInt(8);
+            for (int position = 0; position < words; position++) {
+                // a small alphabet, so many prefixes have more terms than are cached
+                StringBuilder word = new StringBuilder();
+                for (int length = 1 + random.nextInt(5); word.length() < length; ) {
+                    word.append((char) ('a' + random.nextInt(3)));
+                }
+                trie.insert(word.toString(), doc, position);
+                content.append(word).append(' ');
+                for (int end = 1; end <= word.length(); end++) {
+                    prefixes.add(word.substring(0, end));
+                }
+            }
+            documents.add(new Page("http://example.com/" + doc, content.toString()), words);
+        }
+        Segment heap = Segment.seal(0, documents, trie);
+        Segment mapped = IndexDirectory.open(directory).write(heap);
+
+        for (String prefix : prefixes) {
+            for (int limit : new int[]{3, Segment.CACHED_COMPLETIONS, 50}) {
+                assertEquals(completions(heap, prefix, limit), completions(mapped, prefix, limit), prefix);
+            }
+        }
+    }
+
+    private static List<String> completions(Segment segment, String prefix, int limit) {
+        List<String> completions = new ArrayList<>();
+        for (SuffixTrie.Completion completion : segment.complete(prefix, limit)) {
+            completions.add(completion.getTerm() + "=" + completion.getDocFrequency());
+        }
+        return completions;
+    }
+
+    private static String slug(String content) {
+        return content.replace(' ', '-');
+    }
+
+    private static Map<String, Integer> fuzzy(Segment segment, String term) {
+        Map<String, Integer> matches = new TreeMap<>();
+        segment.forEachFuzzyMatch(new LevenshteinAutomaton(term, 2), matches::put);
+        return matches;
+    }
+
+    @Test
+    public void testReopenedIndexFindsCommittedPages() throws IOException {
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            engine.addPage(new Page("http://example.com/a", "Persistent segments survive a restart"));
+            engine.addPage(new Page("http://example.com/b", "Memory mapped segments open quickly"));
+            engine.refresh();
+            engine.addPage(new Page("http://example.com/c", "Buffered pages are sealed on close"));
+        }
+
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            assertEquals(3, engine.getIndexedPagesCount());
+            assertEquals(Arrays.asList("http://example.com/a", "http://example.com/b"), sorted(urls(engine, "segments")));
+            assertEquals(Collections.singletonList("http://example.com/c"), urls(engine, "\"sealed on close\""));
+            assertFalse(engine.canAddPage(new Page("http://example.com/a", "again")));
+            assertEquals("segments", engine.didYouMean("segmnets"));
+
+            engine.addPage(new Page("http://example.com/d", "New segments continue the ordinals"));
+            engine.refresh();
+            assertEquals(3, urls(engine, "segments").size());
+        }
+    }
+
+    @Test
+    public void testDeletesAndReplacementsSurviveReopen() throws IOException {
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            engine.addPage(new Page("http://example.com/a", "old version about kittens"));
+            engine.addPage(new Page("http://example.com/b", "page about puppies"));
+            engine.refresh();
+            engine.deletePage("http://example.com/b");
+            engine.addOrReplacePage(new Page("http://example.com/a", "new version about ponies"));
+        }
+
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            assertEquals(1, engine.getIndexedPagesCount());
+            assertTrue(urls(engine, "kittens").isEmpty());
+            assertTrue(urls(engine, "puppies").isEmpty());
+            assertEquals(Collections.singletonList("http://example.com/a"), urls(engine, "ponies"));
+            assertTrue(engine.canAddPage(new Page("http://example.com/b", "page about puppies")));
+            // the tombstoned words are not suggested either
+            assertNull(engine.didYouMean("puppiez"));
+        }
+    }
+
+    @Test
+    public void testMergesReplaceTheirSourceFiles() throws Exception {
+        int pages = SearchEngine.MAX_BUFFERED_PAGES * 12;
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            for (int i = 0; i < pages; i++) {
+                engine.addPage(new Page("http://example.com/" + i, "page number" + (i % 7) + " of the merge test"));
+            }
+            engine.refresh();
+            engine.waitForMerges();
+            assertTrue(engine.getSnapshot().getSegments().size() < 12);
+            assertEquals(engine.getSnapshot().getSegments().size(), segmentFiles());
+        }
+
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            assertEquals(pages, engine.getIndexedPagesCount());
+            assertEquals(pages / 7 + 1, engine.search("number0", options).getTotalResults());
+            assertEquals(engine.getSnapshot().getSegments().size(), segmentFiles());
+        }
+    }
+
+    @Test
+    public void testUncommittedFilesAreRemovedOnOpen() throws IOException {
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            engine.addPage(new Page("http://example.com/a", "committed page"));
+        }
+        Files.write(directory.resolve("_zz" + SegmentFile.EXTENSION), new byte[]{1, 2, 3});
+        Files.write(directory.resolve(IndexDirectory.MANIFEST + ".tmp"), new byte[]{1});
+
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            assertEquals(1, engine.getIndexedPagesCount());
+            assertEquals(1, segmentFiles());
+            assertFalse(Files.exists(directory.resolve(IndexDirectory.MANIFEST + ".tmp")));
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(SegmentFile.EXTENSION)).count();
+        }
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+}
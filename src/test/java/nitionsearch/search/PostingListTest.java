@@ -0,0 +1,302 @@
+package nitionsearch.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PostingListTest {
+
+    private PostingList postings;
+
+    @BeforeEach
+    public void setup() {
+        postings = new PostingList();
+    }
+
+    @Test
+    public void testEmptyList() {
+        assertTrue(postings.isEmpty());
+        assertEquals(0, postings.size());
+        assertEquals(PostingsCursor.NO_MORE_DOCS, postings.cursor().nextDoc());
+        assertArrayEquals(new int[0], postings.getDocIds());
+    }
+
+    @Test
+    public void testRoundTripSingleDocument() {
+        postings.add(7, 3);
+        postings.add(7, 10);
+        PostingsCursor cursor = postings.cursor();
+        assertEquals(7, cursor.nextDoc());
+        assertEquals(2, cursor.frequency());
+        assertArrayEquals(new int[]{3, 10}, cursor.positions());
+        assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.nextDoc());
+    }
+
+    @Test
+    public void testRoundTripVariableByteBoundaries() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, 268435455, 268435456};
+        for (int i = 0; i < values.length; i++) {
+            postings.add(values[i], values[i]);
+        }
+        assertArrayEquals(values, postings.getDocIds());
+        for (int value : values) {
+            assertArrayEquals(new int[]{value}, postings.getPositions(value));
+        }
+    }
+
+    @Test
+    public void testRoundTripRandomPostings() {
+        Random random = new Random(42);
+        Map<Integer, int[]> expected = new TreeMap<>();
+        int docId = 0;
+        for (int i = 0; i < 1000; i++) {
+            docId += 1 + random.nextInt(i % 10 == 0 ? 5000 : 20);
+            int[] positions = new int[1 + random.nextInt(8)];
+            int position = random.nextInt(3);
+            for (int j = 0; j < positions.length; j++) {
+                positions[j] = position;
+                postings.add(docId, position);
+                position += 1 + random.nextInt(300);
+            }
+            expected.put(docId, positions);
+        }
+
+        assertEquals(expected.size(), postings.size());
+        PostingsCursor cursor = postings.cursor();
+        for (Map.Entry<Integer, int[]> entry : expected.entrySet()) {
+            assertEquals(entry.getKey().intValue(), cursor.nextDoc());
+            assertEquals(entry.getValue().length, cursor.frequency());
+            assertArrayEquals(entry.getValue(), cursor.positions());
+        }
+        assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.nextDoc());
+    }
+
+    @Test
+    public void testPositionsOfSkippedDocumentsAreStepped() {
+        for (int docId = 0; docId < 10; docId++) {
+            for (int position = 0; position <= docId; position++) {
+                postings.add(docId, position * 100);
+            }
+        }
+        PostingsCursor cursor = postings.cursor();
+        cursor.nextDoc();
+        cursor.nextDoc();
+        cursor.nextDoc();
+        cursor.nextDoc();
+        assertEquals(3, cursor.docId());
+        assertArrayEquals(new int[]{0, 100, 200, 300}, cursor.positions());
+        assertEquals(8, cursor.advance(8));
+        assertArrayEquals(new int[]{0, 100, 200, 300, 400, 500, 600, 700, 800}, cursor.positions());
+    }
+
+    @Test
+    public void testAdvanceUsesSkipEntries() {
+        int docs = PostingList.SKIP_INTERVAL * 20;
+        for (int docId = 0; docId < docs; docId++) {
+            postings.add(docId * 3, docId);
+            postings.add(docId * 3, docId + 5);
+        }
+
+        PostingsCursor cursor = postings.cursor();
+        assertEquals(0, cursor.advance(0));
+        assertEquals(300, cursor.advance(299));
+        assertArrayEquals(new int[]{100, 105}, cursor.positions());
+        assertEquals(3000, cursor.advance(3000));
+        assertEquals(3003, cursor.nextDoc());
+        assertArrayEquals(new int[]{1001, 1006}, cursor.positions());
+        assertEquals((docs - 1) * 3, cursor.advance((docs - 1) * 3 - 1));
+        assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.advance(docs * 3));
+    }
+
+    @Test
+    public void testAdvanceToEveryBlockBoundary() {
+        int docs = PostingList.SKIP_INTERVAL * 5 + 3;
+        for (int docId = 0; docId < docs; docId++) {
+            postings.add(docId * 2, docId);
+        }
+        for (int target = 0; target <= (docs - 1) * 2; target++) {
+            PostingsCursor cursor = postings.cursor();
+            int expected = target % 2 == 0 ? target : target + 1;
+            assertEquals(expected, cursor.advance(target));
+            assertArrayEquals(new int[]{expected / 2}, cursor.positions());
+        }
+    }
+
+    @Test
+    public void testAdvanceGallopsOverNearAndFarBlocks() {
+        int docs = PostingList.SKIP_INTERVAL * 300;
+        for (int docId = 0; docId < docs; docId++) {
+            postings.add(docId * 2, docId);
+        }
+        Random random = new Random(7);
+        PostingsCursor cursor = postings.cursor();
+        int target = 0;
+        while (true) {
+            // from the same block up to hundreds of blocks ahead
+            target += 1 + random.nextInt(random.nextBoolean() ? 200 : PostingList.SKIP_INTERVAL * 200);
+            if (target > (docs - 1) * 2) {
+                assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.advance(target));
+                return;
+            }
+            int expected = target % 2 == 0 ? target : target + 1;
+            assertEquals(expected, cursor.advance(target));
+            assertArrayEquals(new int[]{expected / 2}, cursor.positions());
+        }
+    }
+
+    @Test
+    public void testCursorSeesPendingDocument() {
+        postings.add(1, 0);
+        postings.add(4, 2);
+        PostingsCursor before = postings.cursor();
+        postings.add(4, 6);
+        postings.add(9, 1);
+
+        assertEquals(1, before.nextDoc());
+        assertEquals(4, before.nextDoc());
+        assertArrayEquals(new int[]{2}, before.positions());
+        assertEquals(PostingsCursor.NO_MORE_DOCS, before.nextDoc());
+
+        assertArrayEquals(new int[]{2, 6}, postings.getPositions(4));
+        assertArrayEquals(new int[]{1, 4, 9}, postings.getDocIds());
+    }
+
+    @Test
+    public void testMaxFrequency() {
+        postings.add(0, 1);
+        postings.add(1, 1);
+        postings.add(1, 2);
+        postings.add(1, 3);
+        postings.add(2, 1);
+        assertEquals(3, postings.getMaxFrequency());
+        assertEquals(3, postings.getFrequency(1));
+        assertEquals(0, postings.getFrequency(5));
+    }
+
+    @Test
+    public void testOutOfOrderAdds() {
+        postings.add(5, 3);
+        assertThrows(IllegalArgumentException.class, () -> postings.add(5, 1));
+        assertThrows(IllegalArgumentException.class, () -> postings.add(4, 0));
+    }
+
+    @Test
+    public void testCopyIsIndependentOfOriginal() {
+        for (int docId = 0; docId < 200; docId++) {
+            postings.add(docId * 2, docId % 5);
+        }
+        PostingList copy = postings.copy();
+        copy.add(1000, 4);
+        copy.add(1000, 9);
+
+        assertEquals(200, postings.size());
+        assertFalse(postings.contains(1000));
+        assertEquals(201, copy.size());
+        assertArrayEquals(new int[]{4, 9}, copy.getPositions(1000));
+        assertEquals(398, copy.cursor().advance(397));
+        assertArrayEquals(postings.getPositions(398), copy.getPositions(398));
+    }
+
+    @Test
+    public void testAddAllAppendsLaterDocuments() {
+        postings.add(1, 0);
+        postings.add(3, 2);
+        PostingList other = new PostingList();
+        other.add(5, 1);
+        other.add(5, 6);
+        other.add(70, 3);
+
+        postings.addAll(other);
+        assertArrayEquals(new int[]{1, 3, 5, 70}, postings.getDocIds());
+        assertArrayEquals(new int[]{1, 6}, postings.getPositions(5));
+        assertEquals(2, postings.getMaxFrequency());
+        assertThrows(IllegalArgumentException.class, () -> other.addAll(postings));
+    }
+
+    @Test
+    public void testUnionMergesDocumentsAndPositions() {
+        postings.add(1, 4);
+        postings.add(8, 0);
+        PostingList other = new PostingList();
+        other.add(1, 2);
+        other.add(1, 9);
+        other.add(5, 3);
+
+        PostingList union = PostingList.union(Arrays.asList(postings, other));
+        assertArrayEquals(new int[]{1, 5, 8}, union.getDocIds());
+        assertArrayEquals(new int[]{2, 4, 9}, union.getPositions(1));
+        assertEquals(3, union.getFrequency(1));
+        assertTrue(PostingList.union(Collections.emptyList()).isEmpty());
+    }
+
+    /**
+     * @return The list as written to a segment file, behind some other bytes.
+     */
+    private static byte[] write(PostingList list, int before) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[before]);
+        list.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testMappedListDecodesInPlace() throws IOException {
+        Random random = new Random(11);
+        int docId = 0;
+        for (int i = 0; i < PostingList.SKIP_INTERVAL * 40 + 7; i++) {
+            docId += 1 + random.nextInt(20);
+            for (int position = 0, count = 1 + random.nextInt(6); position < count; position++) {
+                postings.add(docId, position * 3);
+            }
+        }
+        byte[] bytes = write(postings, 13);
+        PostingList mapped = PostingList.map(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), 13);
+
+        assertEquals(postings.size(), mapped.size());
+        assertEquals(postings.getMaxFrequency(), mapped.getMaxFrequency());
+        assertEquals(postings.toString(), mapped.toString());
+        for (int round = 0; round < 20; round++) {
+            PostingsCursor expected = postings.cursor();
+            PostingsCursor actual = mapped.cursor();
+            int target = 0;
+            while (expected.docId() != PostingsCursor.NO_MORE_DOCS) {
+                target += 1 + random.nextInt(random.nextBoolean() ? 30 : PostingList.SKIP_INTERVAL * 50);
+                assertEquals(expected.advance(target), actual.advance(target));
+                assertEquals(expected.frequency(), actual.frequency());
+                assertEquals(expected.blockMaxFrequency(), actual.blockMaxFrequency());
+                assertEquals(expected.blockLastDoc(), actual.blockLastDoc());
+                if (random.nextBoolean()) {
+                    assertArrayEquals(expected.positions(), actual.positions());
+                }
+            }
+        }
+
+        // read-only, but copies and rewrites like any list
+        int next = docId + 1;
+        assertThrows(UnsupportedOperationException.class, () -> mapped.add(next, 0));
+        assertArrayEquals(bytes, write(mapped, 13));
+        PostingList copy = mapped.copy();
+        copy.add(next, 0);
+        assertEquals(postings.size() + 1, copy.size());
+        assertEquals(postings.size(), mapped.size());
+    }
+
+    @Test
+    public void testSharedEmptyListIsReadOnly() {
+        assertTrue(PostingList.EMPTY.isEmpty());
+        assertEquals(0, PostingList.EMPTY.size());
+        assertEquals(PostingsCursor.NO_MORE_DOCS, PostingList.EMPTY.cursor().nextDoc());
+        assertThrows(UnsupportedOperationException.class, () -> PostingList.EMPTY.add(0, 0));
+        PostingList copy = PostingList.EMPTY.copy();
+        copy.add(3, 1);
+        assertArrayEquals(new int[]{3}, copy.getDocIds());
+    }
+}
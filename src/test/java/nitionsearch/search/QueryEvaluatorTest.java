@@ -0,0 +1,364 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryEvaluatorTest {
+    private static final String[] WORDS = {
+            "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta", "iota", "kappa"
+    };
+
+    private SuffixTrie trie;
+    private DocumentDictionary documents;
+    private final QueryParser queryParser = new QueryParser();
+
+    @BeforeEach
+    public void setUp() {
+        trie = new SuffixTrie();
+        documents = new DocumentDictionary();
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            addPage(new Page("http://example.com/" + i, randomContent(random)));
+        }
+    }
+
+    private static String randomContent(Random random) {
+        StringBuilder content = new StringBuilder();
+        int length = 5 + random.nextInt(60);
+        for (int j = 0; j < length; j++) {
+            // skewed so the first words are common and the last ones rare
+            int word = (int) (WORDS.length * Math.pow(random.nextDouble(), 2.5));
+            content.append(WORDS[word]).append(' ');
+        }
+        return content.toString().trim();
+    }
+
+    private void addPage(Page page) {
+        String[] words = page.getContent().split("\\s+");
+        int docId = documents.add(page, words.length);
+        for (int position = 0; position < words.length; position++) {
+            trie.insert(words[position], docId, position);
+        }
+    }
+
+    private TopDocs search(String query, int k) {
+        return search(IndexSnapshot.EMPTY.withSegment(Segment.seal(0, documents, trie)), query, k);
+    }
+
+    private TopDocs search(IndexSnapshot snapshot, String query, int k) {
+        return new QueryEvaluator(snapshot, new BM25Scorer(), true).search(queryParser.parse(query), k);
+    }
+
+    /**
+     * Splits the corpus into segments of the given size, rebuilding the
+     * postings of every segment from the page contents.
+     */
+    private IndexSnapshot segmented(int segmentSize) {
+        IndexSnapshot snapshot = IndexSnapshot.EMPTY;
+        for (int docBase = 0; docBase < documents.size(); docBase += segmentSize) {
+            DocumentDictionary segmentDocuments = new DocumentDictionary();
+            SuffixTrie segmentTerms = new SuffixTrie();
+            for (int docId = docBase; docId < Math.min(docBase + segmentSize, documents.size()); docId++) {
+                String[] words = documents.getPage(docId).getContent().split("\\s+");
+                segmentDocuments.add(documents.getPage(docId), words.length);
+                for (int position = 0; position < words.length; position++) {
+                    segmentTerms.insert(words[position], docId, position);
+                }
+            }
+            snapshot = snapshot.withSegment(Segment.seal(docBase, segmentDocuments, segmentTerms));
+        }
+        return snapshot;
+    }
+
+    @Test
+    public void testPrunedTopKMatchesExhaustiveRanking() {
+        String[] queries = {"alpha", "kappa", "alpha beta", "beta iota", "OR alpha OR kappa",
+                "OR beta OR gamma OR theta", "alpha NOT kappa", "\"alpha beta\"", "gamma \"alpha alpha\""};
+        for (String query : queries) {
+            TopDocs all = search(query, documents.size());
+            TopDocs top = search(query, 10);
+            assertTrue(all.isTotalHitsExact(), query);
+            assertEquals(Math.min(10, all.size()), top.size(), query);
+            for (int rank = 0; rank < top.size(); rank++) {
+                assertEquals(all.getDocId(rank), top.getDocId(rank), query + " rank " + rank);
+                assertEquals(all.getScore(rank), top.getScore(rank), 1e-6, query + " rank " + rank);
+            }
+            assertTrue(top.getTotalHits() <= all.getTotalHits(), query);
+            if (top.isTotalHitsExact()) {
+                assertEquals(all.getTotalHits(), top.getTotalHits(), query);
+            }
+        }
+    }
+
+    @Test
+    public void testResultsAreRankedByScore() {
+        TopDocs top = search("alpha beta", 50);
+        for (int rank = 1; rank < top.size(); rank++) {
+            assertTrue(top.getScore(rank - 1) >= top.getScore(rank));
+        }
+    }
+
+    @Test
+    public void testMissingRequiredTermMatchesNothing() {
+        TopDocs top = search("alpha omega", 10);
+        assertEquals(0, top.size());
+        assertEquals(0, top.getTotalHits());
+    }
+
+    @Test
+    public void testProhibitedTermsAreExcluded() {
+        TopDocs top = search("beta NOT alpha", 5000);
+        for (int rank = 0; rank < top.size(); rank++) {
+            assertFalse(trie.search("alpha").contains(top.getDocId(rank)));
+        }
+        assertTrue(top.getTotalHits() > 0);
+    }
+
+    @Test
+    public void testPhraseMatchesAdjacentWordsOnly() {
+        // "eta" is also a substring of "beta", "zeta" and "theta"
+        String[] phrases = {"eta", "beta eta", "alpha alpha", "kappa iota alpha"};
+        for (String phrase : phrases) {
+            String[] words = phrase.split(" ");
+            int expected = 0;
+            for (int docId = 0; docId < documents.size(); docId++) {
+                if (countPhrase(documents.getPage(docId).getContent().split(" "), words) > 0) {
+                    expected++;
+                }
+            }
+            TopDocs top = search("\"" + phrase + "\"", documents.size());
+            assertEquals(expected, top.getTotalHits(), phrase);
+            for (int rank = 0; rank < top.size(); rank++) {
+                String[] content = documents.getPage(top.getDocId(rank)).getContent().split(" ");
+                assertTrue(countPhrase(content, words) > 0, phrase);
+            }
+        }
+    }
+
+    @Test
+    public void testPhraseFrequencyRaisesScore() {
+        documents = new DocumentDictionary();
+        trie = new SuffixTrie();
+        addPage(new Page("http://example.com/once", "red apple green pear red pear green apple"));
+        addPage(new Page("http://example.com/twice", "red apple green pear red apple green pear"));
+        TopDocs top = search("\"red apple\"", 10);
+        assertEquals(2, top.size());
+        assertEquals(1, top.getDocId(0));
+        assertTrue(top.getScore(0) > top.getScore(1));
+    }
+
+    private static int countPhrase(String[] content, String[] words) {
+        int count = 0;
+        for (int start = 0; start + words.length <= content.length; start++) {
+            int i = 0;
+            while (i < words.length && content[start + i].equals(words[i])) {
+                i++;
+            }
+            if (i == words.length) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testSegmentedIndexRanksLikeSingleSegment() {
+        IndexSnapshot segmented = segmented(700);
+        assertEquals(8, segmented.getSegments().size());
+        String[] queries = {"alpha", "kappa iota", "OR beta OR theta", "eta NOT alpha", "\"beta eta\""};
+        for (String query : queries) {
+            TopDocs expected = search(query, 20);
+            TopDocs actual = search(segmented, query, 20);
+            assertEquals(expected.size(), actual.size(), query);
+            for (int rank = 0; rank < expected.size(); rank++) {
+                assertEquals(expected.getDocId(rank), actual.getDocId(rank), query + " rank " + rank);
+                assertEquals(expected.getScore(rank), actual.getScore(rank), 1e-4, query + " rank " + rank);
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateRanksNewPagesLikeFullSearch() {
+        IndexSnapshot full = segmented(700);
+        List<Segment> segments = full.getSegments();
+        IndexSnapshot cached = IndexSnapshot.of(segments.subList(0, 6), 0);
+        // the last cached segment merged with the first new one
+        List<Segment> straddling = segments.subList(5, 7);
+        IndexSnapshot merged = full.withMerge(straddling, Segment.merge(straddling));
+        String[] queries = {"alpha", "kappa iota", "OR beta OR theta", "eta NOT alpha", "\"beta eta\""};
+        for (IndexSnapshot current : Arrays.asList(full, merged)) {
+            for (String query : queries) {
+                QueryParser.ParsedQuery parsed = queryParser.parse(query);
+                QueryEvaluator earlier = new QueryEvaluator(cached, new BM25Scorer(), true);
+                TopDocs previous = earlier.search(parsed, 20);
+                QueryEvaluator.Statistics statistics = earlier.getStatistics();
+
+                TopDocs updated = new QueryEvaluator(current, new BM25Scorer(), true, false, statistics)
+                        .update(parsed, previous, cached.getMaxDoc(), 20);
+                TopDocs expected = new QueryEvaluator(current, new BM25Scorer(), true, false, statistics)
+                        .search(parsed, 20);
+                assertEquals(expected.size(), updated.size(), query);
+                for (int rank = 0; rank < expected.size(); rank++) {
+                    assertEquals(expected.getDocId(rank), updated.getDocId(rank), query + " rank " + rank);
+                    assertEquals(expected.getScore(rank), updated.getScore(rank), 1e-6, query + " rank " + rank);
+                }
+                if (expected.isTotalHitsExact() && updated.isTotalHitsExact()) {
+                    assertEquals(expected.getTotalHits(), updated.getTotalHits(), query);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSearchAfterContinuesTheRanking() {
+        IndexSnapshot snapshot = segmented(700);
+        for (String query : new String[]{"kappa", "OR iota OR kappa", "beta NOT alpha"}) {
+            TopDocs full = search(snapshot, query, 200);
+            int rank = 0;
+            SearchCursor after = null;
+            while (rank < full.size()) {
+                QueryEvaluator evaluator = new QueryEvaluator(snapshot, new BM25Scorer(), true);
+                TopDocs page = after == null
+                        ? evaluator.search(queryParser.parse(query), 17)
+                        : evaluator.searchAfter(queryParser.parse(query), 17, after);
+                assertTrue(page.size() > 0, query);
+                for (int i = 0; i < page.size() && rank < full.size(); i++, rank++) {
+                    assertEquals(full.getDocId(rank), page.getDocId(i), query + " rank " + rank);
+                }
+                after = new SearchCursor(page.getScore(page.size() - 1), page.getDocId(page.size() - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testDeletedPagesAreNotReturned() {
+        IndexSnapshot snapshot = segmented(700);
+        TopDocs before = search(snapshot, "kappa", 5);
+        for (int rank = 0; rank < before.size(); rank++) {
+            snapshot = snapshot.withDeletion(before.getDocId(rank));
+        }
+        TopDocs after = search(snapshot, "kappa", documents.size());
+        assertEquals(search("kappa", documents.size()).getTotalHits() - before.size(), after.getTotalHits());
+        for (int rank = 0; rank < after.size(); rank++) {
+            for (int deleted = 0; deleted < before.size(); deleted++) {
+                assertNotEquals(before.getDocId(deleted), after.getDocId(rank));
+            }
+        }
+    }
+
+    @Test
+    public void testDomainFilterKeepsOnlyPagesOfTheSites() {
+        trie = new SuffixTrie();
+        documents = new DocumentDictionary();
+        String[] sites = {"http://example.com/", "https://Docs.Example.com:8443/", "http://notexample.com/",
+                "http://other.org/"};
+        Random random = new Random(5);
+        for (int i = 0; i < 4000; i++) {
+            addPage(new Page(sites[i % sites.length] + i, randomContent(random)));
+        }
+        IndexSnapshot snapshot = segmented(700);
+        for (int docId = 0; docId < 400; docId += 3) {
+            snapshot = snapshot.withDeletion(docId);
+        }
+
+        for (String query : new String[]{"alpha", "alpha beta", "OR iota OR kappa", "beta NOT alpha"}) {
+            QueryParser.ParsedQuery parsed = queryParser.parse(query);
+            TopDocs all = new QueryEvaluator(snapshot, new BM25Scorer(), true).search(parsed, documents.size());
+            List<Integer> expected = new ArrayList<>();
+            List<Float> scores = new ArrayList<>();
+            for (int rank = 0; rank < all.size(); rank++) {
+                // example.com and its subdomain, not notexample.com
+                if (all.getDocId(rank) % sites.length < 2) {
+                    expected.add(all.getDocId(rank));
+                    scores.add(all.getScore(rank));
+                }
+            }
+
+            QueryEvaluator evaluator = new QueryEvaluator(snapshot, new BM25Scorer(), true);
+            evaluator.setDomains(List.of("example.com"));
+            TopDocs top = evaluator.search(parsed, 10);
+            assertEquals(Math.min(10, expected.size()), top.size(), query);
+            for (int rank = 0; rank < top.size(); rank++) {
+                assertEquals(expected.get(rank).intValue(), top.getDocId(rank), query + " rank " + rank);
+                assertEquals(scores.get(rank), top.getScore(rank), 1e-6, query + " rank " + rank);
+            }
+            evaluator = new QueryEvaluator(snapshot, new BM25Scorer(), true);
+            evaluator.setDomains(List.of("example.com"));
+            assertEquals(expected.size(), evaluator.search(parsed, documents.size()).getTotalHits(), query);
+        }
+
+        QueryEvaluator evaluator = new QueryEvaluator(snapshot, new BM25Scorer(), true);
+        evaluator.setDomains(List.of("example.org"));
+        assertEquals(0, evaluator.search(queryParser.parse("alpha"), 10).getTotalHits());
+    }
+
+    @Test
+    public void testPrefixQueryMatchesExpandedTerms() {
+        TopDocs prefix = search("e*", documents.size());
+        TopDocs union = search("OR epsilon OR eta", documents.size());
+        assertEquals(union.getTotalHits(), prefix.getTotalHits());
+
+        TopDocs single = search("alp*", 10);
+        TopDocs exact = search("alpha", 10);
+        for (int rank = 0; rank < exact.size(); rank++) {
+            assertEquals(exact.getDocId(rank), single.getDocId(rank));
+            assertEquals(exact.getScore(rank), single.getScore(rank), 1e-6);
+        }
+        assertEquals(0, search("omega*", 10).getTotalHits());
+        assertEquals(search("beta NOT kappa", documents.size()).getTotalHits(),
+                search("beta NOT k*", documents.size()).getTotalHits());
+    }
+
+    @Test
+    public void testSubstringQueryMatchesInfixes() {
+        TopDocs union = search("OR eta OR beta OR zeta OR theta", documents.size());
+        TopDocs scanned = search("*eta*", documents.size());
+        assertEquals(union.getTotalHits(), scanned.getTotalHits());
+
+        IndexSnapshot snapshot = segmented(700);
+        for (Segment segment : snapshot.getSegments()) {
+            segment.buildSubstringIndex();
+        }
+        TopDocs indexed = search(snapshot, "*eta*", documents.size());
+        assertEquals(scanned.getTotalHits(), indexed.getTotalHits());
+        for (int rank = 0; rank < scanned.size(); rank++) {
+            assertEquals(scanned.getDocId(rank), indexed.getDocId(rank));
+        }
+    }
+
+    @Test
+    public void testFuzzyQueryMatchesTermsWithinEditDistance() {
+        assertEquals(search("OR beta OR zeta OR eta", documents.size()).getTotalHits(),
+                search("zeta~1", documents.size()).getTotalHits());
+        assertEquals(search("beta", documents.size()).getTotalHits(),
+                search("bete~1", documents.size()).getTotalHits());
+        assertEquals(search("OR beta OR zeta OR eta OR theta OR delta OR iota", documents.size()).getTotalHits(),
+                search("zeta~2", documents.size()).getTotalHits());
+        assertEquals(0, search("omega~1", 10).getTotalHits());
+    }
+
+    @Test
+    public void testUnknownTermFallsBackToFuzzyMatch() {
+        IndexSnapshot snapshot = IndexSnapshot.EMPTY.withSegment(Segment.seal(0, documents, trie));
+        BM25Scorer scorer = new BM25Scorer();
+        TopDocs exact = new QueryEvaluator(snapshot, scorer, true).search(queryParser.parse("alpha kappa"), 10);
+        TopDocs typo = new QueryEvaluator(snapshot, scorer, true, true).search(queryParser.parse("alpho kappa"), 10);
+        assertEquals(exact.getTotalHits(), typo.getTotalHits());
+        for (int rank = 0; rank < exact.size(); rank++) {
+            assertEquals(exact.getDocId(rank), typo.getDocId(rank));
+        }
+
+        assertEquals(0, new QueryEvaluator(snapshot, scorer, true)
+                .search(queryParser.parse("alpho kappa"), 10).getTotalHits());
+        assertEquals(0, new QueryEvaluator(snapshot, scorer, true, true)
+                .search(queryParser.parse("alpha omega"), 10).getTotalHits());
+    }
+}
@@ -0,0 +1,47 @@
+package nitionsearch.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryKeyTest {
+    private final QueryParser queryParser = new QueryParser();
+
+    private QueryKey key(String query, boolean proximityBoost) {
+        return QueryKey.of(queryParser.parse(query), proximityBoost);
+    }
+
+    @Test
+    public void testEquivalentQueriesShareKey() {
+        assertEquals(key("java AND spring", true), key("spring   java", true));
+        assertEquals(key("Java NOT jsp NOT servlet", true), key("java NOT Servlet NOT jsp NOT jsp", true));
+        assertEquals(key("OR kotlin OR scala \"spring boot\"", true), key("\"Spring  Boot\" OR Scala OR Kotlin", true));
+        assertEquals(key("java AND spring", true).hashCode(), key("spring   java", true).hashCode());
+    }
+
+    @Test
+    public void testDifferentQueriesGetDifferentKeys() {
+        assertNotEquals(key("java spring", true), key("java OR spring", true));
+        assertNotEquals(key("java spring", true), key("java NOT spring", true));
+        assertNotEquals(key("java spring", true), key("\"java spring\"", true));
+        assertNotEquals(key("java", true), key("java java", true));
+        assertNotEquals(key("java*", true), key("java", true));
+    }
+
+    @Test
+    public void testTermOrderIsKeptWhereProximityDependsOnIt() {
+        assertNotEquals(key("java spring boot", true), key("boot spring java", true));
+        assertEquals(key("java spring boot", false), key("boot spring java", false));
+    }
+
+    @Test
+    public void testDomainsArePartOfTheKey() {
+        QueryParser.ParsedQuery query = queryParser.parse("java");
+        assertNotEquals(QueryKey.of(query, true), QueryKey.of(query, true, List.of("example.com")));
+        assertEquals(QueryKey.of(query, true, List.of("a.org", "b.org")), QueryKey.of(query, true, List.of("b.org", "a.org")));
+        // a domain cannot pass for a term
+        assertNotEquals(QueryKey.of(queryParser.parse("java"), true, List.of("x")), key("java x", true));
+    }
+}
@@ -0,0 +1,112 @@
+package nitionsearch.search;
+
+import java.util.*;
+
+/**
+ * Compares {@link RoaringBitmap} over page ordinals with a
+ * {@code HashSet<UUID>} of page ids as the set of excluded pages that
+ * every candidate of a search is checked against. Reports the heap of
+ * each set, the time to probe every page and the time to take one set
+ * out of another, for sets as sparse as tombstones and as dense as the
+ * pages of a large site.
+ * <p>
+ * Not part of the test suite; run {@link #main(String[])} directly, ideally
+ * with a fixed heap such as {@code -Xms2g -Xmx2g}.
+ */
+public class RoaringBitmapBenchmark {
+    private static final int PAGES = 1_000_000;
+    private static final double[] DENSITIES = {0.001, 0.1, 0.5};
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) {
+        UUID[] ids = new UUID[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+        System.out.printf("%-8s %-12s %14s %14s %14s%n", "density", "set", "heap bytes", "probe ns/page",
+                "difference ms");
+        for (double density : DENSITIES) {
+            Random random = new Random(17);
+            int[] members = members(random, density);
+            int[] others = members(random, density);
+
+            long before = usedHeap();
+            Set<UUID> hashSet = new HashSet<>();
+            for (int docId : members) {
+                hashSet.add(ids[docId]);
+            }
+            long hashBytes = usedHeap() - before;
+
+            RoaringBitmap bitmap = new RoaringBitmap();
+            for (int docId : members) {
+                bitmap.add(docId);
+            }
+            Set<UUID> otherHashSet = new HashSet<>();
+            RoaringBitmap otherBitmap = new RoaringBitmap();
+            for (int docId : others) {
+                otherHashSet.add(ids[docId]);
+                otherBitmap.add(docId);
+            }
+
+            double hashProbe = Double.MAX_VALUE;
+            double bitmapProbe = Double.MAX_VALUE;
+            double hashDifference = Double.MAX_VALUE;
+            double bitmapDifference = Double.MAX_VALUE;
+            long hits = 0;
+            // alternated, so both see the same noise
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int docId = 0; docId < PAGES; docId++) {
+                    hits += hashSet.contains(ids[docId]) ? 1 : 0;
+                }
+                hashProbe = Math.min(hashProbe, (double) (System.nanoTime() - start) / PAGES);
+
+                start = System.nanoTime();
+                for (int docId = 0; docId < PAGES; docId++) {
+                    hits += bitmap.contains(docId) ? 1 : 0;
+                }
+                bitmapProbe = Math.min(bitmapProbe, (double) (System.nanoTime() - start) / PAGES);
+
+                start = System.nanoTime();
+                Set<UUID> hashResult = new HashSet<>(hashSet);
+                hashResult.removeAll(otherHashSet);
+                hashDifference = Math.min(hashDifference, (System.nanoTime() - start) / 1e6);
+
+                start = System.nanoTime();
+                RoaringBitmap bitmapResult = bitmap.copy();
+                bitmapResult.andNot(otherBitmap);
+                bitmapDifference = Math.min(bitmapDifference, (System.nanoTime() - start) / 1e6);
+                hits += hashResult.size() - bitmapResult.cardinality();
+            }
+
+            String label = String.format("%.1f%%", density * 100);
+            System.out.printf("%-8s %-12s %,14d %14.1f %14.2f%n", label, "HashSet<UUID>", hashBytes,
+                    hashProbe, hashDifference);
+            System.out.printf("%-8s %-12s %,14d %14.1f %14.2f%n", label, "RoaringBitmap", bitmap.estimateBytes(),
+                    bitmapProbe, bitmapDifference);
+            // keep the results observable so the loops are not dropped
+            System.out.println(hits > 0 ? "" : "no hits");
+        }
+    }
+
+    private static int[] members(Random random, double density) {
+        int[] members = new int[(int) (PAGES * density)];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = random.nextInt(PAGES);
+        }
+        return members;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,117 @@
+package nitionsearch.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoaringBitmapTest {
+
+    /**
+     * Random values over a few chunks: one sparse, one dense enough for a
+     * bitmap container and one far away.
+     */
+    private static RoaringBitmap random(Random random, BitSet expected) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = 0; i < 500; i++) {
+            expected.set(random.nextInt(1 << 16));
+        }
+        for (int i = 0; i < 20_000; i++) {
+            expected.set((1 << 16) + random.nextInt(1 << 16));
+        }
+        for (int i = 0; i < 50; i++) {
+            expected.set((40 << 16) + random.nextInt(1000));
+        }
+        // in random order, to exercise inserts in the middle
+        List<Integer> values = new ArrayList<>();
+        expected.stream().forEach(values::add);
+        Collections.shuffle(values, random);
+        values.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static void assertSameValues(BitSet expected, RoaringBitmap bitmap) {
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        int value = bitmap.nextSetBit(0);
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            assertEquals(i, value);
+            value = bitmap.nextSetBit(value + 1);
+        }
+        assertEquals(-1, value);
+    }
+
+    @Test
+    public void testMatchesBitSet() {
+        BitSet expected = new BitSet();
+        RoaringBitmap bitmap = random(new Random(1), expected);
+        assertSameValues(expected, bitmap);
+        Random random = new Random(2);
+        for (int i = 0; i < 100_000; i++) {
+            int value = random.nextInt(42 << 16);
+            assertEquals(expected.get(value), bitmap.contains(value), "value " + value);
+            assertEquals(expected.get(0, value).cardinality(), bitmap.rank(value), "rank " + value);
+            assertEquals(expected.nextSetBit(value), bitmap.nextSetBit(value), "next " + value);
+        }
+        assertFalse(bitmap.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+    }
+
+    @Test
+    public void testOrAndNotMatchBitSet() {
+        BitSet left = new BitSet();
+        BitSet right = new BitSet();
+        RoaringBitmap a = random(new Random(3), left);
+        RoaringBitmap b = random(new Random(4), right);
+        b.add(7 << 16);
+        right.set(7 << 16);
+
+        RoaringBitmap union = a.copy();
+        union.or(b);
+        BitSet expected = (BitSet) left.clone();
+        expected.or(right);
+        assertSameValues(expected, union);
+
+        RoaringBitmap difference = a.copy();
+        difference.andNot(b);
+        expected = (BitSet) left.clone();
+        expected.andNot(right);
+        assertSameValues(expected, difference);
+
+        // the copies left the originals alone
+        assertSameValues(left, a);
+        assertSameValues(right, b);
+
+        RoaringBitmap nothing = a.copy();
+        nothing.andNot(a);
+        assertTrue(nothing.isEmpty());
+        assertEquals(-1, nothing.nextSetBit(0));
+    }
+
+    @Test
+    public void testDenseChunkShrinksBackToArray() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        RoaringBitmap removed = new RoaringBitmap();
+        for (int value = 0; value < 10_000; value++) {
+            bitmap.add(value);
+            if (value % 10 != 0) {
+                removed.add(value);
+            }
+        }
+        long dense = bitmap.estimateBytes();
+        bitmap.andNot(removed);
+        assertEquals(1000, bitmap.cardinality());
+        assertTrue(bitmap.estimateBytes() < dense);
+        assertTrue(bitmap.contains(9990));
+        assertFalse(bitmap.contains(9991));
+    }
+
+    @Test
+    public void testLongArrayRoundTrip() {
+        BitSet expected = new BitSet();
+        RoaringBitmap bitmap = random(new Random(5), expected);
+        assertArrayEquals(expected.toLongArray(), bitmap.toLongArray());
+        assertSameValues(expected, RoaringBitmap.valueOf(expected.toLongArray()));
+        assertArrayEquals(new long[0], new RoaringBitmap().toLongArray());
+    }
+}
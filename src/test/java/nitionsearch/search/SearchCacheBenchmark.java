@@ -0,0 +1,40 @@
+package nitionsearch.search;
+
+import java.util.Random;
+
+/**
+ * Cost of a lookup in a full result cache, which must not grow with the
+ * number of entries, and the hit rate on a skewed query stream.
+ */
+public class SearchCacheBenchmark {
+    private static final int LOOKUPS = 2_000_000;
+
+    public static void main(String[] args) {
+        for (int entries : new int[]{1_000, 10_000, 100_000}) {
+            SearchCache<String, TopDocs> cache = new SearchCache<>(entries, 3_600_000, (key, value) -> 1);
+            String[] keys = new String[entries * 4];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "query " + i;
+            }
+            Random random = new Random(42);
+            // warm up: fill the cache with a Zipf-like stream
+            run(cache, keys, random, LOOKUPS);
+            long start = System.nanoTime();
+            run(cache, keys, random, LOOKUPS);
+            double nanos = (double) (System.nanoTime() - start) / LOOKUPS;
+            System.out.printf("%7d entries: %6.0f ns per lookup, hit rate %.2f%n",
+                    entries, nanos, cache.getHitRate());
+        }
+    }
+
+    private static void run(SearchCache<String, TopDocs> cache, String[] keys, Random random, int lookups) {
+        for (int i = 0; i < lookups; i++) {
+            // cubing a uniform value favours the low keys
+            double u = random.nextDouble();
+            String key = keys[(int) (u * u * u * keys.length)];
+            if (!cache.get(key).isPresent()) {
+                cache.put(key, TopDocs.EMPTY);
+            }
+        }
+    }
+}
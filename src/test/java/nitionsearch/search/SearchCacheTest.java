@@ -0,0 +1,128 @@
+package nitionsearch.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchCacheTest {
+
+    private static SearchCache<Integer, String> unitCache(long maxWeight) {
+        return new SearchCache<>(maxWeight, 60_000, (key, value) -> 1);
+    }
+
+    @Test
+    public void testWeightBoundIsRespected() {
+        SearchCache<Integer, String> cache = new SearchCache<>(100, 60_000, (key, value) -> value.length());
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, "0123456789");
+            assertTrue(cache.getWeight() <= 100);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(40, cache.getEvictionCount());
+
+        // heavier than the whole cache, never stored
+        cache.put(-1, new String(new char[101]));
+        assertFalse(cache.get(-1).isPresent());
+        assertEquals(100, cache.getWeight());
+    }
+
+    @Test
+    public void testFrequentKeysSurviveAScanOfOneOffKeys() {
+        SearchCache<Integer, String> cache = unitCache(100);
+        for (int round = 0; round < 5; round++) {
+            for (int hot = 0; hot < 50; hot++) {
+                if (!cache.get(hot).isPresent()) {
+                    cache.put(hot, "hot");
+                }
+            }
+        }
+        for (int key = 1000; key < 11_000; key++) {
+            if (!cache.get(key).isPresent()) {
+                cache.put(key, "once");
+            }
+            // the hot queries keep being asked in between
+            int hot = key % 50;
+            if (!cache.get(hot).isPresent()) {
+                cache.put(hot, "hot");
+            }
+        }
+        int survivors = 0;
+        for (int hot = 0; hot < 50; hot++) {
+            if (cache.get(hot).isPresent()) {
+                survivors++;
+            }
+        }
+        assertEquals(50, survivors);
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() {
+        AtomicLong now = new AtomicLong();
+        SearchCache<Integer, String> cache = new SearchCache<>(100, 1000, (key, value) -> 1, now::get);
+        cache.put(1, "one");
+        now.set(999);
+        assertEquals("one", cache.get(1).orElse(null));
+        now.set(1000);
+        assertFalse(cache.get(1).isPresent());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        SearchCache<Integer, String> cache = unitCache(10);
+        cache.get(1);
+        cache.put(1, "one");
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testReplaceAndInvalidate() {
+        SearchCache<Integer, String> cache = new SearchCache<>(100, 60_000, (key, value) -> value.length());
+        cache.put(1, "one");
+        cache.put(1, "three");
+        assertEquals("three", cache.get(1).orElse(null));
+        assertEquals(5, cache.getWeight());
+        cache.invalidate(1);
+        assertFalse(cache.get(1).isPresent());
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentUseKeepsWeightConsistent() throws InterruptedException {
+        SearchCache<Integer, String> cache = unitCache(500);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 50_000; i++) {
+                    // skewed keys, a few are hot
+                    int key = (int) Math.abs(random.nextGaussian() * 300);
+                    if (!cache.get(key).isPresent()) {
+                        cache.put(key, "value");
+                    }
+                    if (i % 1000 == 0) {
+                        cache.invalidate(key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.getWeight() <= 500);
+        assertEquals(cache.size(), cache.getWeight());
+        assertEquals(200_000, cache.getHitCount() + cache.getMissCount());
+    }
+}
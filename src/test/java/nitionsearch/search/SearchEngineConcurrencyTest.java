@@ -0,0 +1,359 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchEngineConcurrencyTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int PAGES_PER_WRITER = 500;
+
+    private SearchEngine searchEngine;
+    private final SearchOptions options = new SearchOptions.Builder().pageSize(20).build();
+
+    @BeforeEach
+    public void setUp() {
+        searchEngine = new SearchEngine();
+    }
+
+    @Test
+    public void testConcurrentIndexingAndSearching() throws InterruptedException {
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < PAGES_PER_WRITER; i++) {
+                        searchEngine.addPage(new Page("http://writer" + writer + ".com/" + i,
+                                "shared writer" + writer + " topic" + (i % 10) + " shared text"));
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            readers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    int lastTotal = 0;
+                    while (writing.get()) {
+                        SearchResult result = searchEngine.search("shared", options);
+                        if (result.isTotalResultsExact()) {
+                            // snapshots only ever grow
+                            assertTrue(result.getTotalResults() >= lastTotal);
+                            lastTotal = result.getTotalResults();
+                        }
+                        for (SearchResultItem item : result.getItems()) {
+                            assertTrue(item.getPage().getContent().contains("shared"));
+                        }
+                        for (SearchResultItem item : searchEngine.search("\"topic3 shared\"", options).getItems()) {
+                            assertTrue(item.getPage().getContent().contains("topic3 shared"));
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+
+        writers.forEach(Thread::start);
+        readers.forEach(Thread::start);
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertTrue(failures.isEmpty(), () -> "Failures: " + failures);
+        searchEngine.refresh();
+        assertEquals(WRITERS * PAGES_PER_WRITER, searchEngine.getIndexedPagesCount());
+        for (int w = 0; w < WRITERS; w++) {
+            assertEquals(PAGES_PER_WRITER, searchEngine.search("writer" + w, options).getTotalResults());
+            assertEquals(PAGES_PER_WRITER / 10, searchEngine.search("writer" + w + " topic7", options).getTotalResults());
+        }
+    }
+
+    @Test
+    public void testPagesBecomeVisibleOnRefresh() {
+        searchEngine.addPage(new Page("http://example.com/1", "fresh content"));
+        searchEngine.refresh();
+        assertEquals(1, searchEngine.search("fresh", options).getTotalResults());
+
+        searchEngine.addPage(new Page("http://example.com/2", "fresh content again"));
+        searchEngine.refresh();
+        SearchResult result = searchEngine.search("fresh", options);
+        assertEquals(2, result.getTotalResults());
+        assertEquals(2, searchEngine.getIndexedPagesCount());
+    }
+
+    @Test
+    public void testCachedResultsFollowNewPagesWithoutRecomputing() {
+        for (int i = 0; i < 100; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i, "cached page " + i));
+        }
+        searchEngine.refresh();
+        assertEquals(100, searchEngine.search("cached", options).getTotalResults());
+
+        for (int i = 100; i < 105; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i, "cached page " + i));
+        }
+        searchEngine.refresh();
+        assertEquals(105, searchEngine.search("cached", options).getTotalResults());
+        assertEquals(1L, searchEngine.getCacheStatistics().get("updates"));
+        assertEquals(105, searchEngine.search("cached", options).getTotalResults());
+        assertEquals(1L, searchEngine.getCacheStatistics().get("updates"));
+
+        // a deleted page may be among the cached hits, so the query is recomputed
+        assertTrue(searchEngine.deletePage("http://example.com/0"));
+        assertEquals(104, searchEngine.search("cached", options).getTotalResults());
+        assertEquals(1L, searchEngine.getCacheStatistics().get("updates"));
+    }
+
+    @Test
+    public void testRenderedFragmentsAreReusedAcrossSearches() {
+        for (int i = 0; i < 30; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i,
+                    "Intro sentence. Spring and Java notes number " + i + ". Closing words."));
+        }
+        searchEngine.refresh();
+        SearchResult first = searchEngine.search("java spring", options);
+        assertEquals(20L, searchEngine.getSnippetCacheStatistics().get("misses"));
+
+        // same terms, other spelling: rendered once, served from the cache
+        SearchResult second = searchEngine.search("Java   spring", options);
+        assertEquals(20L, searchEngine.getSnippetCacheStatistics().get("hits"));
+        assertEquals(first.getItems().size(), second.getItems().size());
+        for (int i = 0; i < first.getItems().size(); i++) {
+            SearchResultItem expected = first.getItems().get(i);
+            SearchResultItem actual = second.getItems().get(i);
+            assertEquals(expected.getPage().getUrl(), actual.getPage().getUrl());
+            assertEquals(expected.getSnippet(), actual.getSnippet());
+            assertEquals(expected.getHighlights(), actual.getHighlights());
+            assertEquals(expected.getTermFrequencies(), actual.getTermFrequencies());
+        }
+        assertTrue(first.getItems().get(0).getSnippet().contains("Spring and Java"));
+    }
+
+    @Test
+    public void testCursorPagesMatchNumberedPages() {
+        for (int i = 0; i < 95; i++) {
+            // few distinct lengths, so many hits tie on their score
+            searchEngine.addPage(new Page("http://example.com/" + i, "paged result " + "filler ".repeat(i % 4)));
+        }
+        searchEngine.refresh();
+        List<String> numbered = new ArrayList<>();
+        for (int page = 1; page <= 5; page++) {
+            SearchOptions pageOptions = new SearchOptions.Builder().page(page).pageSize(20).build();
+            searchEngine.search("paged", pageOptions).getItems().forEach(item -> numbered.add(item.getPage().getUrl()));
+        }
+
+        List<String> scrolled = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            SearchResult result = searchEngine.search("paged",
+                    new SearchOptions.Builder().pageSize(20).after(cursor).build());
+            result.getItems().forEach(item -> scrolled.add(item.getPage().getUrl()));
+            assertEquals(95, result.getTotalResults());
+            cursor = result.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(5, pages);
+        assertEquals(numbered, scrolled);
+
+        assertThrows(IllegalArgumentException.class, () -> new SearchOptions.Builder().after("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> new SearchOptions.Builder().after("AAAA"));
+    }
+
+    @Test
+    public void testLastFullPageHasNoCursor() {
+        for (int i = 0; i < 40; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i, "paged result " + "filler ".repeat(i % 4)));
+        }
+        searchEngine.refresh();
+        SearchResult first = searchEngine.search("paged", new SearchOptions.Builder().pageSize(20).build());
+        assertNotNull(first.getNextCursor());
+        SearchResult second = searchEngine.search("paged",
+                new SearchOptions.Builder().pageSize(20).after(first.getNextCursor()).build());
+        assertEquals(20, second.getItems().size());
+        assertNull(second.getNextCursor());
+        assertNull(searchEngine.search("paged", new SearchOptions.Builder().page(2).pageSize(20).build())
+                .getNextCursor());
+
+        SearchResult beyond = searchEngine.search("paged", new SearchOptions.Builder().page(3).pageSize(20).build());
+        assertTrue(beyond.getItems().isEmpty());
+        assertEquals(40, beyond.getTotalResults());
+        assertEquals(2, beyond.getTotalPages());
+    }
+
+    @Test
+    public void testHugePageNumberGivesEmptyPage() {
+        for (int i = 0; i < 5; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i, "deep result"));
+        }
+        searchEngine.refresh();
+        // would overflow, or allocate room for billions of hits
+        for (int page : new int[]{5_000_000, 30_000_000, Integer.MAX_VALUE}) {
+            SearchResult result = searchEngine.search("deep", new SearchOptions.Builder().page(page).pageSize(100).build());
+            assertTrue(result.getItems().isEmpty());
+            assertEquals(5, result.getTotalResults());
+            assertEquals(1, result.getTotalPages());
+        }
+        assertEquals(5, searchEngine.search("deep", options).getItems().size());
+    }
+
+    @Test
+    public void testDuplicateUrlsAreIgnoredAcrossRefreshes() {
+        searchEngine.addPage(new Page("http://example.com/1", "first version"));
+        searchEngine.addPage(new Page("http://example.com/1", "buffered duplicate"));
+        searchEngine.refresh();
+        searchEngine.addPage(new Page("http://example.com/1", "published duplicate"));
+        searchEngine.refresh();
+
+        assertEquals(1, searchEngine.getIndexedPagesCount());
+        assertEquals(0, searchEngine.search("duplicate", options).getTotalResults());
+    }
+
+    @Test
+    public void testBackgroundMergesKeepResults() throws InterruptedException {
+        int pages = SearchEngine.MAX_BUFFERED_PAGES * TieredMergePolicy.SEGMENTS_PER_TIER * 2;
+        for (int i = 0; i < pages; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i, "page number" + (i % 7) + " text"));
+        }
+        searchEngine.refresh();
+        searchEngine.waitForMerges();
+
+        assertTrue(searchEngine.getSnapshot().getSegments().size() < TieredMergePolicy.SEGMENTS_PER_TIER);
+        assertEquals(pages, searchEngine.getIndexedPagesCount());
+        assertEquals(pages / 7 + 1, searchEngine.search("number0", options).getTotalResults());
+        assertTrue(searchEngine.deletePage("http://example.com/0"));
+        assertFalse(searchEngine.deletePage("http://example.com/0"));
+        assertEquals(pages - 1, searchEngine.getIndexedPagesCount());
+        assertEquals(pages / 7, searchEngine.search("number0", options).getTotalResults());
+        searchEngine.close();
+    }
+
+    @Test
+    public void testConcurrentDuplicateUrlsAreIndexedOnce() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < WRITERS; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < PAGES_PER_WRITER; i++) {
+                    searchEngine.addPage(new Page("http://example.com/" + i, "same page " + i));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        searchEngine.refresh();
+
+        assertEquals(PAGES_PER_WRITER, searchEngine.getIndexedPagesCount());
+        assertEquals(PAGES_PER_WRITER, searchEngine.search("same", options).getTotalResults());
+        assertFalse(searchEngine.canAddPage(new Page("http://example.com/0", "other")));
+        assertTrue(searchEngine.canAddPage(new Page("http://example.com/new", "other")));
+    }
+
+    @Test
+    public void testReplaceSwapsPageVersions() {
+        searchEngine.addPage(new Page("http://example.com/1", "old version"));
+        searchEngine.refresh();
+        searchEngine.addOrReplacePage(new Page("http://example.com/1", "new version"));
+        // the old version stays searchable until the replacement is
+        assertEquals(1, searchEngine.search("old", options).getTotalResults());
+
+        searchEngine.refresh();
+        assertEquals(0, searchEngine.search("old", options).getTotalResults());
+        assertEquals(1, searchEngine.search("new", options).getTotalResults());
+        assertEquals(1, searchEngine.getIndexedPagesCount());
+
+        // replacing a page that is still buffered
+        searchEngine.addOrReplacePage(new Page("http://example.com/1", "newer version"));
+        searchEngine.addOrReplacePage(new Page("http://example.com/1", "newest version"));
+        searchEngine.refresh();
+        assertEquals(1, searchEngine.search("version", options).getTotalResults());
+        assertEquals(1, searchEngine.search("newest", options).getTotalResults());
+    }
+
+    @Test
+    public void testDeleteBufferedPage() {
+        searchEngine.addPage(new Page("http://example.com/1", "short lived"));
+        assertTrue(searchEngine.deletePage("http://example.com/1"));
+        searchEngine.refresh();
+        assertEquals(0, searchEngine.search("lived", options).getTotalResults());
+        assertTrue(searchEngine.canAddPage(new Page("http://example.com/1", "back again")));
+    }
+
+    @Test
+    public void testSuggestCompletesTheLastWordAsIndexed() {
+        searchEngine.addPage(new Page("http://example.com/1", "java jade"));
+        searchEngine.addPage(new Page("http://example.com/2", "java"));
+        searchEngine.addPage(new Page("http://example.com/3", "java"));
+        searchEngine.refresh();
+        for (int i = 4; i < 8; i++) {
+            searchEngine.addPage(new Page("http://example.com/" + i, i < 7 ? "jade java" : "jade"));
+        }
+        searchEngine.refresh();
+
+        assertEquals(List.of("spring java", "spring jade"), searchEngine.suggest("spring (Ja", 2));
+        // java tops the first segment and jade the second, but java is in more pages overall
+        assertEquals(List.of("java"), searchEngine.suggest("ja", 1));
+
+        try (SearchEngine stemming = new SearchEngine(new Analyzer.Builder().stemming(true).build())) {
+            stemming.addPage(new Page("http://example.com/1", "search engines"));
+            stemming.refresh();
+            assertEquals(List.of("engine"), stemming.suggest("engines", 5));
+        }
+    }
+
+    @Test
+    public void testSuggestWithoutRoomForSuggestions() {
+        searchEngine.addPage(new Page("http://example.com/1", "search engine"));
+        searchEngine.refresh();
+        assertEquals(List.of("search"), searchEngine.suggest("sea", 1));
+        assertTrue(searchEngine.suggest("sea", 0).isEmpty());
+        assertTrue(searchEngine.suggest("sea", -1).isEmpty());
+    }
+
+    @Test
+    public void testPagesKeepingTheirIdGetNewOrdinals() {
+        UUID id = UUID.randomUUID();
+        searchEngine.addPage(new Page(id, "http://example.com/1", "alpha beta"));
+        // replaced while the original is still buffered
+        searchEngine.addOrReplacePage(new Page(id, "http://example.com/1", "gamma delta"));
+        searchEngine.refresh();
+        assertEquals(0, searchEngine.search("alpha", options).getTotalResults());
+        assertEquals(1, searchEngine.search("delta", options).getTotalResults());
+        assertEquals(1, searchEngine.getIndexedPagesCount());
+
+        Page page = new Page(UUID.randomUUID(), "http://example.com/2", "epsilon");
+        searchEngine.addPage(page);
+        searchEngine.deletePage(page.getUrl());
+        searchEngine.addPage(page);
+        searchEngine.refresh();
+        assertEquals(1, searchEngine.search("epsilon", options).getTotalResults());
+        assertEquals(2, searchEngine.getIndexedPagesCount());
+    }
+}
@@ -0,0 +1,121 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentTest {
+
+    private static Segment segment(int docBase, String... contents) {
+        DocumentDictionary documents = new DocumentDictionary();
+        SuffixTrie terms = new SuffixTrie();
+        for (String content : contents) {
+            String[] words = content.split(" ");
+            int docId = docBase + documents.add(new Page("http://example.com/" + UUID.randomUUID(), content), words.length);
+            for (int position = 0; position < words.length; position++) {
+                terms.insert(words[position], docId, position);
+            }
+        }
+        return Segment.seal(docBase, documents, terms);
+    }
+
+    @Test
+    public void testMergeConcatenatesAdjacentSegments() {
+        Segment first = segment(0, "red apple", "green pear");
+        Segment second = segment(2, "red pear", "red red apple");
+        Segment merged = Segment.merge(Arrays.asList(first, second));
+
+        assertEquals(0, merged.getDocBase());
+        assertEquals(4, merged.getMaxDoc());
+        assertArrayEquals(new int[]{0, 2, 3}, merged.postings("red").getDocIds());
+        assertArrayEquals(new int[]{0, 1}, merged.postings("red").getPositions(3));
+        assertEquals("green pear", merged.getPage(1).getContent());
+        assertEquals(2, merged.getMinLength());
+    }
+
+    @Test
+    public void testMergeRejectsGaps() {
+        Segment first = segment(0, "red apple");
+        Segment third = segment(5, "red pear");
+        assertThrows(IllegalArgumentException.class, () -> Segment.merge(Arrays.asList(first, third)));
+    }
+
+    @Test
+    public void testDeleteLeavesOriginalUntouched() {
+        Segment segment = segment(10, "red apple", "green pear");
+        Segment deleted = segment.delete(10);
+
+        assertFalse(segment.isDeleted(10));
+        assertTrue(deleted.isDeleted(10));
+        assertNull(deleted.getPage(10));
+        assertEquals(1, deleted.getLiveDocCount());
+        assertEquals(1, deleted.getDeletedCount());
+    }
+
+    @Test
+    public void testHostIgnoresSchemeUserInfoAndPort() {
+        assertEquals("docs.example.com", Segment.host("https://user@Docs.Example.com:8443/a?b#c"));
+        assertEquals("example.com", Segment.host("http://example.com"));
+        assertEquals("[::1]", Segment.host("http://[::1]:8080/"));
+        assertTrue(Segment.isOnDomain("docs.example.com", "example.com"));
+        assertTrue(Segment.isOnDomain("example.com", "example.com"));
+        assertFalse(Segment.isOnDomain("notexample.com", "example.com"));
+    }
+
+    @Test
+    public void testMergeDropsDeletedPages() {
+        Segment first = segment(0, "red apple", "green pear").delete(0);
+        Segment second = segment(2, "red pear");
+        Segment merged = Segment.merge(Arrays.asList(first, second));
+
+        assertArrayEquals(new int[]{2}, merged.postings("red").getDocIds());
+        assertTrue(merged.postings("apple").isEmpty());
+        assertTrue(merged.isDeleted(0));
+        assertEquals(0, merged.getDeletedCount());
+        assertEquals(2, merged.getLiveDocCount());
+        assertEquals(3, merged.getDocCount());
+    }
+
+    @Test
+    public void testDeletesDuringMergeAreCarriedOver() {
+        Segment first = segment(0, "red apple", "green pear");
+        Segment second = segment(2, "red pear");
+        List<Segment> sources = Arrays.asList(first, second);
+        Segment merged = Segment.merge(sources);
+        IndexSnapshot snapshot = IndexSnapshot.EMPTY.withSegment(first).withSegment(second).withDeletion(2);
+
+        IndexSnapshot committed = snapshot.withMerge(sources, merged);
+        assertEquals(1, committed.getSegments().size());
+        assertEquals(snapshot.getGeneration(), committed.getGeneration());
+        assertTrue(committed.getSegment(2).isDeleted(2));
+        assertEquals(2, committed.size());
+    }
+
+    @Test
+    public void testPolicyMergesFullTierOfAdjacentSegments() {
+        TieredMergePolicy policy = new TieredMergePolicy(2);
+        List<Segment> segments = new ArrayList<>();
+        segments.add(segment(0, "a", "b", "c"));
+        for (int i = 0; i < TieredMergePolicy.SEGMENTS_PER_TIER - 1; i++) {
+            segments.add(segment(3 + i, "small"));
+        }
+        assertTrue(policy.findMerge(segments, Collections.emptySet()).isEmpty());
+
+        segments.add(segment(3 + TieredMergePolicy.SEGMENTS_PER_TIER - 1, "small"));
+        List<Segment> merge = policy.findMerge(segments, Collections.emptySet());
+        assertEquals(TieredMergePolicy.SEGMENTS_PER_TIER, merge.size());
+        assertEquals(3, merge.get(0).getDocBase());
+        assertTrue(policy.findMerge(segments, Collections.singleton(3)).isEmpty());
+    }
+
+    @Test
+    public void testPolicyReclaimsMostlyDeletedSegment() {
+        TieredMergePolicy policy = new TieredMergePolicy(2);
+        Segment segment = segment(0, "a", "b", "c").delete(0).delete(1);
+        assertEquals(Collections.singletonList(segment),
+                policy.findMerge(Collections.singletonList(segment), Collections.emptySet()));
+    }
+}
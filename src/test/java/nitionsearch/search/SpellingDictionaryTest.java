@@ -0,0 +1,95 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpellingDictionaryTest {
+
+    private SpellingDictionary dictionary;
+
+    @BeforeEach
+    public void setup() {
+        dictionary = new SpellingDictionary();
+        dictionary.addAll(Arrays.asList("search", "engine", "segment", "segmentation", "query"));
+    }
+
+    @Test
+    public void testCorrectsCommonTypos() {
+        assertEquals("search", dictionary.correct("serch"));
+        assertEquals("search", dictionary.correct("saerch"));
+        assertEquals("engine", dictionary.correct("enginee"));
+        assertEquals("segment", dictionary.correct("sgement"));
+        assertEquals("query", dictionary.correct("qeury"));
+        // typos past the indexed prefix are found through the full comparison
+        assertEquals("segmentation", dictionary.correct("segmentatoin"));
+    }
+
+    @Test
+    public void testKnownAndUnrelatedWordsAreNotCorrected() {
+        assertNull(dictionary.correct("search"));
+        assertNull(dictionary.correct("banana"));
+        // too short for a reliable correction
+        assertNull(dictionary.correct("qu"));
+    }
+
+    @Test
+    public void testPrefersFrequentTerms() {
+        dictionary.addAll(Arrays.asList("cast", "cost"));
+        dictionary.addAll(Collections.singletonList("cost"));
+        assertEquals("cost", dictionary.correct("cxst"));
+
+        dictionary.removeAll(Collections.singletonList("cost"));
+        dictionary.removeAll(Collections.singletonList("cost"));
+        assertEquals("cast", dictionary.correct("cxst"));
+        assertEquals(0, dictionary.getFrequency("cost"));
+    }
+
+    @Test
+    public void testDistanceCountsTranspositionsAsOneEdit() {
+        assertEquals(1, SpellingDictionary.distance("ab", "ba", 2));
+        // capped one above the maximum
+        assertEquals(3, SpellingDictionary.distance("kitten", "sitting", 2));
+        assertEquals(1, SpellingDictionary.distance("serch", "search", 2));
+        assertEquals(3, SpellingDictionary.distance("abcdef", "ghijkl", 2));
+    }
+
+    @Test
+    public void testSearchEngineProposesCorrectedQuery() {
+        try (SearchEngine engine = new SearchEngine()) {
+            engine.addPage(new Page("http://example.com/1", "segment merges keep search fast"));
+            engine.addPage(new Page("http://example.com/2", "the search engine indexes pages"));
+            engine.addPage(new Page("http://example.com/3", "thee thin"));
+            engine.refresh();
+
+            assertEquals("search engine", engine.didYouMean("serch engnie"));
+            assertEquals("\"search engine\" NOT pages", engine.didYouMean("\"serch engine\" NOT pages"));
+            assertNull(engine.didYouMean("search engine"));
+            assertNull(engine.didYouMean("serch~1 engine"));
+            // stop words are never indexed, but they are not misspelled either
+            assertNull(engine.didYouMean("the search with this engine"));
+            assertEquals("search engine", engine.search("serch engine", new SearchOptions.Builder().build())
+                    .getDidYouMean());
+
+            engine.deletePage("http://example.com/1");
+            assertNull(engine.didYouMean("segmnet"));
+        }
+    }
+
+    @Test
+    public void testStemmedWordsAreNotCorrected() {
+        try (SearchEngine engine = new SearchEngine(new Analyzer.Builder().stemming(true).build())) {
+            engine.addPage(new Page("http://example.com/1", "search engines index pages"));
+            engine.refresh();
+
+            assertNull(engine.didYouMean("search engines"));
+            assertNull(engine.didYouMean("engine page"));
+            assertEquals("search engines", engine.didYouMean("serch engines"));
+        }
+    }
+}
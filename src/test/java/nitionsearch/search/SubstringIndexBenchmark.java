@@ -0,0 +1,71 @@
+package nitionsearch.search;
+
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reports the size of the {@link SubstringIndex} of a vocabulary and the
+ * time of substring lookups through it and by scanning the trie.
+ * <p>
+ * Not part of the test suite; run {@link #main(String[])} directly.
+ */
+public class SubstringIndexBenchmark {
+    private static final int VOCABULARY = 200_000;
+    private static final int QUERIES = 2_000;
+    private static final int LIMIT = 64;
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        SuffixTrie trie = new SuffixTrie();
+        long characters = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            trie.insert(new String(word), i, 0);
+            characters += word.length;
+        }
+
+        long start = System.nanoTime();
+        SubstringIndex index = SubstringIndex.build(trie);
+        long buildNanos = System.nanoTime() - start;
+        System.out.printf("Terms: %,d  characters: %,d%n", index.size(), characters);
+        System.out.printf("Index: %,d bytes  %.1f bytes/character  built in %d ms%n",
+                index.estimateBytes(), (double) index.estimateBytes() / characters, buildNanos / 1_000_000);
+
+        String[] patterns = new String[QUERIES];
+        for (int i = 0; i < patterns.length; i++) {
+            char[] pattern = new char[2 + random.nextInt(3)];
+            for (int j = 0; j < pattern.length; j++) {
+                pattern[j] = (char) ('a' + random.nextInt(26));
+            }
+            patterns[i] = new String(pattern);
+        }
+
+        // warm up both paths before measuring
+        for (int round = 0; round < 3; round++) {
+            time("Suffix array", patterns, pattern -> index.termsContaining(pattern, LIMIT).size());
+            time("Trie scan", patterns, pattern -> trie.scanContaining(pattern, LIMIT).size());
+        }
+        report("Suffix array", time("Suffix array", patterns, pattern -> index.termsContaining(pattern, LIMIT).size()));
+        report("Trie scan", time("Trie scan", patterns, pattern -> trie.scanContaining(pattern, LIMIT).size()));
+    }
+
+    private static long time(String name, String[] patterns, ToIntFunction<String> lookup) {
+        long matches = 0;
+        long start = System.nanoTime();
+        for (String pattern : patterns) {
+            matches += lookup.applyAsInt(pattern);
+        }
+        long nanos = System.nanoTime() - start;
+        if (matches < 0) {
+            System.out.println(name);
+        }
+        return nanos;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.printf("%-13s %8.3f ms/query%n", name, nanos / 1e6 / QUERIES);
+    }
+}
@@ -0,0 +1,63 @@
+package nitionsearch.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubstringIndexTest {
+
+    private SuffixTrie trie;
+
+    @BeforeEach
+    public void setup() {
+        trie = new SuffixTrie();
+    }
+
+    @Test
+    public void testFindsInfixMatches() {
+        String[] words = {"websearch", "search", "researcher", "sea", "banana", "bandana"};
+        for (int i = 0; i < words.length; i++) {
+            trie.insert(words[i], 0, i);
+        }
+        SubstringIndex index = SubstringIndex.build(trie);
+
+        assertEquals(Arrays.asList("researcher", "search", "websearch"), index.termsContaining("search", 10));
+        assertEquals(Arrays.asList("banana", "bandana"), index.termsContaining("ana", 10));
+        assertEquals(Arrays.asList("banana"), index.termsContaining("nana", 10));
+        assertEquals(Arrays.asList("researcher"), index.termsContaining("search", 1));
+        assertTrue(index.termsContaining("xyz", 10).isEmpty());
+        assertTrue(index.termsContaining("", 10).isEmpty());
+        // matches never run across two terms
+        assertTrue(index.termsContaining("hsea", 10).isEmpty());
+    }
+
+    @Test
+    public void testMatchesVocabularyScan() {
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(4)));
+            }
+            trie.insert(word.toString(), i, 0);
+        }
+        SubstringIndex index = SubstringIndex.build(trie);
+
+        String[] patterns = {"a", "ab", "cab", "dddd", "abcd", "bacab", "ddddddddddd"};
+        for (String pattern : patterns) {
+            assertEquals(trie.scanContaining(pattern, 100), index.termsContaining(pattern, 100), pattern);
+        }
+    }
+
+    @Test
+    public void testEmptyVocabulary() {
+        SubstringIndex index = SubstringIndex.build(trie);
+        assertEquals(0, index.size());
+        assertTrue(index.termsContaining("a", 10).isEmpty());
+    }
+}
@@ -0,0 +1,124 @@
+package nitionsearch.search;
+
+import java.util.*;
+
+/**
+ * Reports the heap used per indexed term by the compact radix trie and by
+ * the previous layout of one {@code HashMap<Character, TrieNode>} and one
+ * {@code HashMap<UUID, List<Integer>>} per node.
+ * <p>
+ * Not part of the test suite; run {@link #main(String[])} directly, ideally
+ * with a fixed heap such as {@code -Xms2g -Xmx2g}.
+ */
+public class SuffixTrieMemoryBenchmark {
+    private static final int DOCUMENTS = 20_000;
+    private static final int WORDS_PER_DOCUMENT = 300;
+    private static final int VOCABULARY = 50_000;
+
+    public static void main(String[] args) {
+        String[] vocabulary = createVocabulary(new Random(7));
+        int[][] documents = createDocuments(new Random(11));
+
+        long before = usedHeap();
+        LegacyTrie legacy = new LegacyTrie();
+        for (int docId = 0; docId < documents.length; docId++) {
+            UUID pageId = UUID.randomUUID();
+            for (int position = 0; position < documents[docId].length; position++) {
+                legacy.insert(vocabulary[documents[docId][position]], pageId, position);
+            }
+        }
+        long legacyBytes = usedHeap() - before;
+        int terms = legacy.countTerms();
+        report("HashMap trie", legacyBytes, terms);
+        legacy = null;
+
+        before = usedHeap();
+        SuffixTrie trie = new SuffixTrie();
+        for (int docId = 0; docId < documents.length; docId++) {
+            for (int position = 0; position < documents[docId].length; position++) {
+                trie.insert(vocabulary[documents[docId][position]], docId, position);
+            }
+        }
+        long compactBytes = usedHeap() - before;
+        report("Radix trie", compactBytes, terms);
+        System.out.printf("Reduction: %.1fx%n", (double) legacyBytes / compactBytes);
+        // keep the trie reachable until it has been measured
+        System.out.println(trie.search(vocabulary[0]).size() >= 0 ? "" : "unreachable");
+    }
+
+    private static void report(String name, long bytes, int terms) {
+        long postings = (long) DOCUMENTS * WORDS_PER_DOCUMENT;
+        System.out.printf("%-13s %,12d bytes  %,8.1f bytes/term  %6.2f bytes/posting%n",
+                name, bytes, (double) bytes / terms, (double) bytes / postings);
+    }
+
+    private static String[] createVocabulary(Random random) {
+        String[] vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+        return vocabulary;
+    }
+
+    private static int[][] createDocuments(Random random) {
+        // rank-frequency skewed like natural text: a few words are very common
+        int[][] documents = new int[DOCUMENTS][WORDS_PER_DOCUMENT];
+        for (int[] document : documents) {
+            for (int i = 0; i < document.length; i++) {
+                document[i] = (int) Math.min(VOCABULARY - 1, Math.floor(Math.pow(VOCABULARY, random.nextDouble())) - 1);
+            }
+        }
+        return documents;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The trie layout before the radix nodes, kept here for comparison.
+     */
+    private static class LegacyTrie {
+        private final Node root = new Node();
+
+        void insert(String word, UUID pageId, int position) {
+            Node node = root;
+            for (char letter : word.toCharArray()) {
+                node = node.children.computeIfAbsent(letter, c -> new Node());
+            }
+            node.occurrences.computeIfAbsent(pageId, k -> new ArrayList<>()).add(position);
+        }
+
+        int countTerms() {
+            int terms = 0;
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (!node.occurrences.isEmpty()) {
+                    terms++;
+                }
+                node.children.values().forEach(stack::push);
+            }
+            return terms;
+        }
+
+        private static class Node {
+            private final Map<Character, Node> children = new HashMap<>();
+            private final Map<UUID, List<Integer>> occurrences = new HashMap<>();
+        }
+    }
+}
@@ -2,9 +2,13 @@ package nitionsearch.search;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Random;
+import java.util.TreeMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,105 +23,221 @@ public class SuffixTrieTest {
 
     @Test
     public void testInsertAndSearchSingleWord() {
-        UUID pageId = UUID.randomUUID(); // Create a UUID for the pageId
-        trie.insert("tree", pageId, 0);
-        Map<UUID, List<Integer>> positions = trie.search("tree");
-        assertEquals(1, positions.size());
-        assertEquals(1, positions.get(pageId).size());
-        assertEquals(0, positions.get(pageId).get(0).intValue());
+        int docId = 0;
+        trie.insert("tree", docId, 0);
+        PostingList postings = trie.search("tree");
+        assertEquals(1, postings.size());
+        assertArrayEquals(new int[]{0}, postings.getPositions(docId));
     }
 
     @Test
     public void testSearchNonExistentWord() {
-        UUID pageId = UUID.randomUUID();
-        trie.insert("banana", pageId, 0);
-        Map<UUID, List<Integer>> positions = trie.search("apple");
-        assertTrue(positions.isEmpty());
+        trie.insert("banana", 0, 0);
+        PostingList postings = trie.search("apple");
+        assertTrue(postings.isEmpty());
     }
 
     @Test
     public void testInsertMultiplePositionsForSameWord() {
-        UUID pageId1 = UUID.randomUUID();
-        UUID pageId2 = UUID.randomUUID();
-        trie.insert("lemon", pageId1, 0);
-        trie.insert("lemon", pageId2, 0);
-        Map<UUID, List<Integer>> positions = trie.search("lemon");
-        assertEquals(2, positions.size());
-        assertTrue(positions.containsKey(pageId1));
-        assertTrue(positions.containsKey(pageId2));
-        assertEquals(1, positions.get(pageId1).size());
-        assertEquals(0, positions.get(pageId1).get(0).intValue());
-        assertEquals(1, positions.get(pageId2).size());
-        assertEquals(0, positions.get(pageId2).get(0).intValue());
+        int docId1 = 0;
+        int docId2 = 1;
+        trie.insert("lemon", docId1, 0);
+        trie.insert("lemon", docId2, 0);
+        PostingList postings = trie.search("lemon");
+        assertEquals(2, postings.size());
+        assertTrue(postings.contains(docId1));
+        assertTrue(postings.contains(docId2));
+        assertArrayEquals(new int[]{0}, postings.getPositions(docId1));
+        assertArrayEquals(new int[]{0}, postings.getPositions(docId2));
+    }
+
+    @Test
+    public void testInsertSeveralPositionsInOneDocument() {
+        trie.insert("lemon", 3, 1);
+        trie.insert("lemon", 3, 4);
+        trie.insert("lemon", 3, 9);
+        PostingList postings = trie.search("lemon");
+        assertEquals(1, postings.size());
+        assertEquals(3, postings.getFrequency(3));
+        assertArrayEquals(new int[]{1, 4, 9}, postings.getPositions(3));
     }
 
     @Test
     public void testInsertAndSearchMultipleWords() {
-        UUID pageId1 = UUID.randomUUID();
-        UUID pageId2 = UUID.randomUUID();
-        trie.insert("tree", pageId1, 0);
-        trie.insert("leaf", pageId2, 0);
-        Map<UUID, List<Integer>> treePositions = trie.search("tree");
-        Map<UUID, List<Integer>> leafPositions = trie.search("leaf");
-        assertEquals(1, treePositions.size());
-        assertEquals(1, treePositions.get(pageId1).size());
-        assertEquals(0, treePositions.get(pageId1).get(0).intValue());
-        assertEquals(1, leafPositions.size());
-        assertEquals(1, leafPositions.get(pageId2).size());
-        assertEquals(0, leafPositions.get(pageId2).get(0).intValue());
+        int docId1 = 0;
+        int docId2 = 1;
+        trie.insert("tree", docId1, 0);
+        trie.insert("leaf", docId2, 0);
+        PostingList treePostings = trie.search("tree");
+        PostingList leafPostings = trie.search("leaf");
+        assertEquals(1, treePostings.size());
+        assertArrayEquals(new int[]{0}, treePostings.getPositions(docId1));
+        assertEquals(1, leafPostings.size());
+        assertArrayEquals(new int[]{0}, leafPostings.getPositions(docId2));
     }
 
     @Test
     public void testSearchEmptyString() {
-        UUID pageId = UUID.randomUUID();
-        trie.insert("tree", pageId, 0);
-        Map<UUID, List<Integer>> positions = trie.search("");
-        assertTrue(positions.isEmpty());
+        trie.insert("tree", 0, 0);
+        PostingList postings = trie.search("");
+        assertTrue(postings.isEmpty());
     }
 
     @Test
     public void testInsertAndSearchLongWord() {
         String longWord = "ahfdhaiihidhaijfidufsjhyfiwhfwjheahfaiyaewhejifhwe";
-        UUID pageId = UUID.randomUUID();
-        trie.insert(longWord, pageId, 0);
-        Map<UUID, List<Integer>> positions = trie.search(longWord);
-        assertEquals(1, positions.size());
-        assertEquals(1, positions.get(pageId).size());
-        assertEquals(0, positions.get(pageId).get(0).intValue());
+        int docId = 0;
+        trie.insert(longWord, docId, 0);
+        PostingList postings = trie.search(longWord);
+        assertEquals(1, postings.size());
+        assertArrayEquals(new int[]{0}, postings.getPositions(docId));
     }
 
     @Test
     public void testInsertAndSearchOverlappingWords() {
-        UUID pageId = UUID.randomUUID();
-        trie.insert("treehouse", pageId, 0);
-        trie.insert("tree", pageId, 0);
-        Map<UUID, List<Integer>> treehousePositions = trie.search("treehouse");
-        Map<UUID, List<Integer>> treePositions = trie.search("tree");
-        assertEquals(1, treehousePositions.size());
-        assertEquals(1, treehousePositions.get(pageId).size());
-        assertEquals(0, treehousePositions.get(pageId).get(0).intValue());
-        assertEquals(1, treePositions.size());
-        assertEquals(1, treePositions.get(pageId).size());
-        assertEquals(0, treePositions.get(pageId).get(0).intValue());
+        int docId = 0;
+        trie.insert("treehouse", docId, 0);
+        trie.insert("tree", docId, 0);
+        PostingList treehousePostings = trie.search("treehouse");
+        PostingList treePostings = trie.search("tree");
+        assertEquals(1, treehousePostings.size());
+        assertArrayEquals(new int[]{0}, treehousePostings.getPositions(docId));
+        assertEquals(1, treePostings.size());
+        assertArrayEquals(new int[]{0}, treePostings.getPositions(docId));
     }
 
     @Test
     public void testInsertAndSearchSingleCharacter() {
-        UUID pageId = UUID.randomUUID();
-        trie.insert("a", pageId, 0);
-        Map<UUID, List<Integer>> positions = trie.search("a");
-        assertEquals(1, positions.size());
-        assertEquals(1, positions.get(pageId).size());
-        assertEquals(0, positions.get(pageId).get(0).intValue());
+        int docId = 0;
+        trie.insert("a", docId, 0);
+        PostingList postings = trie.search("a");
+        assertEquals(1, postings.size());
+        assertArrayEquals(new int[]{0}, postings.getPositions(docId));
+    }
+
+    @Test
+    public void testSearchPrefixOfCompressedPath() {
+        trie.insert("treehouse", 0, 0);
+        assertTrue(trie.search("tree").isEmpty());
+        assertTrue(trie.search("treehousex").isEmpty());
+        assertEquals(1, trie.search("treehouse").size());
+    }
+
+    @Test
+    public void testInsertSplitsSharedPaths() {
+        trie.insert("tree", 0, 0);
+        trie.insert("trie", 1, 0);
+        trie.insert("tr", 2, 0);
+        trie.insert("trees", 3, 0);
+        assertArrayEquals(new int[]{0}, trie.search("tree").getDocIds());
+        assertArrayEquals(new int[]{1}, trie.search("trie").getDocIds());
+        assertArrayEquals(new int[]{2}, trie.search("tr").getDocIds());
+        assertArrayEquals(new int[]{3}, trie.search("trees").getDocIds());
+        assertTrue(trie.search("t").isEmpty());
+        assertTrue(trie.search("tre").isEmpty());
+    }
+
+    @Test
+    public void testInsertOutOfDocumentOrder() {
+        trie.insert("tree", 5, 0);
+        assertThrows(IllegalArgumentException.class, () -> trie.insert("tree", 2, 0));
     }
 
     @Test
     public void testInsertNullWord() {
-        assertThrows(NullPointerException.class, () -> trie.insert(null, UUID.randomUUID(), 0));
+        assertThrows(NullPointerException.class, () -> trie.insert(null, 0, 0));
     }
 
     @Test
     public void testSearchNullWord() {
         assertThrows(NullPointerException.class, () -> trie.search(null));
     }
+
+    @Test
+    public void testExpandPrefix() {
+        trie.insert("tree", 0, 0);
+        trie.insert("trie", 0, 1);
+        trie.insert("trees", 0, 2);
+        trie.insert("treehouse", 0, 3);
+        trie.insert("apple", 0, 4);
+        assertEquals(Arrays.asList("tree", "treehouse", "trees", "trie"), trie.expand("tr", 10));
+        // the prefix may end inside a compressed label
+        assertEquals(Arrays.asList("treehouse"), trie.expand("treeh", 10));
+        assertEquals(Arrays.asList("tree", "treehouse"), trie.expand("t", 2));
+        assertTrue(trie.expand("tx", 10).isEmpty());
+        assertEquals(5, trie.expand("", 10).size());
+    }
+
+    @Test
+    public void testCompleteOrdersByDocumentFrequency() {
+        for (int docId = 0; docId < 30; docId++) {
+            for (int term = 0; term < 20; term++) {
+                // term k occurs in the documents divisible by k + 1
+                if (docId % (term + 1) == 0) {
+                    trie.insert("term" + (char) ('a' + term), docId, term);
+                }
+            }
+        }
+        trie.insert("other", 0, 99);
+        trie.cacheCompletions(5);
+
+        List<SuffixTrie.Completion> completions = trie.complete("ter", 3);
+        assertEquals(3, completions.size());
+        assertEquals("terma", completions.get(0).getTerm());
+        assertEquals(30, completions.get(0).getDocFrequency());
+        assertEquals("termb", completions.get(1).getTerm());
+        assertEquals("termc", completions.get(2).getTerm());
+
+        // small subtrees are not cached and walked instead
+        List<SuffixTrie.Completion> single = trie.complete("oth", 5);
+        assertEquals(1, single.size());
+        assertEquals("other", single.get(0).getTerm());
+        assertTrue(trie.complete("x", 5).isEmpty());
+    }
+
+    @Test
+    public void testFuzzyMatchesAgreeWithEditDistance() {
+        Random random = new Random(5);
+        List<String> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(7);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(5)));
+            }
+            trie.insert(word.toString(), i, 0);
+            vocabulary.add(word.toString());
+        }
+
+        for (String query : new String[]{"abc", "eeee", "a", "bacde", "ddcbaab"}) {
+            for (int maxEdits = 0; maxEdits <= LevenshteinAutomaton.MAX_EDITS; maxEdits++) {
+                Map<String, Integer> expected = new TreeMap<>();
+                for (String term : vocabulary) {
+                    int distance = editDistance(query, term);
+                    if (distance <= maxEdits) {
+                        expected.put(term, distance);
+                    }
+                }
+                Map<String, Integer> actual = new TreeMap<>();
+                trie.forEachFuzzyMatch(new LevenshteinAutomaton(query, maxEdits), actual::put);
+                assertEquals(expected, actual, query + "~" + maxEdits);
+            }
+        }
+    }
+
+    private static int editDistance(String a, String b) {
+        int[][] distances = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    distances[i][j] = i + j;
+                } else {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    distances[i][j] = Math.min(distances[i - 1][j - 1] + cost,
+                            Math.min(distances[i - 1][j], distances[i][j - 1]) + 1);
+                }
+            }
+        }
+        return distances[a.length()][b.length()];
+    }
 }
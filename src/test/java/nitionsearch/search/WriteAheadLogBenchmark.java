@@ -0,0 +1,63 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Indexing throughput of a persistent engine under each sync policy of
+ * its write-ahead log, with several crawler-like threads adding pages.
+ */
+public class WriteAheadLogBenchmark {
+    private static final int THREADS = 4;
+    private static final int PAGES_PER_THREAD = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        List<String> contents = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 300; w++) {
+                content.append("word").append(random.nextInt(20_000)).append(' ');
+            }
+            contents.add(content.toString());
+        }
+
+        for (WriteAheadLog.SyncPolicy policy : WriteAheadLog.SyncPolicy.values()) {
+            Path directory = Files.createTempDirectory("wal-benchmark");
+            long start = System.nanoTime();
+            try (SearchEngine engine = SearchEngine.open(directory, new Analyzer.Builder().build(), policy)) {
+                Thread[] writers = new Thread[THREADS];
+                for (int t = 0; t < THREADS; t++) {
+                    int writer = t;
+                    writers[t] = new Thread(() -> {
+                        for (int i = 0; i < PAGES_PER_THREAD; i++) {
+                            engine.addPage(new Page("http://example.com/" + writer + "/" + i,
+                                    contents.get((writer * PAGES_PER_THREAD + i) % contents.size())));
+                        }
+                    });
+                    writers[t].start();
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-9s %8.0f pages/s%n", policy, THREADS * PAGES_PER_THREAD / seconds);
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package nitionsearch.search;
+
+import nitionsearch.model.Page;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+
+    private final SearchOptions options = new SearchOptions.Builder().pageSize(20).build();
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("wal");
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static List<String> replay(WriteAheadLog log) throws IOException {
+        List<String> mutations = new ArrayList<>();
+        log.replay(new WriteAheadLog.Replay() {
+            @Override
+            public void addPage(Page page, boolean replace) {
+                mutations.add((replace ? "replace " : "add ") + page.getUrl() + " " + page.getContent());
+            }
+
+            @Override
+            public void deletePage(String url) {
+                mutations.add("delete " + url);
+            }
+        });
+        return mutations;
+    }
+
+    @Test
+    public void testReplayReturnsLoggedMutationsInOrder() throws IOException {
+        Path file = directory.resolve(WriteAheadLog.FILE_NAME);
+        UUID id = UUID.randomUUID();
+        try (WriteAheadLog log = WriteAheadLog.open(file, WriteAheadLog.SyncPolicy.PER_WRITE)) {
+            log.sync(log.logAdd(new Page(id, "http://example.com/a", "first page"), false));
+            log.sync(log.logAdd(new Page("http://example.com/a", "caf\u00e9 menu"), true));
+            log.sync(log.logDelete("http://example.com/b"));
+        }
+        try (WriteAheadLog log = WriteAheadLog.open(file, WriteAheadLog.SyncPolicy.PER_WRITE)) {
+            assertEquals(Arrays.asList("add http://example.com/a first page",
+                    "replace http://example.com/a caf\u00e9 menu",
+                    "delete http://example.com/b"), replay(log));
+        }
+    }
+
+    @Test
+    public void testReplayStopsAtTornOrCorruptRecord() throws IOException {
+        Path file = directory.resolve(WriteAheadLog.FILE_NAME);
+        long twoRecords;
+        try (WriteAheadLog log = WriteAheadLog.open(file, WriteAheadLog.SyncPolicy.PER_WRITE)) {
+            log.logAdd(new Page("http://example.com/a", "first"), false);
+            log.logAdd(new Page("http://example.com/b", "second"), false);
+            twoRecords = log.size();
+            log.logAdd(new Page("http://example.com/c", "third"), false);
+        }
+        // flip a byte of the third payload
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        // and append half a record header
+        Files.write(file, new byte[]{0, 0, 1}, StandardOpenOption.APPEND);
+
+        try (WriteAheadLog log = WriteAheadLog.open(file, WriteAheadLog.SyncPolicy.PER_WRITE)) {
+            assertEquals(Arrays.asList("add http://example.com/a first", "add http://example.com/b second"), replay(log));
+            // the damaged tail is cut off, new records follow the last good one
+            assertEquals(twoRecords, log.size());
+            log.logDelete("http://example.com/a");
+        }
+        try (WriteAheadLog log = WriteAheadLog.open(file, WriteAheadLog.SyncPolicy.PER_WRITE)) {
+            assertEquals(3, replay(log).size());
+        }
+    }
+
+    @Test
+    public void testSyncPoliciesForceAsOftenAsTheyPromise() throws IOException {
+        int records = WriteAheadLog.BATCH_SIZE * 2;
+        Map<WriteAheadLog.SyncPolicy, Long> syncs = new EnumMap<>(WriteAheadLog.SyncPolicy.class);
+        for (WriteAheadLog.SyncPolicy policy : WriteAheadLog.SyncPolicy.values()) {
+            try (WriteAheadLog log = WriteAheadLog.open(directory.resolve(policy.name()), policy)) {
+                for (int i = 0; i < records; i++) {
+                    log.sync(log.logDelete("http://example.com/" + i));
+                }
+                syncs.put(policy, log.getSyncCount());
+            }
+        }
+        assertEquals(records, syncs.get(WriteAheadLog.SyncPolicy.PER_WRITE).longValue());
+        assertEquals(2, syncs.get(WriteAheadLog.SyncPolicy.BATCHED).longValue());
+        // forced by the background thread only, which did not run yet
+        assertTrue(syncs.get(WriteAheadLog.SyncPolicy.PERIODIC) <= 1);
+    }
+
+    @Test
+    public void testCrashedEngineRecoversBufferedMutations() throws IOException {
+        SearchEngine crashed = SearchEngine.open(directory);
+        crashed.addPage(new Page("http://example.com/a", "sealed before the crash"));
+        crashed.refresh();
+        crashed.addPage(new Page("http://example.com/b", "buffered when the process died"));
+        crashed.addPage(new Page("http://example.com/c", "also buffered but deleted"));
+        crashed.deletePage("http://example.com/c");
+        crashed.addOrReplacePage(new Page("http://example.com/a", "replaced before the crash"));
+        assertTrue(Files.size(directory.resolve(WriteAheadLog.FILE_NAME)) > 0);
+        // no close, as if the process was killed
+
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            assertEquals(2, engine.getIndexedPagesCount());
+            assertEquals(1, engine.search("buffered died", options).getTotalResults());
+            assertEquals(0, engine.search("deleted", options).getTotalResults());
+            assertEquals(0, engine.search("sealed", options).getTotalResults());
+            assertEquals(1, engine.search("replaced", options).getTotalResults());
+            // recovered mutations are committed, so the log starts over
+            assertEquals(0, Files.size(directory.resolve(WriteAheadLog.FILE_NAME)));
+        }
+    }
+
+    @Test
+    public void testLogIsTruncatedOnceSnapshotIsCommitted() throws IOException {
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            engine.addPage(new Page("http://example.com/a", "logged page"));
+            engine.addPage(new Page("http://example.com/b", "kept page"));
+            assertTrue(Files.size(directory.resolve(WriteAheadLog.FILE_NAME)) > 0);
+            engine.refresh();
+            assertEquals(0, Files.size(directory.resolve(WriteAheadLog.FILE_NAME)));
+
+            // deleting a sealed page is only logged, the next refresh commits it;
+            // half the segment stays live, so no merge commits it first
+            engine.deletePage("http://example.com/a");
+            assertEquals(0, engine.search("logged", options).getTotalResults());
+            assertTrue(Files.size(directory.resolve(WriteAheadLog.FILE_NAME)) > 0);
+            engine.refresh();
+            assertEquals(0, Files.size(directory.resolve(WriteAheadLog.FILE_NAME)));
+        }
+    }
+
+    @Test
+    public void testUncommittedDeletesOfSealedPagesAreRecovered() throws IOException {
+        SearchEngine crashed = SearchEngine.open(directory);
+        for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+            crashed.addPage(new Page("http://example.com/" + name, "sealed page " + name));
+        }
+        crashed.refresh();
+        // too few to make the segment worth merging, which would commit them
+        crashed.deletePage("http://example.com/a");
+        crashed.deletePage("http://example.com/c");
+        // no close, as if the process was killed
+
+        try (SearchEngine engine = SearchEngine.open(directory)) {
+            assertEquals(3, engine.getIndexedPagesCount());
+            assertEquals(3, engine.search("sealed", options).getTotalResults());
+            assertTrue(engine.canAddPage(new Page("http://example.com/a", "sealed page a")));
+        }
+    }
+}